@@ -0,0 +1,64 @@
+package com.biblioteca.sistema_gestion_biblioteca.Benchmark;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import estados.EstadoLibro;
+import modelo.Libro;
+import org.openjdk.jmh.annotations.*;
+import repository.impl.LibroRepositoryImpl;
+import repository.persistencia.BitacoraEnArchivo;
+import repository.persistencia.ModoFsync;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Escrituras por segundo de LibroRepositoryImpl.save con la bitacora en cada modo de fsync.
+ * SINCRONICO hace un fsync por save; GRUPO deberia escalar con los hilos porque los save que
+ * llegan mientras se hace un fsync salen juntos en el siguiente; ASINCRONICO marca el techo
+ * (no espera al disco). Ejemplo: -Djmh.args="BitacoraBenchmark -t 16 -rf json -rff bitacora.json"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(8)
+public class BitacoraBenchmark {
+
+    @Param({"SINCRONICO", "GRUPO", "ASINCRONICO"})
+    private ModoFsync modo;
+
+    private final AtomicLong isbn = new AtomicLong();
+    private Path directorio;
+    private BitacoraEnArchivo bitacora;
+    private LibroRepositoryImpl libroRepository;
+
+    @Setup(Level.Iteration)
+    public void abrir() throws IOException {
+        directorio = Files.createTempDirectory("bitacora-bench");
+        bitacora = new BitacoraEnArchivo(directorio, modo, 200,
+                JsonMapper.builder().findAndAddModules().build());
+        libroRepository = new LibroRepositoryImpl(bitacora);
+    }
+
+    @TearDown(Level.Iteration)
+    public void cerrar() throws IOException {
+        bitacora.close();
+        try (Stream<Path> archivos = Files.list(directorio)) {
+            for (Path archivo : archivos.toList()) {
+                Files.delete(archivo);
+            }
+        }
+        Files.delete(directorio);
+    }
+
+    @Benchmark
+    public Libro guardar() {
+        return libroRepository.save(new Libro(null, "978-" + isbn.incrementAndGet(), "Titulo", "Autor", EstadoLibro.DISPONIBLE));
+    }
+}
@@ -0,0 +1,53 @@
+package com.biblioteca.sistema_gestion_biblioteca.Benchmark;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Corre los benchmarks de los caminos calientes con cada cantidad de hilos y junta todos los
+ * resultados en un unico JSON (formato de JMH), para comparar dos commits con el mismo archivo.
+ * Propiedades: jmh.hilos (por defecto "1,4,8"), jmh.incluir (regex de benchmarks) y
+ * jmh.resultado (ruta del JSON). Los argumentos se pasan a JMH tal cual, por ejemplo "-p tamanio=1000".
+ */
+public class EjecutarBenchmarks {
+
+    private static final String INCLUIR_POR_DEFECTO = "\\.(RepositorioBenchmark|PrestamoServiceBenchmark)\\.";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions argumentos = new CommandLineOptions(args);
+        String incluir = System.getProperty("jmh.incluir", INCLUIR_POR_DEFECTO);
+        Path resultado = Path.of(System.getProperty("jmh.resultado", "target/jmh/resultados.json"));
+
+        List<RunResult> resultados = new ArrayList<>();
+        for (String hilos : System.getProperty("jmh.hilos", "1,4,8").split(",")) {
+            resultados.addAll(new Runner(new OptionsBuilder()
+                    .parent(argumentos)
+                    .include(incluir)
+                    .threads(Integer.parseInt(hilos.trim()))
+                    .build()).run());
+        }
+
+        Path directorio = resultado.toAbsolutePath().getParent();
+        if (directorio != null) {
+            Files.createDirectories(directorio);
+        }
+        try (PrintStream salida = new PrintStream(Files.newOutputStream(resultado), true, StandardCharsets.UTF_8)) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, salida).writeOut(resultados);
+        }
+        System.out.println("Resultados en " + resultado.toAbsolutePath());
+    }
+}
@@ -0,0 +1,85 @@
+package com.biblioteca.sistema_gestion_biblioteca.Benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import controller.LibroController;
+import estados.EstadoLibro;
+import modelo.Libro;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import repository.impl.LibroRepositoryImpl;
+import services.impl.LibroServiceImpl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exportacion NDJSON en streaming contra la lista completa materializada (findAll + JSON en memoria).
+ * Correr con -prof gc y comparar gc.alloc.rate.norm al crecer "registros": el streaming solo
+ * asigna objetos de vida corta por registro, mientras que la lista completa retiene la copia
+ * y el JSON entero hasta terminar. Con -Xmx512m la variante materializada es la que se queda sin heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class ExportacionBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    private int registros;
+
+    private ObjectMapper objectMapper;
+    private LibroServiceImpl libroService;
+    private LibroController libroController;
+
+    @Setup
+    public void cargarCatalogo() {
+        LibroRepositoryImpl libroRepository = new LibroRepositoryImpl();
+        for (int i = 0; i < registros; i++) {
+            libroRepository.save(new Libro(null, "978-" + i, "Titulo " + i, "Autor " + (i % 1000), EstadoLibro.DISPONIBLE));
+        }
+        objectMapper = new ObjectMapper();
+        libroService = new LibroServiceImpl(libroRepository);
+        libroController = new LibroController(libroService, objectMapper);
+    }
+
+    @Benchmark
+    public long exportarNdjson(Blackhole blackhole) throws IOException {
+        Sumidero sumidero = new Sumidero(blackhole);
+        libroController.exportar().getBody().writeTo(sumidero);
+        return sumidero.bytes;
+    }
+
+    @Benchmark
+    public long listaCompleta(Blackhole blackhole) throws IOException {
+        Sumidero sumidero = new Sumidero(blackhole);
+        List<Libro> libros = libroService.obtenerTodos();
+        sumidero.write(objectMapper.writeValueAsBytes(libros));
+        return sumidero.bytes;
+    }
+
+    // Descarta lo escrito (como una conexion rapida) y solo cuenta los bytes
+    private static final class Sumidero extends OutputStream {
+        private final Blackhole blackhole;
+        private long bytes;
+
+        private Sumidero(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+            bytes += len;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.biblioteca.sistema_gestion_biblioteca.Benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import controller.LibroController;
+import estados.EstadoLibro;
+import exceptions.LibroNoEncontradoException;
+import modelo.Libro;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import repository.impl.LibroRepositoryImpl;
+import services.impl.LibroServiceImpl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GET /api/libros/{id} con ids inexistentes, tres variantes:
+ * antesConTraza reproduce el controller anterior (el servicio lanza la excepcion con stack trace y el
+ * controller la atrapa), sinTraza es lo mismo con la excepcion que no captura la pila, y optional es el
+ * controller actual, que no lanza nada. "profundidad" agrega marcos a la pila antes de la llamada,
+ * porque en un request real el controller corre debajo de ~100 marcos de Tomcat y Spring, y llenar
+ * la traza cuesta proporcional a eso. Correr con -prof gc para ver tambien la asignacion por operacion.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NoEncontradoBenchmark {
+
+    private static final int LIBROS = 10_000;
+
+    @Param({"0", "100"})
+    private int profundidad;
+
+    private LibroRepositoryImpl libroRepository;
+    private LibroController libroController;
+
+    @Setup
+    public void cargar() {
+        libroRepository = new LibroRepositoryImpl();
+        for (int i = 0; i < LIBROS; i++) {
+            libroRepository.save(new Libro(null, "978-" + i, "Titulo " + i, "Autor", EstadoLibro.DISPONIBLE));
+        }
+        libroController = new LibroController(new LibroServiceImpl(libroRepository), new ObjectMapper());
+    }
+
+    @Benchmark
+    public ResponseEntity<Libro> antesConTraza() {
+        return aProfundidad(profundidad, () -> {
+            long id = idInexistente();
+            try {
+                return ResponseEntity.ok(libroRepository.findById(id)
+                        .orElseThrow(() -> new LibroNoEncontradoException("Libro no encontrado por el ID: " + id)));
+            } catch (LibroNoEncontradoException e) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+            }
+        });
+    }
+
+    @Benchmark
+    public ResponseEntity<Libro> sinTraza() {
+        return aProfundidad(profundidad, () -> {
+            long id = idInexistente();
+            try {
+                return ResponseEntity.ok(libroRepository.findById(id)
+                        .orElseThrow(() -> new LibroNoEncontradoException("Libro no encontrado por el ID: " + id, false)));
+            } catch (LibroNoEncontradoException e) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+            }
+        });
+    }
+
+    @Benchmark
+    public ResponseEntity<Libro> optional() {
+        return aProfundidad(profundidad, () -> libroController.obtenerPorId(idInexistente(), null));
+    }
+
+    private static long idInexistente() {
+        return LIBROS + 1 + ThreadLocalRandom.current().nextInt(1_000_000);
+    }
+
+    @CompilerControl(CompilerControl.Mode.DONT_INLINE)
+    private static ResponseEntity<Libro> aProfundidad(int marcos, Pedido pedido) {
+        return marcos == 0 ? pedido.atender() : aProfundidad(marcos - 1, pedido);
+    }
+
+    private interface Pedido {
+        ResponseEntity<Libro> atender();
+    }
+}
@@ -0,0 +1,81 @@
+package com.biblioteca.sistema_gestion_biblioteca.Benchmark;
+
+import estados.EstadoLibro;
+import estados.EstadoUsuario;
+import exceptions.LibroNoEncontradoException;
+import modelo.Libro;
+import modelo.Prestamo;
+import modelo.Usuario;
+import org.openjdk.jmh.annotations.*;
+import repository.impl.LibroRepositoryImpl;
+import repository.impl.PrestamoRepositoryImpl;
+import repository.impl.UsuarioRepositoryImpl;
+import services.impl.PrestamoServiceImpl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ciclo completo realizarPrestamo + marcarComoDevuelto sobre un libro al azar entre "libros".
+ * Con pocos libros y muchos hilos aparece la contencion en los cerrojos por libro: los intentos
+ * sobre un libro que otro hilo tiene prestado se cuentan en el contador "rechazados".
+ * Los repositorios se recrean en cada iteracion, para que el mapa de prestamos no crezca sin limite.
+ * Cada hilo presta con su propio usuario, asi no se serializan en el cerrojo por usuario ni chocan con el maximo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class PrestamoServiceBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    private int libros;
+
+    private PrestamoServiceImpl prestamoService;
+    private Libro[] catalogo;
+    private final AtomicLong dnis = new AtomicLong();
+
+    @Setup(Level.Iteration)
+    public void cargar() {
+        LibroRepositoryImpl libroRepository = new LibroRepositoryImpl();
+        catalogo = new Libro[libros];
+        for (int i = 0; i < libros; i++) {
+            catalogo[i] = libroRepository.save(new Libro(null, "978-" + i, "Titulo " + i, "Autor", EstadoLibro.DISPONIBLE));
+        }
+        prestamoService = new PrestamoServiceImpl(new PrestamoRepositoryImpl(), libroRepository, new UsuarioRepositoryImpl());
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Resultados {
+        public long rechazados;
+    }
+
+    @State(Scope.Thread)
+    public static class Prestatario {
+        Usuario usuario;
+
+        @Setup
+        public void crear(PrestamoServiceBenchmark benchmark) {
+            long dni = benchmark.dnis.incrementAndGet();
+            usuario = new Usuario(dni, "Usuario " + dni, dni + "@mail.com", EstadoUsuario.ACTIVO);
+        }
+    }
+
+    @Benchmark
+    public Prestamo prestarYDevolver(Resultados resultados, Prestatario prestatario) {
+        Libro libro = catalogo[ThreadLocalRandom.current().nextInt(libros)];
+        Prestamo prestamo;
+        try {
+            prestamo = prestamoService.realizarPrestamo(libro, prestatario.usuario);
+        } catch (LibroNoEncontradoException e) {
+            resultados.rechazados++;
+            return null;
+        }
+        prestamoService.marcarComoDevuelto(prestamo.getId());
+        return prestamo;
+    }
+}
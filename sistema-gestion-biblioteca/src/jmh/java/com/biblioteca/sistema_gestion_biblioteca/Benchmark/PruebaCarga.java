@@ -0,0 +1,165 @@
+package com.biblioteca.sistema_gestion_biblioteca.Benchmark;
+
+import com.biblioteca.sistema_gestion_biblioteca.SistemaGestionBibliotecaApplication;
+import estados.EstadoLibro;
+import modelo.Libro;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import repository.LibroRepository;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prueba de carga HTTP que compara el pool de hilos de plataforma de Tomcat contra hilos virtuales
+ * (spring.threads.virtual.enabled). Levanta la aplicacion una vez por modo, con la bitacora
+ * habilitada para que las altas esperen el fsync, y la golpea con N clientes concurrentes
+ * (cada uno un hilo virtual en lazo cerrado) mezclando GET /api/libros/{id} y POST /api/libros.
+ * Al final imprime rendimiento y percentiles de latencia de cada modo.
+ * <p>
+ * Propiedades: carga.clientes (5000), carga.segundos (30), carga.calentamiento (5),
+ * carga.escrituras (fraccion de POST, 0.1), carga.modo-fsync (GRUPO) y carga.modos ("plataforma,virtual").
+ * Con muchos clientes hace falta un limite de descriptores de archivo de al menos el doble.
+ * Agregar -Djdk.tracePinnedThreads=full a la JVM para ver si algun hilo virtual queda fijado a su portador.
+ */
+public class PruebaCarga {
+
+    private static final int LIBROS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int clientes = Integer.getInteger("carga.clientes", 5000);
+        int segundos = Integer.getInteger("carga.segundos", 30);
+        int calentamiento = Integer.getInteger("carga.calentamiento", 5);
+        double escrituras = Double.parseDouble(System.getProperty("carga.escrituras", "0.1"));
+        String modoFsync = System.getProperty("carga.modo-fsync", "GRUPO");
+
+        for (String modo : System.getProperty("carga.modos", "plataforma,virtual").split(",")) {
+            boolean virtuales = modo.trim().equals("virtual");
+            Path directorio = Files.createTempDirectory("carga-" + modo.trim());
+            ConfigurableApplicationContext contexto = SpringApplication.run(SistemaGestionBibliotecaApplication.class,
+                    "--server.port=0",
+                    "--server.tomcat.accept-count=" + clientes,
+                    "--server.tomcat.max-connections=" + (clientes + 1000),
+                    "--spring.threads.virtual.enabled=" + virtuales,
+                    "--biblioteca.persistencia.habilitada=true",
+                    "--biblioteca.persistencia.directorio=" + directorio,
+                    "--biblioteca.persistencia.modo=" + modoFsync,
+                    "--logging.level.root=WARN");
+            try {
+                LibroRepository libros = contexto.getBean(LibroRepository.class);
+                for (int i = 0; i < LIBROS; i++) {
+                    libros.save(new Libro(null, "978-" + i, "Titulo " + i, "Autor " + (i % 500), EstadoLibro.DISPONIBLE));
+                }
+                int puerto = ((ServletWebServerApplicationContext) contexto).getWebServer().getPort();
+                Resultado resultado = medir(URI.create("http://localhost:" + puerto + "/api/libros"),
+                        clientes, calentamiento, segundos, escrituras);
+                resultado.imprimir(modo.trim(), clientes);
+            } finally {
+                contexto.close();
+            }
+        }
+    }
+
+    private static Resultado medir(URI base, int clientes, int calentamiento, int segundos, double escrituras)
+            throws InterruptedException {
+        long inicioMedicion = System.nanoTime() + TimeUnit.SECONDS.toNanos(calentamiento);
+        long fin = inicioMedicion + TimeUnit.SECONDS.toNanos(segundos);
+        long[][] latencias = new long[clientes][];
+        AtomicLong errores = new AtomicLong();
+        AtomicLong altas = new AtomicLong();
+
+        try (HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+             ExecutorService ejecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clientes; c++) {
+                int cliente = c;
+                ejecutor.submit(() -> {
+                    Muestras muestras = new Muestras();
+                    ThreadLocalRandom azar = ThreadLocalRandom.current();
+                    long ahora;
+                    while ((ahora = System.nanoTime()) < fin) {
+                        HttpRequest pedido = azar.nextDouble() < escrituras
+                                ? HttpRequest.newBuilder(base)
+                                        .header("Content-Type", "application/json")
+                                        .POST(HttpRequest.BodyPublishers.ofString(alta(altas.incrementAndGet())))
+                                        .build()
+                                : HttpRequest.newBuilder(base.resolve("/api/libros/" + (1 + azar.nextInt(LIBROS)))).build();
+                        try {
+                            HttpResponse<Void> respuesta = http.send(pedido, HttpResponse.BodyHandlers.discarding());
+                            if (respuesta.statusCode() >= 400) {
+                                errores.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            errores.incrementAndGet();
+                            continue;
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        if (ahora >= inicioMedicion) {
+                            muestras.agregar(System.nanoTime() - ahora);
+                        }
+                    }
+                    latencias[cliente] = muestras.valores();
+                });
+            }
+            ejecutor.shutdown();
+            ejecutor.awaitTermination(calentamiento + segundos + 120L, TimeUnit.SECONDS);
+        }
+
+        long[] todas = Arrays.stream(latencias).filter(l -> l != null).flatMapToLong(Arrays::stream).sorted().toArray();
+        return new Resultado(todas, errores.get(), segundos);
+    }
+
+    private static String alta(long numero) {
+        return "{\"isbn\":\"carga-" + numero + "\",\"titulo\":\"Titulo\",\"autor\":\"Autor\",\"estadoLibro\":\"DISPONIBLE\"}";
+    }
+
+    private static final class Muestras {
+        private long[] valores = new long[1024];
+        private int cantidad;
+
+        void agregar(long valor) {
+            if (cantidad == valores.length) {
+                valores = Arrays.copyOf(valores, cantidad * 2);
+            }
+            valores[cantidad++] = valor;
+        }
+
+        long[] valores() {
+            return Arrays.copyOf(valores, cantidad);
+        }
+    }
+
+    private record Resultado(long[] latencias, long errores, int segundos) {
+
+        void imprimir(String modo, int clientes) {
+            System.out.printf("%-10s clientes=%d pedidos=%d (%.0f/s) errores=%d p50=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms%n",
+                    modo, clientes, latencias.length, latencias.length / (double) segundos, errores,
+                    percentil(0.50), percentil(0.99), percentil(0.999),
+                    latencias.length == 0 ? 0 : latencias[latencias.length - 1] / 1e6);
+        }
+
+        private double percentil(double p) {
+            if (latencias.length == 0) {
+                return 0;
+            }
+            return latencias[(int) Math.min(latencias.length - 1, Math.ceil(p * latencias.length) - 1)] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.biblioteca.sistema_gestion_biblioteca.Benchmark;
+
+import estados.EstadoLibro;
+import estados.EstadoUsuario;
+import modelo.Libro;
+import modelo.Prestamo;
+import modelo.Usuario;
+import org.openjdk.jmh.annotations.*;
+import repository.impl.LibroRepositoryImpl;
+import repository.impl.PrestamoRepositoryImpl;
+import repository.impl.UsuarioRepositoryImpl;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Busquedas de los repositorios en memoria con "tamanio" libros, usuarios y prestamos.
+ * Cada usuario tiene 10 prestamos y cada libro 1, asi findByUsuarioDni y findByLibroId
+ * devuelven listas de distinto largo. Las claves se eligen al azar en cada invocacion.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RepositorioBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int tamanio;
+
+    private LibroRepositoryImpl libroRepository;
+    private UsuarioRepositoryImpl usuarioRepository;
+    private PrestamoRepositoryImpl prestamoRepository;
+
+    @Setup
+    public void cargar() {
+        libroRepository = new LibroRepositoryImpl();
+        usuarioRepository = new UsuarioRepositoryImpl();
+        prestamoRepository = new PrestamoRepositoryImpl();
+        int usuarios = Math.max(1, tamanio / 10);
+        for (int i = 0; i < tamanio; i++) {
+            libroRepository.save(new Libro(null, isbn(i), "Titulo " + i, "Autor " + (i % 1000), EstadoLibro.DISPONIBLE));
+        }
+        for (int i = 0; i < usuarios; i++) {
+            usuarioRepository.save(new Usuario(null, "Usuario " + i, email(i), EstadoUsuario.ACTIVO));
+        }
+        for (int i = 0; i < tamanio; i++) {
+            Libro libro = libroRepository.findById((long) i + 1).orElseThrow();
+            Usuario usuario = usuarioRepository.findByDni((long) (i % usuarios) + 1).orElseThrow();
+            prestamoRepository.save(new Prestamo(null, libro, usuario, LocalDate.now(), Optional.empty()));
+        }
+    }
+
+    @Benchmark
+    public Optional<Libro> findByIsbn() {
+        return libroRepository.findByIsbn(isbn(ThreadLocalRandom.current().nextInt(tamanio)));
+    }
+
+    @Benchmark
+    public Optional<Usuario> findByEmail() {
+        return usuarioRepository.findByEmail(email(ThreadLocalRandom.current().nextInt(Math.max(1, tamanio / 10))));
+    }
+
+    @Benchmark
+    public List<Prestamo> findByUsuarioDni() {
+        return prestamoRepository.findByUsuarioDni((long) ThreadLocalRandom.current().nextInt(Math.max(1, tamanio / 10)) + 1);
+    }
+
+    @Benchmark
+    public List<Prestamo> findByLibroId() {
+        return prestamoRepository.findByLibroId((long) ThreadLocalRandom.current().nextInt(tamanio) + 1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<Libro> findAll() {
+        return libroRepository.findAll();
+    }
+
+    private static String isbn(int i) {
+        return "978-" + i;
+    }
+
+    private static String email(int i) {
+        return "usuario" + i + "@mail.com";
+    }
+}
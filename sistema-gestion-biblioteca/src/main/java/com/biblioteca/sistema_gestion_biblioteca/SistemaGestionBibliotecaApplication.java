@@ -3,7 +3,7 @@ package com.biblioteca.sistema_gestion_biblioteca;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
-@SpringBootApplication
+@SpringBootApplication(scanBasePackages = {"com.biblioteca.sistema_gestion_biblioteca", "controller", "services", "repository", "metricas"})
 public class SistemaGestionBibliotecaApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,60 @@
+package controller;
+import services.interfaces.*;
+import modelo.*;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/estadisticas")
+public class EstadisticasController {
+
+    // Un rango mas largo que esto se pide por partes: la respuesta trae un elemento por dia
+    static final int MAXIMO_DIAS = 3660;
+
+    private final EstadisticasService estadisticasService;
+
+    public EstadisticasController(EstadisticasService estadisticasService) {
+        this.estadisticasService = estadisticasService;
+    }
+
+    // GET /api/estadisticas/prestamos-por-dia?desde=2025-01-01&hasta=2025-01-31; sin fechas, los ultimos 30 dias
+    @GetMapping("/prestamos-por-dia")
+    public ResponseEntity<List<PrestamosDelDia>> prestamosPorDia(@RequestParam(value = "desde", required = false) LocalDate desde,
+                                                                 @RequestParam(value = "hasta", required = false) LocalDate hasta) {
+        LocalDate fin = hasta == null ? LocalDate.now() : hasta;
+        LocalDate inicio = desde == null ? fin.minusDays(29) : desde;
+        if (inicio.isAfter(fin) || fin.toEpochDay() - inicio.toEpochDay() >= MAXIMO_DIAS) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(estadisticasService.prestamosPorDia(inicio, fin));
+    }
+
+    @GetMapping("/libros-mas-prestados")
+    public ResponseEntity<List<PuestoRanking>> librosMasPrestados(@RequestParam(value = "limit", defaultValue = "10") int limit) {
+        if (limit <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(estadisticasService.librosMasPrestados(limit));
+    }
+
+    @GetMapping("/usuarios-con-mas-prestamos")
+    public ResponseEntity<List<PuestoRanking>> usuariosConMasPrestamos(@RequestParam(value = "limit", defaultValue = "10") int limit) {
+        if (limit <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(estadisticasService.usuariosConMasPrestamos(limit));
+    }
+
+    @GetMapping("/libros/{id}")
+    public ResponseEntity<PuestoRanking> prestamosDeLibro(@PathVariable Long id) {
+        return ResponseEntity.ok(estadisticasService.prestamosDeLibro(id));
+    }
+
+    @GetMapping("/usuarios/{dni}")
+    public ResponseEntity<PuestoRanking> prestamosDeUsuario(@PathVariable Long dni) {
+        return ResponseEntity.ok(estadisticasService.prestamosDeUsuario(dni));
+    }
+}
@@ -0,0 +1,48 @@
+package controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ETag a partir de las versiones que llevan los repositorios. Si el cliente manda en If-None-Match
+ * la version actual se contesta 304 sin buscar ni serializar nada.
+ * <p>
+ * Las versiones viven en memoria y vuelven a contar desde cero en cada arranque (reproducir la bitacora
+ * tambien las sube), asi que el ETag lleva adelante una epoca elegida al arrancar: uno emitido antes
+ * de reiniciar nunca coincide con la misma version de despues.
+ */
+final class Etags {
+
+    private static final String EPOCA = Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36);
+
+    private Etags() {
+    }
+
+    static String de(long version) {
+        return "\"" + EPOCA + "-" + version + "\"";
+    }
+
+    // If-None-Match puede traer varios ETag separados por coma, debiles (W/) o "*"
+    static boolean coincide(String siNoCoincide, long version) {
+        if (siNoCoincide == null || version == 0) {
+            return false;
+        }
+        String etag = de(version);
+        for (String candidato : siNoCoincide.split(",")) {
+            String limpio = candidato.trim();
+            if (limpio.startsWith("W/")) {
+                limpio = limpio.substring(2);
+            }
+            if (limpio.equals(etag) || limpio.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static <T> ResponseEntity<T> noModificado(long version) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(de(version)).build();
+    }
+}
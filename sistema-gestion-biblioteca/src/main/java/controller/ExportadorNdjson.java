@@ -0,0 +1,44 @@
+package controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Escribe una coleccion como NDJSON (un objeto JSON por linea) directo al cuerpo de la respuesta.
+ * Cada elemento se serializa y se descarta: no se arma ni la lista ni el arbol JSON completo,
+ * asi la memoria usada no depende de la cantidad de registros.
+ */
+final class ExportadorNdjson {
+
+    private ExportadorNdjson() {
+    }
+
+    static <T> ResponseEntity<StreamingResponseBody> exportar(ObjectMapper objectMapper, Class<T> tipo,
+                                                              Supplier<Stream<T>> fuente) {
+        StreamingResponseBody cuerpo = salida -> {
+            // Sin flush por registro: el generador vacia su buffer a la salida cuando se llena
+            ObjectWriter writer = objectMapper.writerFor(tipo).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            try (Stream<T> elementos = fuente.get();
+                 JsonGenerator generador = objectMapper.getFactory().createGenerator(salida)) {
+                generador.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generador.setRootValueSeparator(new SerializedString("\n"));
+                for (T elemento : (Iterable<T>) elementos::iterator) {
+                    writer.writeValue(generador, elemento);
+                }
+                generador.writeRaw('\n');
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(cuerpo);
+    }
+}
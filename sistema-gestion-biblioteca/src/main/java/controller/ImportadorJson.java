@@ -0,0 +1,69 @@
+package controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DatabindException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import modelo.ErrorImportacion;
+import modelo.ResumenImportacion;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Lee un arreglo JSON o NDJSON de a un registro por vez y lo guarda en lotes.
+ * Nunca tiene en memoria mas de un lote, y un registro rechazado no frena a los demas.
+ */
+final class ImportadorJson {
+
+    static final int TAMANIO_LOTE = 1000;
+
+    private ImportadorJson() {
+    }
+
+    static <T> ResumenImportacion importar(ObjectMapper objectMapper, Class<T> tipo, InputStream entrada,
+                                           Function<List<T>, Map<Integer, String>> guardarLote) throws IOException {
+        ResumenImportacion resumen = new ResumenImportacion();
+        List<T> lote = new ArrayList<>(TAMANIO_LOTE);
+        // Posicion en la entrada de cada registro del lote: los rechazados al leer dejan huecos
+        int[] posiciones = new int[TAMANIO_LOTE];
+        int posicion = 0;
+        // MappingIterator desarma un arreglo raiz y tambien recorre valores sueltos separados por saltos de linea
+        try (MappingIterator<T> registros = objectMapper.readerFor(tipo).readValues(entrada)) {
+            while (registros.hasNextValue()) {
+                try {
+                    T registro = registros.nextValue();
+                    posiciones[lote.size()] = posicion;
+                    lote.add(registro);
+                } catch (DatabindException e) {
+                    // JSON valido con un valor que no encaja (enum desconocido, numero con letras):
+                    // el iterador saltea el resto de ese registro y sigue con el proximo
+                    resumen.getErrores().add(new ErrorImportacion(posicion, "Registro invalido: " + e.getOriginalMessage()));
+                }
+                posicion++;
+                if (lote.size() == TAMANIO_LOTE) {
+                    guardar(lote, posiciones, guardarLote, resumen);
+                    lote.clear();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            // JSON mal formado: lo leido hasta aca se guarda, el resto no se puede interpretar
+            resumen.getErrores().add(new ErrorImportacion(posicion, "JSON invalido: " + e.getOriginalMessage()));
+        }
+        if (!lote.isEmpty()) {
+            guardar(lote, posiciones, guardarLote, resumen);
+        }
+        return resumen;
+    }
+
+    private static <T> void guardar(List<T> lote, int[] posiciones, Function<List<T>, Map<Integer, String>> guardarLote,
+                                    ResumenImportacion resumen) {
+        Map<Integer, String> errores = guardarLote.apply(lote);
+        resumen.setImportados(resumen.getImportados() + lote.size() - errores.size());
+        errores.forEach((i, mensaje) -> resumen.getErrores().add(new ErrorImportacion(posiciones[i], mensaje)));
+    }
+}
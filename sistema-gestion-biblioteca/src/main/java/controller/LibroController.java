@@ -1,43 +1,139 @@
 package controller;
+import estados.EstadoLibro;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import services.interfaces.*;
 import modelo.*;
 import exceptions.*;
 
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/libros")
 public class LibroController {
 
     private final LibroService libroService;
+    private final ObjectMapper objectMapper;
 
-    public LibroController(LibroService libroService){
+    public LibroController(LibroService libroService, ObjectMapper objectMapper){
         this.libroService = libroService;
+        this.objectMapper = objectMapper;
     }
+    // La version se lee antes que los datos: asi el ETag nunca es mas nuevo que lo que se devuelve
     @GetMapping
-    public ResponseEntity<List<Libro>> obteberTodos() {
+    public ResponseEntity<List<Libro>> obteberTodos(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String siNoCoincide) {
+        long version = libroService.versionCatalogo();
+        if (Etags.coincide(siNoCoincide, version)) {
+            return Etags.noModificado(version);
+        }
         List<Libro> libros = libroService.obtenerTodos();
-        return ResponseEntity.ok(libros);
+        return ResponseEntity.ok().eTag(Etags.de(version)).body(libros);
+    }
+
+    // GET /api/libros?limit=100&after=250 -> pagina por cursor en lugar de la lista completa
+    @GetMapping(params = {"limit", "!estado"})
+    public ResponseEntity<Pagina<Libro>> obtenerPagina(@RequestParam("limit") int limit,
+                                                       @RequestParam(value = "after", required = false) Long after,
+                                                       @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String siNoCoincide) {
+        if (limit <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        long version = libroService.versionCatalogo();
+        if (Etags.coincide(siNoCoincide, version)) {
+            return Etags.noModificado(version);
+        }
+        return ResponseEntity.ok().eTag(Etags.de(version)).body(libroService.obtenerPagina(after, limit));
+    }
+
+    // GET /api/libros?estado=DISPONIBLE&limit=100&after=250 -> solo los libros en ese estado, por cursor
+    @GetMapping(params = "estado")
+    public ResponseEntity<Pagina<Libro>> obtenerPaginaPorEstado(@RequestParam("estado") EstadoLibro estado,
+                                                                @RequestParam(value = "limit", defaultValue = "100") int limit,
+                                                                @RequestParam(value = "after", required = false) Long after,
+                                                                @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String siNoCoincide) {
+        if (limit <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        long version = libroService.versionCatalogo();
+        if (Etags.coincide(siNoCoincide, version)) {
+            return Etags.noModificado(version);
+        }
+        return ResponseEntity.ok().eTag(Etags.de(version)).body(libroService.obtenerPaginaPorEstado(estado, after, limit));
+    }
+
+    // GET /api/libros/estados -> cuantos libros hay en cada estado
+    @GetMapping("/estados")
+    public ResponseEntity<Map<EstadoLibro, Long>> contarPorEstado() {
+        return ResponseEntity.ok(libroService.contarPorEstado());
+    }
+
+    // Exportacion completa para sincronizaciones: NDJSON en streaming, sin armar la lista en memoria
+    @GetMapping(value = "/exportar", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportar() {
+        return ExportadorNdjson.exportar(objectMapper, Libro.class, libroService::recorrerTodos);
+    }
+
+    // GET /api/libros/buscar?q=garcia marq -> libros con todas las palabras en el titulo o el autor,
+    // sin importar tildes ni mayusculas; cada palabra puede estar a medio escribir. Con &estado=DISPONIBLE
+    // solo los libros en ese estado
+    @GetMapping("/buscar")
+    public ResponseEntity<List<Libro>> buscar(@RequestParam("q") String q,
+                                              @RequestParam(value = "limit", defaultValue = "20") int limit,
+                                              @RequestParam(value = "estado", required = false) EstadoLibro estado) {
+        if (limit <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(estado == null ? libroService.buscarPorTexto(q, limit)
+                : libroService.buscarPorTexto(q, estado, limit));
+    }
+
+    // GET /api/libros/sugerencias?q=garsia -> hasta 10 titulos o autores que empiezan con eso o algo
+    // a una o dos letras de distancia, los mas prestados primero
+    @GetMapping("/sugerencias")
+    public ResponseEntity<List<Sugerencia>> sugerir(@RequestParam("q") String q,
+                                                    @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        if (limit <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(libroService.sugerir(q, limit));
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<Libro> obtenerPorId(@PathVariable Long id) {
-        try {
-            Libro libro = libroService.buscarPorId(id); //
-            return ResponseEntity.ok(libro);
-        } catch (LibroNoEncontradoException e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+    public ResponseEntity<Libro> obtenerPorId(@PathVariable Long id,
+                                              @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String siNoCoincide) {
+        long version = libroService.versionLibro(id);
+        if (Etags.coincide(siNoCoincide, version)) {
+            return Etags.noModificado(version);
         }
+        return libroService.buscarLibro(id)
+                .map(libro -> ResponseEntity.ok().eTag(Etags.de(version)).body(libro))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(null));
     }
 
     @PostMapping
     public ResponseEntity<Libro> crear(@RequestBody Libro libro){
-        Libro nuevoLibro = libroService.guardar(libro);
-        return ResponseEntity.status(HttpStatus.CREATED).body(nuevoLibro);
+        try {
+            Libro nuevoLibro = libroService.guardar(libro);
+            return ResponseEntity.status(HttpStatus.CREATED).body(nuevoLibro);
+        } catch (IsbnDuplicadoException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(null);
+        }
+    }
+
+    // Alta masiva: arreglo JSON o NDJSON, leido en streaming y guardado en lotes
+    @PostMapping(value = "/importar", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<ResumenImportacion> importar(InputStream cuerpo) throws IOException {
+        ResumenImportacion resumen = ImportadorJson.importar(objectMapper, Libro.class, cuerpo, libroService::guardarTodos);
+        return ResponseEntity.ok(resumen);
     }
 
     @PutMapping("/{id}")
@@ -47,6 +143,8 @@ public class LibroController {
             return ResponseEntity.ok(libroActualizado);
         } catch (LibroNoEncontradoException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+        } catch (IsbnDuplicadoException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(null);
         }
     }
 
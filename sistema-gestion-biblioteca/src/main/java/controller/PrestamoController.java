@@ -1,11 +1,15 @@
 package controller;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import services.interfaces.*;
 import modelo.*;
 import exceptions.*;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.LocalDate;
 import java.util.List;
 
 @RestController
@@ -13,46 +17,116 @@ import java.util.List;
 public class PrestamoController {
 
     private final PrestamoService prestamoService;
+    private final ObjectMapper objectMapper;
 
-    public PrestamoController(PrestamoService prestamoService) {
+    public PrestamoController(PrestamoService prestamoService, ObjectMapper objectMapper) {
         this.prestamoService = prestamoService;
+        this.objectMapper = objectMapper;
     }
 
     @GetMapping
-    public ResponseEntity<List<Prestamo>> obtenerTodos() {
-        List<Prestamo> prestamos = prestamoService.obtenerTodosPrestamos();
+    public ResponseEntity<List<PrestamoResumen>> obtenerTodos() {
+        List<PrestamoResumen> prestamos = prestamoService.obtenerTodosPrestamos().stream().map(PrestamoResumen::de).toList();
         return ResponseEntity.ok(prestamos);
     }
 
-    @GetMapping("/{id}")
-    public ResponseEntity<Prestamo> obtenerPorId(@PathVariable Long id) {
-        try {
-            Prestamo prestamo = prestamoService.obtenerPrestamoPorId(id);
-            return ResponseEntity.ok(prestamo);
-        } catch (PrestamoNoEncontradoExcepcion e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+    @GetMapping(params = "limit")
+    public ResponseEntity<Pagina<PrestamoResumen>> obtenerPagina(@RequestParam("limit") int limit,
+                                                                 @RequestParam(value = "after", required = false) Long after) {
+        if (limit <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        Pagina<Prestamo> pagina = prestamoService.obtenerPaginaPrestamos(after, limit);
+        return ResponseEntity.ok(new Pagina<>(pagina.getElementos().stream().map(PrestamoResumen::de).toList(),
+                pagina.getSiguiente()));
+    }
+
+    @GetMapping(value = "/exportar", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportar() {
+        return ExportadorNdjson.exportar(objectMapper, PrestamoResumen.class,
+                () -> prestamoService.recorrerTodosPrestamos().map(PrestamoResumen::de));
+    }
+
+    // Los mas atrasados primero; sin fecha se toma hoy
+    @GetMapping("/vencidos")
+    public ResponseEntity<List<PrestamoResumen>> obtenerVencidos(
+            @RequestParam(value = "limit", defaultValue = "100") int limit,
+            @RequestParam(value = "fecha", required = false) LocalDate fecha) {
+        if (limit <= 0) {
+            return ResponseEntity.badRequest().build();
         }
+        List<Prestamo> vencidos = prestamoService.obtenerPrestamosVencidos(fecha == null ? LocalDate.now() : fecha,
+                Pagina.acotarLimite(limit));
+        return ResponseEntity.ok(vencidos.stream().map(PrestamoResumen::de).toList());
     }
 
+    // Con expandir=true se buscan el libro y el usuario; por defecto solo van los ids
+    @GetMapping("/{id}")
+    public ResponseEntity<PrestamoResumen> obtenerPorId(@PathVariable Long id,
+                                                        @RequestParam(value = "expandir", defaultValue = "false") boolean expandir) {
+        return prestamoService.buscarPrestamo(id)
+                .map(prestamo -> expandir
+                        ? PrestamoResumen.de(prestamo).expandido(prestamoService.libroDe(prestamo).orElse(null),
+                                prestamoService.usuarioDe(prestamo).orElse(null))
+                        : PrestamoResumen.de(prestamo))
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(null));
+    }
+
+    // Sin fecha de devolucion es un prestamo nuevo y se controla como cualquier otro (409 si no se permite)
     @PostMapping
-    public ResponseEntity<Prestamo> crear(@RequestBody Prestamo prestamo) {
-        Prestamo nuevoPrestamo = prestamoService.guardarPrestamo(prestamo);
-        return ResponseEntity.status(HttpStatus.CREATED).body(nuevoPrestamo);
+    public ResponseEntity<PrestamoResumen> crear(@RequestBody Prestamo prestamo) {
+        try {
+            Prestamo nuevoPrestamo = prestamoService.guardarPrestamo(prestamo);
+            return ResponseEntity.status(HttpStatus.CREATED).body(PrestamoResumen.de(nuevoPrestamo));
+        } catch (UsuarioNoEncontradoExcepcion | LibroNoEncontradoException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (PrestamoNoPermitidoExcepcion e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
     }
 
-    @PutMapping("/{id}")
-    public ResponseEntity<Prestamo> actualizar(@PathVariable Long id, @RequestBody Prestamo prestamo) {
+    // Todo el canasto en un pedido: se prestan todos los libros o ninguno (409 con el primero que no se pudo)
+    @PostMapping("/lote")
+    public ResponseEntity<List<PrestamoResumen>> crearLote(@RequestBody PedidoPrestamos pedido) {
+        if (pedido.usuarioDni() == null || pedido.libroIds() == null || pedido.libroIds().isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            List<Prestamo> prestamos = prestamoService.realizarPrestamos(pedido.usuarioDni(), pedido.libroIds());
+            return ResponseEntity.status(HttpStatus.CREATED).body(prestamos.stream().map(PrestamoResumen::de).toList());
+        } catch (UsuarioNoEncontradoExcepcion | LibroNoEncontradoException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (PrestamoNoPermitidoExcepcion e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+    }
 
+    // PUT /api/prestamos/devolver con [ids]: se devuelven todos o ninguno
+    @PutMapping("/devolver")
+    public ResponseEntity<List<PrestamoResumen>> devolverLote(@RequestBody List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
         try {
-            Prestamo prestamoExistente = prestamoService.obtenerPrestamoPorId(id);
-            if (prestamoExistente == null) {
-                throw new PrestamoNoEncontradoExcepcion("Préstamo no encontrado con ID: " + id);
-            }
-            prestamoExistente.setFechaDevolucion(prestamo.getFechaDevolucion());
-            Prestamo prestamoActualizado = prestamoService.guardarPrestamo(prestamoExistente); // Usamos el existente con los cambios
-            return ResponseEntity.ok(prestamoActualizado);
+            return ResponseEntity.ok(prestamoService.devolverPrestamos(ids).stream().map(PrestamoResumen::de).toList());
         } catch (PrestamoNoEncontradoExcepcion e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (PrestamoNoPermitidoExcepcion e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+    }
+
+    // Solo cambia la fecha de devolucion: poner una devuelve el libro y sacarla lo vuelve a prestar (409 si no se puede)
+    @PutMapping("/{id}")
+    public ResponseEntity<PrestamoResumen> actualizar(@PathVariable Long id, @RequestBody Prestamo prestamo) {
+        try {
+            Prestamo prestamoActualizado = prestamoService.cambiarFechaDevolucion(id, prestamo.getFechaDevolucion());
+            return ResponseEntity.ok(PrestamoResumen.de(prestamoActualizado));
+        } catch (PrestamoNoEncontradoExcepcion | LibroNoEncontradoException | UsuarioNoEncontradoExcepcion e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+        } catch (PrestamoNoPermitidoExcepcion e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(null);
         }
     }
 
@@ -73,6 +147,8 @@ public class PrestamoController {
             return ResponseEntity.ok().build();
         } catch (PrestamoNoEncontradoExcepcion e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (PrestamoNoPermitidoExcepcion e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
         }
     }
 }
\ No newline at end of file
@@ -1,12 +1,17 @@
 package controller;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import modelo.*;
 import services.interfaces.*;
 import exceptions.*;
 
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 @RestController
@@ -14,9 +19,11 @@ import java.util.List;
 public class UsuarioController {
 
     private final UsuarioService usuarioService;
+    private final ObjectMapper objectMapper;
 
-    public UsuarioController(UsuarioService usuarioService) {
+    public UsuarioController(UsuarioService usuarioService, ObjectMapper objectMapper) {
         this.usuarioService = usuarioService;
+        this.objectMapper = objectMapper;
     }
 
     @GetMapping
@@ -25,29 +32,52 @@ public class UsuarioController {
         return ResponseEntity.ok(usuarios);
     }
 
-    @GetMapping("/dni}")
-    public ResponseEntity<Usuario> obtenerUsuarioPorDni(@PathVariable Long dni) {
-        try {
-            Usuario usuario = usuarioService.obtenerUsuarioPorDni(dni);
-            return ResponseEntity.ok(usuario);
-        } catch (UsuarioNoEncontradoExcepcion e) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+    @GetMapping(params = "limit")
+    public ResponseEntity<Pagina<Usuario>> obtenerPagina(@RequestParam("limit") int limit,
+                                                         @RequestParam(value = "after", required = false) Long after) {
+        if (limit <= 0) {
+            return ResponseEntity.badRequest().build();
         }
+        return ResponseEntity.ok(usuarioService.obtenerPaginaUsuarios(after, limit));
+    }
+
+    @GetMapping(value = "/exportar", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportar() {
+        return ExportadorNdjson.exportar(objectMapper, Usuario.class, usuarioService::recorrerTodosUsuarios);
+    }
+
+    @GetMapping("/{dni}")
+    public ResponseEntity<Usuario> obtenerUsuarioPorDni(@PathVariable Long dni) {
+        return usuarioService.buscarUsuario(dni)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(null));
     }
 
     @PostMapping
     public ResponseEntity<Usuario> crear(@RequestBody Usuario usuario) {
-        Usuario nuevoUsuario = usuarioService.guardarUsuario(usuario);
-        return ResponseEntity.status(HttpStatus.CREATED).body(nuevoUsuario);
+        try {
+            Usuario nuevoUsuario = usuarioService.guardarUsuario(usuario);
+            return ResponseEntity.status(HttpStatus.CREATED).body(nuevoUsuario);
+        } catch (EmailDuplicadoExcepcion e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(null);
+        }
+    }
+
+    @PostMapping(value = "/importar", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<ResumenImportacion> importar(InputStream cuerpo) throws IOException {
+        ResumenImportacion resumen = ImportadorJson.importar(objectMapper, Usuario.class, cuerpo, usuarioService::guardarUsuarios);
+        return ResponseEntity.ok(resumen);
     }
 
-    @PutMapping("/dni}")
+    @PutMapping("/{dni}")
     public ResponseEntity<Usuario> actualizar(@PathVariable Long dni, @RequestBody Usuario usuario) {
         try {
             Usuario usuarioActualizado = usuarioService.actualizarUsuario(dni, usuario);
             return ResponseEntity.ok(usuarioActualizado);
         } catch (UsuarioNoEncontradoExcepcion e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
+        } catch (EmailDuplicadoExcepcion e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(null);
         }
     }
 
@@ -0,0 +1,7 @@
+package exceptions;
+
+public class EmailDuplicadoExcepcion extends RuntimeException {
+  public EmailDuplicadoExcepcion(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,8 @@
+package exceptions;
+
+public class IsbnDuplicadoException extends RuntimeException {
+
+    public IsbnDuplicadoException(String message) {
+        super(message);
+    }
+}
@@ -5,4 +5,10 @@ public class LibroNoEncontradoException extends RuntimeException {
     public LibroNoEncontradoException(String message) {
         super(message);
     }
+
+    // conTraza=false evita llenar el stack trace: para los "no encontrado" esperables
+    // (ids inexistentes) que terminan en un 404, la traza no aporta y es lo mas caro de la excepcion
+    public LibroNoEncontradoException(String message, boolean conTraza) {
+        super(message, null, false, conTraza);
+    }
 }
\ No newline at end of file
@@ -4,4 +4,9 @@ public class PrestamoNoEncontradoExcepcion extends RuntimeException {
     public PrestamoNoEncontradoExcepcion(String message) {
         super(message);
     }
+
+    // Con conTraza=false no se recorre la pila al crearla (ver LibroNoEncontradoException)
+    public PrestamoNoEncontradoExcepcion(String message, boolean conTraza) {
+        super(message, null, false, conTraza);
+    }
 }
@@ -0,0 +1,8 @@
+package exceptions;
+
+// El usuario no puede llevarse un libro: esta bloqueado o inactivo, o ya llego al maximo de prestamos
+public class PrestamoNoPermitidoExcepcion extends RuntimeException {
+    public PrestamoNoPermitidoExcepcion(String message) {
+        super(message, null, false, false);
+    }
+}
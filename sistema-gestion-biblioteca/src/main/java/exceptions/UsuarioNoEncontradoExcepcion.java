@@ -4,4 +4,9 @@ public class UsuarioNoEncontradoExcepcion extends RuntimeException {
   public UsuarioNoEncontradoExcepcion(String message) {
     super(message);
   }
+
+  // Sin traza para los casos esperables que terminan en un 404
+  public UsuarioNoEncontradoExcepcion(String message, boolean conTraza) {
+    super(message, null, false, conTraza);
+  }
 }
@@ -0,0 +1,65 @@
+package metricas;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mide cada metodo de los servicios y repositorios con un Timer "biblioteca.metodo"
+ * (cantidad de llamadas, tiempo total, maximo e histograma para percentiles), etiquetado con
+ * capa, clase, metodo y la excepcion si la hubo. El Timer del caso exitoso se busca una sola
+ * vez por metodo y queda cacheado, asi el costo por llamada es un nanoTime y un record.
+ */
+@Aspect
+@Component
+public class MetricasAspecto {
+
+    static final String METRICA = "biblioteca.metodo";
+    private static final String SIN_EXCEPCION = "none";
+
+    private final MeterRegistry registro;
+    private final Map<Method, Timer> exitosos = new ConcurrentHashMap<>();
+
+    public MetricasAspecto(MeterRegistry registro) {
+        this.registro = registro;
+    }
+
+    @Around("execution(* services.interfaces.*Service.*(..)) || execution(* repository.*Repository.*(..))")
+    public Object medir(ProceedingJoinPoint punto) throws Throwable {
+        long inicio = System.nanoTime();
+        Object resultado;
+        try {
+            resultado = punto.proceed();
+        } catch (Throwable e) {
+            timer(punto, e.getClass().getSimpleName()).record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        Method metodo = ((MethodSignature) punto.getSignature()).getMethod();
+        Timer timer = exitosos.get(metodo);
+        if (timer == null) {
+            timer = exitosos.computeIfAbsent(metodo, m -> timer(punto, SIN_EXCEPCION));
+        }
+        timer.record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+        return resultado;
+    }
+
+    private Timer timer(ProceedingJoinPoint punto, String excepcion) {
+        // La clase real y no la del proxy (o la interfaz), para que el tag no dependa de como se proxee
+        Class<?> clase = punto.getTarget().getClass();
+        return Timer.builder(METRICA)
+                .tag("capa", clase.getPackageName().startsWith("repository") ? "repositorio" : "servicio")
+                .tag("clase", clase.getSimpleName())
+                .tag("metodo", punto.getSignature().getName())
+                .tag("excepcion", excepcion)
+                .register(registro);
+    }
+}
@@ -0,0 +1,13 @@
+package modelo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ErrorImportacion {
+    private int posicion; // posicion del registro en el cuerpo recibido, empezando en 0
+    private String mensaje;
+}
@@ -0,0 +1,21 @@
+package modelo;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Pagina<T> {
+    public static final int LIMITE_MAXIMO = 500;
+
+    private List<T> elementos;
+    private Long siguiente; // cursor para pedir la pagina siguiente ("after"); null si no hay mas
+
+    public static int acotarLimite(int limite) {
+        return Math.max(1, Math.min(limite, LIMITE_MAXIMO));
+    }
+}
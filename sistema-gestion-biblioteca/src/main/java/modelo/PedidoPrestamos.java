@@ -0,0 +1,7 @@
+package modelo;
+
+import java.util.List;
+
+/** Lo que manda una terminal de autopréstamo: quien se lleva los libros y cuales. */
+public record PedidoPrestamos(Long usuarioDni, List<Long> libroIds) {
+}
@@ -3,17 +3,111 @@ package modelo;
 import java.time.LocalDate;
 import java.util.Optional;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
-@Data
+/**
+ * Prestamo compacto: guarda el id del libro, el dni del usuario y las fechas como dias desde la epoca,
+ * todo en campos primitivos (48 bytes por prestamo en vez de ~100 con los objetos y el Optional).
+ * No retiene el Libro ni el Usuario: quien los necesite los resuelve con PrestamoService.
+ * Los valores ausentes se marcan con SIN_ID / SIN_FECHA y los getters devuelven null u Optional vacio.
+ */
 @NoArgsConstructor
-@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class Prestamo {
-    private Long id;
-    private Libro libroPrestado;
-    private Usuario usuarioPrestatario;
-    private LocalDate fechaPrestamo;
-    private Optional<LocalDate> fechaDevolucion; // para que la devolucion sea opcional a la hora de recien sacar el prestamo
-}
\ No newline at end of file
+    private static final long SIN_ID = Long.MIN_VALUE;
+    private static final int SIN_FECHA = Integer.MIN_VALUE;
+
+    private long id = SIN_ID;
+    private long libroId = SIN_ID;
+    private long usuarioDni = SIN_ID;
+    private int diaPrestamo = SIN_FECHA;
+    private int diaVencimiento = SIN_FECHA;
+    private int diaDevolucion = SIN_FECHA;
+
+    public Prestamo(Long id, Long libroId, Long usuarioDni, LocalDate fechaPrestamo, Optional<LocalDate> fechaDevolucion) {
+        setId(id);
+        setLibroId(libroId);
+        setUsuarioDni(usuarioDni);
+        setFechaPrestamo(fechaPrestamo);
+        setFechaDevolucion(fechaDevolucion);
+    }
+
+    public Prestamo(Long id, Libro libro, Usuario usuario, LocalDate fechaPrestamo, Optional<LocalDate> fechaDevolucion) {
+        this(id, libro == null ? null : libro.getId(), usuario == null ? null : usuario.getDni(), fechaPrestamo, fechaDevolucion);
+    }
+
+    public Long getId() {
+        return id == SIN_ID ? null : id;
+    }
+
+    public void setId(Long id) {
+        this.id = id == null ? SIN_ID : id;
+    }
+
+    public Long getLibroId() {
+        return libroId == SIN_ID ? null : libroId;
+    }
+
+    public void setLibroId(Long libroId) {
+        this.libroId = libroId == null ? SIN_ID : libroId;
+    }
+
+    public Long getUsuarioDni() {
+        return usuarioDni == SIN_ID ? null : usuarioDni;
+    }
+
+    public void setUsuarioDni(Long usuarioDni) {
+        this.usuarioDni = usuarioDni == null ? SIN_ID : usuarioDni;
+    }
+
+    public LocalDate getFechaPrestamo() {
+        return diaPrestamo == SIN_FECHA ? null : LocalDate.ofEpochDay(diaPrestamo);
+    }
+
+    public void setFechaPrestamo(LocalDate fechaPrestamo) {
+        this.diaPrestamo = fechaPrestamo == null ? SIN_FECHA : Math.toIntExact(fechaPrestamo.toEpochDay());
+    }
+
+    public LocalDate getFechaVencimiento() {
+        return diaVencimiento == SIN_FECHA ? null : LocalDate.ofEpochDay(diaVencimiento);
+    }
+
+    public void setFechaVencimiento(LocalDate fechaVencimiento) {
+        this.diaVencimiento = fechaVencimiento == null ? SIN_FECHA : Math.toIntExact(fechaVencimiento.toEpochDay());
+    }
+
+    public Optional<LocalDate> getFechaDevolucion() {
+        return diaDevolucion == SIN_FECHA ? Optional.empty() : Optional.of(LocalDate.ofEpochDay(diaDevolucion));
+    }
+
+    public void setFechaDevolucion(Optional<LocalDate> fechaDevolucion) {
+        this.diaDevolucion = fechaDevolucion == null || fechaDevolucion.isEmpty()
+                ? SIN_FECHA : Math.toIntExact(fechaDevolucion.get().toEpochDay());
+    }
+
+    public boolean estaDevuelto() {
+        return diaDevolucion != SIN_FECHA;
+    }
+
+    /** Sigue abierto y su vencimiento es anterior a {@code fecha}. */
+    public boolean estaVencido(LocalDate fecha) {
+        return !estaDevuelto() && diaVencimiento != SIN_FECHA && diaVencimiento < fecha.toEpochDay();
+    }
+
+    // Compatibilidad con el JSON anterior (bitacoras viejas y clientes que mandan el libro y el usuario enteros)
+    @JsonProperty(value = "libroPrestado", access = JsonProperty.Access.WRITE_ONLY)
+    void setLibroPrestado(Libro libro) {
+        setLibroId(libro == null ? null : libro.getId());
+    }
+
+    @JsonProperty(value = "usuarioPrestatario", access = JsonProperty.Access.WRITE_ONLY)
+    void setUsuarioPrestatario(Usuario usuario) {
+        setUsuarioDni(usuario == null ? null : usuario.getDni());
+    }
+}
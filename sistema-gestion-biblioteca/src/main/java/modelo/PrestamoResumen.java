@@ -0,0 +1,24 @@
+package modelo;
+
+import java.time.LocalDate;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Lo que devuelve la API por cada prestamo: ids y fechas planas, sin el libro ni el usuario.
+ * Solo cuando se pide expandir se completan libro y usuario; si no, ni aparecen en el JSON.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record PrestamoResumen(Long id, Long libroId, Long usuarioDni, LocalDate fechaPrestamo,
+                              LocalDate fechaVencimiento, LocalDate fechaDevolucion, Libro libro, Usuario usuario) {
+
+    public static PrestamoResumen de(Prestamo prestamo) {
+        return new PrestamoResumen(prestamo.getId(), prestamo.getLibroId(), prestamo.getUsuarioDni(),
+                prestamo.getFechaPrestamo(), prestamo.getFechaVencimiento(), prestamo.getFechaDevolucion().orElse(null),
+                null, null);
+    }
+
+    public PrestamoResumen expandido(Libro libro, Usuario usuario) {
+        return new PrestamoResumen(id, libroId, usuarioDni, fechaPrestamo, fechaVencimiento, fechaDevolucion, libro, usuario);
+    }
+}
@@ -0,0 +1,7 @@
+package modelo;
+
+import java.time.LocalDate;
+
+/** Cuantos prestamos empezaron y cuantos se devolvieron ese dia (de los que siguen en el historial). */
+public record PrestamosDelDia(LocalDate dia, long prestamos, long devoluciones) {
+}
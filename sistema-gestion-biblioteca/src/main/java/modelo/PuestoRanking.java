@@ -0,0 +1,12 @@
+package modelo;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/** Un libro o un usuario en las estadisticas: su id, como se llama (titulo o nombre) y cuantos prestamos tuvo. */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record PuestoRanking(Long id, String nombre, long prestamos) {
+
+    public PuestoRanking conNombre(String nombre) {
+        return new PuestoRanking(id, nombre, prestamos);
+    }
+}
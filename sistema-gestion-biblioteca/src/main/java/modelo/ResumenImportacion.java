@@ -0,0 +1,12 @@
+package modelo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+@Data
+public class ResumenImportacion {
+    private int importados;
+    private List<ErrorImportacion> errores = new ArrayList<>();
+}
@@ -0,0 +1,5 @@
+package modelo;
+
+/** Una sugerencia de autocompletado: el titulo o autor tal como esta cargado y cuantos prestamos suma. */
+public record Sugerencia(String texto, long prestamos) {
+}
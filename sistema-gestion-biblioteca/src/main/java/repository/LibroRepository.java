@@ -1,14 +1,31 @@
 package repository;
+import estados.EstadoLibro;
 import modelo.Libro;
+import modelo.Sugerencia;
 import java.util.List;
+import java.util.Map;
 
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface LibroRepository {
     Libro save(Libro libro);
+    Map<Integer, String> saveAll(List<Libro> libros); // Errores por posicion en la lista; los demas se guardan igual
+    void restaurar(Libro libro); // Para reproducir la bitacora: guarda sin rechazar un ISBN repetido, se lo saca al otro libro
     Optional<Libro> findById(Long id);
     Optional<Libro> findByIsbn(String isbn);
     List<Libro> findAll();
+    Stream<Libro> streamAll(); // Recorre sin copiar; el llamador debe consumirlo enseguida
+    List<Libro> findAllAfter(Long despuesDe, int limite); // Pagina por cursor, ordenada por id
+    List<Libro> findByTexto(String texto, int limite); // Libros con todas las palabras (o prefijos) en titulo o autor
+    List<Libro> findByTextoYEstado(String texto, EstadoLibro estado, int limite); // Igual que findByTexto, solo los de ese estado
+    List<Libro> findByEstadoAfter(EstadoLibro estado, Long despuesDe, int limite); // Pagina por cursor de los libros en ese estado
+    long countByEstado(EstadoLibro estado);
+    Map<EstadoLibro, Long> countPorEstado();
+    List<Sugerencia> findSugerencias(String texto, int limite); // Titulos y autores que empiezan parecido, los mas prestados primero
+    void actualizarPopularidad(Long id, long prestamos); // Prestamos del libro para ordenar las sugerencias
     void deleteById(Long id);
     boolean existsById(Long id);
+    long version(); // Sube con cada alta, cambio o baja; 0 mientras este vacio
+    long versionDe(Long id); // Version del ultimo cambio de ese libro, 0 si no existe
 }
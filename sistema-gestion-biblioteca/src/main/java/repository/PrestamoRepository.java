@@ -1,15 +1,31 @@
 package repository;
 import modelo.Prestamo;
+import modelo.PrestamosDelDia;
+import modelo.PuestoRanking;
+import java.time.LocalDate;
 import java.util.List;
 
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface PrestamoRepository {
+    int MAXIMO_RANKING = 100; // Cuantos libros y usuarios con mas prestamos se mantienen ordenados
+
     Prestamo save(Prestamo prestamo);
+    void saveAll(List<Prestamo> prestamos); // Como save para cada uno, esperando la bitacora una sola vez al final
     Optional<Prestamo> findById(Long id);
     List<Prestamo> findAll();
+    Stream<Prestamo> streamAll(); // Recorre sin copiar; el llamador debe consumirlo enseguida
+    List<Prestamo> findAllAfter(Long despuesDe, int limite); // Pagina por cursor, ordenada por id
     List<Prestamo> findByUsuarioDni(Long usuarioDni); //Busquedas
     List<Prestamo> findByLibroId(Long libroId);
+    int countActivosByUsuarioDni(Long usuarioDni); // O(1): contador que se mantiene en cada alta, devolucion y baja
+    long countByLibroId(Long libroId); // Todos los prestamos del libro, activos y devueltos; contador O(1)
+    long countByUsuarioDni(Long usuarioDni); // Igual, por usuario
+    List<PuestoRanking> findLibrosMasPrestados(int limite); // O(limite), hasta MAXIMO_RANKING; sin nombre
+    List<PuestoRanking> findUsuariosConMasPrestamos(int limite);
+    List<PrestamosDelDia> countPorDia(LocalDate desde, LocalDate hasta); // Un elemento por dia del rango, aunque sea cero
+    List<Prestamo> findVencidos(LocalDate fecha, int limite); // Activos vencidos antes de la fecha, del mas atrasado
     void deleteById(Long id);
     boolean existsById(Long id);
 }
@@ -1,14 +1,20 @@
 package repository;
 import modelo.Usuario;
 import java.util.List;
+import java.util.Map;
 
 import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface UsuarioRepository {
     Usuario save(Usuario usuario);
+    Map<Integer, String> saveAll(List<Usuario> usuarios); // Errores por posicion en la lista; los demas se guardan igual
+    void restaurar(Usuario usuario); // Para reproducir la bitacora: guarda sin rechazar un email repetido, se lo saca al otro usuario
     Optional<Usuario> findByDni(Long dni);
     Optional<Usuario> findByEmail(String email);
     List<Usuario> findAll();
+    Stream<Usuario> streamAll(); // Recorre sin copiar; el llamador debe consumirlo enseguida
+    List<Usuario> findAllAfter(Long despuesDe, int limite); // Pagina por cursor, ordenada por dni
     void deleteByDni(Long dni);
     boolean existsByDni(Long dni);
 }
@@ -0,0 +1,235 @@
+package repository.impl;
+
+import modelo.Prestamo;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Archivo columnar de prestamos devueltos: ya no cambian y son casi todo el historial, asi que
+ * en vez de un Prestamo, una entrada del mapa y una en cada indice por prestamo, se guardan en
+ * arreglos primitivos. Las columnas se indexan por id, en paginas de 4096 ids consecutivos;
+ * como los ids salen de un contador las paginas quedan casi llenas (los huecos son los activos).
+ * Cada prestamo ocupa 28 bytes de columnas mas 8 por cada lista de ids (libro y usuario).
+ * <p>
+ * Cada id se escribe solo dentro del compute de ese id en el repositorio, asi que dos escrituras
+ * nunca pisan la misma fila. La columna de devolucion marca si la fila esta ocupada (SIN_FECHA = libre):
+ * se escribe ultima con release y se lee primera con acquire, para no ver una fila a medio escribir.
+ * Reescribir una fila ocupada (editar un prestamo ya devuelto) no es atomico para un lector
+ * concurrente, igual que modificar en el lugar un Prestamo del mapa de activos.
+ * <p>
+ * Las listas por libro y por usuario solo crecen: al sacar un prestamo o cambiarle la clave su id
+ * queda en la lista vieja, y al buscar se descartan los ids cuya fila ya no coincide.
+ */
+final class ArchivoPrestamos {
+
+    private static final int BITS_PAGINA = 12;
+    private static final int TAMANIO_PAGINA = 1 << BITS_PAGINA;
+    private static final long SIN_ID = Long.MIN_VALUE;
+    private static final int SIN_FECHA = Integer.MIN_VALUE;
+    private static final VarHandle DEVOLUCION = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final NavigableMap<Long, Pagina> paginas = new ConcurrentSkipListMap<>();
+    private final Map<Long, ListaIds> porLibro = new ConcurrentHashMap<>();
+    private final Map<Long, ListaIds> porUsuario = new ConcurrentHashMap<>();
+    private final LongAdder cantidad = new LongAdder();
+
+    /** Guarda un prestamo devuelto, reemplazando lo que hubiera con ese id. */
+    void guardar(Prestamo prestamo) {
+        long id = prestamo.getId();
+        Pagina pagina = paginas.computeIfAbsent(id >> BITS_PAGINA, numero -> new Pagina());
+        int fila = fila(id);
+        boolean estaba = pagina.ocupada(fila);
+        long libro = prestamo.getLibroId() == null ? SIN_ID : prestamo.getLibroId();
+        long usuario = prestamo.getUsuarioDni() == null ? SIN_ID : prestamo.getUsuarioDni();
+        if (!estaba || pagina.libroId[fila] != libro) {
+            agregar(porLibro, libro, id);
+        }
+        if (!estaba || pagina.usuarioDni[fila] != usuario) {
+            agregar(porUsuario, usuario, id);
+        }
+        pagina.libroId[fila] = libro;
+        pagina.usuarioDni[fila] = usuario;
+        pagina.diaPrestamo[fila] = dia(prestamo.getFechaPrestamo());
+        pagina.diaVencimiento[fila] = dia(prestamo.getFechaVencimiento());
+        DEVOLUCION.setRelease(pagina.diaDevolucion, fila, Math.toIntExact(prestamo.getFechaDevolucion().orElseThrow().toEpochDay()));
+        if (!estaba) {
+            cantidad.increment();
+        }
+    }
+
+    /** Saca el prestamo del archivo; devuelve false si no estaba. */
+    boolean quitar(long id) {
+        Pagina pagina = paginas.get(id >> BITS_PAGINA);
+        if (pagina == null || !pagina.ocupada(fila(id))) {
+            return false;
+        }
+        DEVOLUCION.setRelease(pagina.diaDevolucion, fila(id), SIN_FECHA);
+        cantidad.decrement();
+        return true;
+    }
+
+    boolean contiene(long id) {
+        Pagina pagina = paginas.get(id >> BITS_PAGINA);
+        return pagina != null && pagina.ocupada(fila(id));
+    }
+
+    /** Arma un Prestamo nuevo con la fila; modificarlo no cambia el archivo hasta que se vuelva a guardar. */
+    Optional<Prestamo> buscar(long id) {
+        Pagina pagina = paginas.get(id >> BITS_PAGINA);
+        return pagina == null ? Optional.empty() : Optional.ofNullable(pagina.leer(id >> BITS_PAGINA, fila(id)));
+    }
+
+    List<Prestamo> buscarPorLibro(long libroId) {
+        return buscarEnLista(porLibro.get(libroId), libroId, true);
+    }
+
+    List<Prestamo> buscarPorUsuario(long usuarioDni) {
+        return buscarEnLista(porUsuario.get(usuarioDni), usuarioDni, false);
+    }
+
+    /** Hasta {@code limite} prestamos con id mayor a {@code despuesDe} (o desde el principio), en orden de id. */
+    List<Prestamo> pagina(Long despuesDe, int limite) {
+        List<Prestamo> resultado = new ArrayList<>(Math.min(limite, 64));
+        long desde = despuesDe == null ? Long.MIN_VALUE : despuesDe + 1;
+        for (Map.Entry<Long, Pagina> entrada : paginas.tailMap(desde >> BITS_PAGINA, true).entrySet()) {
+            long numero = entrada.getKey();
+            int primera = numero == desde >> BITS_PAGINA ? fila(desde) : 0;
+            for (int fila = primera; fila < TAMANIO_PAGINA && resultado.size() < limite; fila++) {
+                Prestamo prestamo = entrada.getValue().leer(numero, fila);
+                if (prestamo != null) {
+                    resultado.add(prestamo);
+                }
+            }
+            if (resultado.size() >= limite) {
+                break;
+            }
+        }
+        return resultado;
+    }
+
+    Stream<Prestamo> recorrer() {
+        return paginas.entrySet().stream()
+                .flatMap(entrada -> IntStream.range(0, TAMANIO_PAGINA)
+                        .mapToObj(fila -> entrada.getValue().leer(entrada.getKey(), fila))
+                        .filter(prestamo -> prestamo != null));
+    }
+
+    long cantidad() {
+        return cantidad.sum();
+    }
+
+    private List<Prestamo> buscarEnLista(ListaIds lista, long clave, boolean esLibro) {
+        if (lista == null) {
+            return List.of();
+        }
+        long[] ids = lista.copiar();
+        Arrays.sort(ids);
+        List<Prestamo> resultado = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0 && ids[i] == ids[i - 1]) {
+                continue;
+            }
+            Pagina pagina = paginas.get(ids[i] >> BITS_PAGINA);
+            Prestamo prestamo = pagina == null ? null : pagina.leer(ids[i] >> BITS_PAGINA, fila(ids[i]));
+            Long actual = prestamo == null ? null : esLibro ? prestamo.getLibroId() : prestamo.getUsuarioDni();
+            if (actual != null && actual == clave) {
+                resultado.add(prestamo);
+            }
+        }
+        return resultado;
+    }
+
+    private static void agregar(Map<Long, ListaIds> listas, long clave, long id) {
+        if (clave == SIN_ID) {
+            return;
+        }
+        // El compute serializa a los que agregan a la misma clave; los lectores no se bloquean
+        listas.compute(clave, (k, lista) -> {
+            ListaIds resultado = lista != null ? lista : new ListaIds();
+            resultado.agregar(id);
+            return resultado;
+        });
+    }
+
+    private static int dia(LocalDate fecha) {
+        return fecha == null ? SIN_FECHA : Math.toIntExact(fecha.toEpochDay());
+    }
+
+    private static LocalDate fecha(int dia) {
+        return dia == SIN_FECHA ? null : LocalDate.ofEpochDay(dia);
+    }
+
+    private static int fila(long id) {
+        return (int) (id & (TAMANIO_PAGINA - 1));
+    }
+
+    private static final class Pagina {
+        final long[] libroId = new long[TAMANIO_PAGINA];
+        final long[] usuarioDni = new long[TAMANIO_PAGINA];
+        final int[] diaPrestamo = new int[TAMANIO_PAGINA];
+        final int[] diaVencimiento = new int[TAMANIO_PAGINA];
+        final int[] diaDevolucion = new int[TAMANIO_PAGINA];
+
+        Pagina() {
+            Arrays.fill(diaDevolucion, SIN_FECHA);
+        }
+
+        boolean ocupada(int fila) {
+            return (int) DEVOLUCION.getAcquire(diaDevolucion, fila) != SIN_FECHA;
+        }
+
+        Prestamo leer(long numero, int fila) {
+            int devolucion = (int) DEVOLUCION.getAcquire(diaDevolucion, fila);
+            if (devolucion == SIN_FECHA) {
+                return null;
+            }
+            long libro = libroId[fila];
+            long usuario = usuarioDni[fila];
+            Prestamo prestamo = new Prestamo((numero << BITS_PAGINA) | fila,
+                    libro == SIN_ID ? null : libro,
+                    usuario == SIN_ID ? null : usuario,
+                    fecha(diaPrestamo[fila]),
+                    Optional.of(LocalDate.ofEpochDay(devolucion)));
+            prestamo.setFechaVencimiento(fecha(diaVencimiento[fila]));
+            return prestamo;
+        }
+    }
+
+    /**
+     * Lista de ids que solo crece, con un unico escritor a la vez (el compute de su clave).
+     * El escritor publica el arreglo y despues la cantidad; el lector lee la cantidad primero,
+     * asi el arreglo que ve tiene por lo menos esos elementos escritos.
+     */
+    private static final class ListaIds {
+        private volatile long[] ids = new long[2];
+        private volatile int cantidad;
+
+        void agregar(long id) {
+            long[] actual = ids;
+            if (cantidad == actual.length) {
+                actual = Arrays.copyOf(actual, actual.length * 2);
+                ids = actual;
+            }
+            actual[cantidad] = id;
+            cantidad = cantidad + 1;
+        }
+
+        long[] copiar() {
+            int n = cantidad;
+            return Arrays.copyOf(ids, n);
+        }
+    }
+}
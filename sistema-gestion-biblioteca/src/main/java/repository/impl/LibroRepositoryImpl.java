@@ -1,29 +1,137 @@
 package repository.impl;
+import estados.EstadoLibro;
+import exceptions.IsbnDuplicadoException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import modelo.*;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import repository.*;
+import repository.indices.IndiceEstados;
+import repository.indices.IndiceOrdenado;
+import repository.indices.IndiceSugerencias;
+import repository.indices.IndiceTexto;
+import repository.indices.IndiceUnico;
+import repository.indices.Versiones;
+import repository.persistencia.Bitacora;
+import repository.persistencia.TipoEntidad;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 @Repository
-public class LibroRepositoryImpl implements LibroRepository {
+public class LibroRepositoryImpl implements LibroRepository, MeterBinder {
 
-    private final Map<Long, Libro> libros = new HashMap<>();
-    private Long nextId = 1L;
+    // Con menos libros que estos en un estado, buscar texto en ese estado recorre el estado y no el indice de texto
+    private static final long RECORRIDO_POR_ESTADO = 10_000;
+
+    private final Map<Long, Libro> libros = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(1L);
+    private final IndiceOrdenado indiceOrdenado = new IndiceOrdenado();
+    private final IndiceUnico<String> indicePorIsbn = new IndiceUnico<>();
+    private final Versiones versiones = new Versiones();
+    private final IndiceTexto indiceTexto = new IndiceTexto();
+    private final IndiceSugerencias indiceSugerencias = new IndiceSugerencias();
+    private final IndiceEstados<EstadoLibro> indicePorEstado = new IndiceEstados<>(EstadoLibro.class);
+    private final Bitacora bitacora;
+
+    public LibroRepositoryImpl() {
+        this(Bitacora.NINGUNA);
+    }
+
+    @Autowired
+    public LibroRepositoryImpl(Bitacora bitacora) {
+        this.bitacora = bitacora;
+    }
 
     @Override
     public Libro save(Libro libro) {
-        if (libro.getId() == null) {
-            libro.setId(nextId++);
+        boolean nuevo = libro.getId() == null;
+        if (nuevo) {
+            libro.setId(nextId.getAndIncrement());
+        }
+        long secuencia;
+        try {
+            secuencia = guardar(libro, false);
+        } catch (IsbnDuplicadoException e) {
+            if (nuevo) {
+                libro.setId(null);
+            }
+            throw e;
         }
-        libros.put(libro.getId(), libro);
+        bitacora.esperarDurabilidad(secuencia);
         return libro;
     }
 
+    @Override
+    public Map<Integer, String> saveAll(List<Libro> lote) {
+        // Los ids nuevos se reservan en un solo bloque: un getAndAdd por lote en vez de uno por libro
+        long sinId = lote.stream().filter(libro -> libro.getId() == null).count();
+        long siguienteId = nextId.getAndAdd(sinId);
+        Map<Integer, String> errores = new LinkedHashMap<>();
+        long ultimaSecuencia = 0;
+        for (int i = 0; i < lote.size(); i++) {
+            Libro libro = lote.get(i);
+            boolean nuevo = libro.getId() == null;
+            if (nuevo) {
+                libro.setId(siguienteId++);
+            }
+            try {
+                ultimaSecuencia = guardar(libro, false);
+            } catch (IsbnDuplicadoException e) {
+                if (nuevo) {
+                    libro.setId(null);
+                }
+                errores.put(i, e.getMessage());
+            }
+        }
+        // Un solo fsync esperado por lote: la secuencia mas alta cubre a todas las anteriores
+        bitacora.esperarDurabilidad(ultimaSecuencia);
+        return errores;
+    }
+
+    @Override
+    public void restaurar(Libro libro) {
+        guardar(libro, true);
+    }
+
+    // compute bloquea el id, asi el libro, sus entradas en los indices y la bitacora cambian juntos
+    private long guardar(Libro libro, boolean restaurando) {
+        long[] secuencia = new long[1];
+        try {
+            libros.compute(libro.getId(), (id, anterior) -> {
+                if (restaurando) {
+                    indicePorIsbn.reemplazar(id, libro.getIsbn());
+                } else if (!indicePorIsbn.indexar(id, libro.getIsbn())) {
+                    throw new IsbnDuplicadoException("Ya existe un libro con ISBN: " + libro.getIsbn());
+                }
+                secuencia[0] = bitacora.registrarGuardado(TipoEntidad.LIBRO, id, libro);
+                indiceOrdenado.agregar(id);
+                indiceTexto.indexar(id, texto(libro));
+                return libro;
+            });
+        } finally {
+            bitacora.aplicada(secuencia[0]);
+        }
+        // La version sube recien con el libro ya publicado; si otro hilo lo borro entre medio, no se toca
+        libros.computeIfPresent(libro.getId(), (id, actual) -> {
+            versiones.cambio(id);
+            return actual;
+        });
+        sincronizarIndices(libro.getId());
+        // Un id explicito (por ejemplo al reproducir la bitacora) no debe volver a asignarse
+        nextId.accumulateAndGet(libro.getId() + 1, Math::max);
+        return secuencia[0];
+    }
+
     @Override
     public Optional<Libro> findById(Long id) {
         return Optional.ofNullable(libros.get(id));
@@ -31,23 +139,169 @@ public class LibroRepositoryImpl implements LibroRepository {
 
     @Override
     public Optional<Libro> findByIsbn(String isbn) {
-        return libros.values().stream()
-                .filter(libro -> libro.getIsbn().equals(isbn))
-                .findFirst();
+        return indicePorIsbn.buscar(isbn).map(libros::get);
     }
 
     @Override
     public List<Libro> findAll() {
+        // La vista de ConcurrentHashMap es débilmente consistente: se puede copiar mientras otros hilos escriben
         return new ArrayList<>(libros.values());
     }
 
+    @Override
+    public Stream<Libro> streamAll() {
+        return libros.values().stream();
+    }
+
+    @Override
+    public List<Libro> findAllAfter(Long despuesDe, int limite) {
+        return indiceOrdenado.pagina(despuesDe, limite, libros::get);
+    }
+
+    @Override
+    public List<Libro> findByTexto(String texto, int limite) {
+        return indiceTexto.buscar(texto, limite, libros::get, LibroRepositoryImpl::texto);
+    }
+
+    @Override
+    public List<Libro> findByTextoYEstado(String texto, EstadoLibro estado, int limite) {
+        if (indicePorEstado.cantidad(estado) > RECORRIDO_POR_ESTADO) {
+            return indiceTexto.buscar(texto, limite, id -> enEstado(id, estado), LibroRepositoryImpl::texto);
+        }
+        // Un estado raro (por ejemplo EN_REPARACION) se recorre entero y se verifica el texto de cada libro
+        List<Libro> resultado = new ArrayList<>(Math.min(limite, 64));
+        for (long id : indicePorEstado.pagina(estado, null, (int) RECORRIDO_POR_ESTADO)) {
+            Libro libro = enEstado(id, estado);
+            if (libro != null && IndiceTexto.coincide(texto(libro), texto)) {
+                resultado.add(libro);
+                if (resultado.size() >= limite) {
+                    break;
+                }
+            }
+        }
+        return resultado;
+    }
+
+    @Override
+    public List<Libro> findByEstadoAfter(EstadoLibro estado, Long despuesDe, int limite) {
+        List<Libro> resultado = new ArrayList<>(Math.min(limite, 64));
+        Long cursor = despuesDe;
+        // Un libro que cambio de estado despues de leer el mapa se descarta; se piden mas hasta llenar la pagina
+        while (resultado.size() < limite) {
+            int pedidos = limite - resultado.size();
+            long[] ids = indicePorEstado.pagina(estado, cursor, pedidos);
+            for (long id : ids) {
+                Libro libro = enEstado(id, estado);
+                if (libro != null) {
+                    resultado.add(libro);
+                }
+            }
+            if (ids.length < pedidos) {
+                break;
+            }
+            cursor = ids[ids.length - 1];
+        }
+        return resultado;
+    }
+
+    @Override
+    public long countByEstado(EstadoLibro estado) {
+        return indicePorEstado.cantidad(estado);
+    }
+
+    @Override
+    public Map<EstadoLibro, Long> countPorEstado() {
+        return indicePorEstado.cantidades();
+    }
+
+    // El mapa de bits puede ir un paso atras del libro (que se modifica antes de guardarlo): manda el libro
+    private Libro enEstado(long id, EstadoLibro estado) {
+        Libro libro = libros.get(id);
+        return libro != null && libro.getEstadoLibro() == estado ? libro : null;
+    }
+
+    @Override
+    public List<Sugerencia> findSugerencias(String texto, int limite) {
+        return indiceSugerencias.sugerir(texto, limite).stream()
+                .map(sugerencia -> new Sugerencia(sugerencia.texto(), sugerencia.popularidad()))
+                .toList();
+    }
+
+    // Afuera del compute: estos indices tienen cerrojos compartidos entre libros y tomarlos ahi frenaria a los demas.
+    // Los dos releen el libro del mapa, asi dos cambios cruzados del mismo id dejan el mas nuevo
+    private void sincronizarIndices(Long id) {
+        indiceSugerencias.actualizar(id, () -> {
+            Libro libro = libros.get(id);
+            return libro == null ? null : new String[] {libro.getTitulo(), libro.getAutor()};
+        });
+        indicePorEstado.actualizar(id, () -> {
+            Libro libro = libros.get(id);
+            return libro == null ? null : libro.getEstadoLibro();
+        });
+    }
+
+    @Override
+    public void actualizarPopularidad(Long id, long prestamos) {
+        // Dentro del compute del id, para no adelantarse a un alta o una baja del mismo libro; anotarla no toma cerrojos
+        libros.computeIfPresent(id, (clave, libro) -> {
+            indiceSugerencias.popularidad(clave, prestamos);
+            return libro;
+        });
+    }
+
+    // Lo que se indexa para la busqueda de texto libre
+    private static String texto(Libro libro) {
+        return Objects.toString(libro.getTitulo(), "") + " " + Objects.toString(libro.getAutor(), "");
+    }
+
     @Override
     public void deleteById(Long id) {
-        libros.remove(id);
+        long[] secuencia = new long[1];
+        boolean[] borrado = new boolean[1];
+        try {
+            libros.computeIfPresent(id, (clave, libro) -> {
+                secuencia[0] = bitacora.registrarBorrado(TipoEntidad.LIBRO, clave);
+                indiceOrdenado.quitar(clave);
+                indicePorIsbn.desindexar(clave);
+                indiceTexto.desindexar(clave);
+                versiones.quitar(clave);
+                borrado[0] = true;
+                return null;
+            });
+        } finally {
+            bitacora.aplicada(secuencia[0]);
+        }
+        if (borrado[0]) {
+            versiones.avanzar();
+            sincronizarIndices(id);
+        }
+        bitacora.esperarDurabilidad(secuencia[0]);
     }
 
     @Override
     public boolean existsById(Long id) {
         return libros.containsKey(id);
     }
+
+    @Override
+    public long version() {
+        return versiones.global();
+    }
+
+    @Override
+    public long versionDe(Long id) {
+        return versiones.de(id);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registro) {
+        Gauge.builder("biblioteca.repositorio.tamanio", libros, Map::size).tag("entidad", "libros").register(registro);
+        indicePorIsbn.getConsultas().publicar(registro, "libros.isbn");
+        Gauge.builder("biblioteca.indice.texto.palabras", indiceTexto, IndiceTexto::cantidadPalabras).register(registro);
+        for (EstadoLibro estado : EstadoLibro.values()) {
+            Gauge.builder("biblioteca.libros.por.estado", indicePorEstado, indice -> indice.cantidad(estado))
+                    .tag("estado", estado.name()).register(registro);
+        }
+        Gauge.builder("biblioteca.indice.sugerencias.frases", indiceSugerencias, IndiceSugerencias::cantidadFrases).register(registro);
+    }
 }
\ No newline at end of file
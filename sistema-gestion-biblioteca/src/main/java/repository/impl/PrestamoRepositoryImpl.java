@@ -1,61 +1,337 @@
 package repository.impl;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import modelo.*;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import repository.*;
+import repository.indices.Conteos;
+import repository.indices.IndiceMultiple;
+import repository.indices.IndiceOrdenado;
+import repository.indices.IndiceVencimientos;
+import repository.persistencia.Bitacora;
+import repository.persistencia.TipoEntidad;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Repository
-public class PrestamoRepositoryImpl implements PrestamoRepository {
+public class PrestamoRepositoryImpl implements PrestamoRepository, MeterBinder {
 
-    private final Map<Long, Prestamo> prestamos = new HashMap<>();
-    private Long nextId = 1L;
+    // Solo los activos, igual que los indices; los devueltos pasan al archivo columnar, que tiene
+    // sus propias listas por libro y usuario. Cada id se modifica siempre dentro de un compute de
+    // este mapa, este en la capa que este, asi las dos capas no se pisan.
+    private final Map<Long, Prestamo> prestamos = new ConcurrentHashMap<>();
+    private final ArchivoPrestamos archivo = new ArchivoPrestamos();
+    private final AtomicLong nextId = new AtomicLong(1L);
+    private final IndiceOrdenado indiceOrdenado = new IndiceOrdenado();
+    private final IndiceMultiple<Long> indicePorUsuario = new IndiceMultiple<>();
+    private final IndiceMultiple<Long> indicePorLibro = new IndiceMultiple<>();
+    private final IndiceVencimientos indiceVencimientos = new IndiceVencimientos();
+    // Historicos (activos y archivados) por libro, por usuario y por dia, contados con lo que tenia el
+    // prestamo en su capa anterior; contar() los suma dentro del compute de cada id y el orden de los
+    // rankings se acomoda despues, fuera del compute
+    private final Conteos porLibro = new Conteos(MAXIMO_RANKING);
+    private final Conteos porUsuario = new Conteos(MAXIMO_RANKING);
+    private final NavigableMap<Long, Long> prestamosPorDia = new ConcurrentSkipListMap<>();
+    private final NavigableMap<Long, Long> devolucionesPorDia = new ConcurrentSkipListMap<>();
+    private final Bitacora bitacora;
+
+    public PrestamoRepositoryImpl() {
+        this(Bitacora.NINGUNA);
+    }
+
+    @Autowired
+    public PrestamoRepositoryImpl(Bitacora bitacora) {
+        this.bitacora = bitacora;
+    }
 
     @Override
     public Prestamo save(Prestamo prestamo) {
         if (prestamo.getId() == null) {
-            prestamo.setId(nextId++);
+            prestamo.setId(nextId.getAndIncrement());
         }
-        prestamos.put(prestamo.getId(), prestamo);
+        bitacora.esperarDurabilidad(guardar(prestamo));
         return prestamo;
     }
 
+    @Override
+    public void saveAll(List<Prestamo> lote) {
+        // Ids en un solo bloque y un solo fsync esperado: la secuencia mas alta cubre a las anteriores
+        long siguienteId = nextId.getAndAdd(lote.stream().filter(prestamo -> prestamo.getId() == null).count());
+        long ultimaSecuencia = 0;
+        for (Prestamo prestamo : lote) {
+            if (prestamo.getId() == null) {
+                prestamo.setId(siguienteId++);
+            }
+            ultimaSecuencia = guardar(prestamo);
+        }
+        bitacora.esperarDurabilidad(ultimaSecuencia);
+    }
+
+    private long guardar(Prestamo prestamo) {
+        long[] secuencia = new long[1];
+        boolean[] reactivado = new boolean[1];
+        Long[] movidas = new Long[4];
+        try {
+            prestamos.compute(prestamo.getId(), (id, anterior) -> {
+                secuencia[0] = bitacora.registrarGuardado(TipoEntidad.PRESTAMO, id, prestamo);
+                contar(id, anterior, prestamo, movidas);
+                if (prestamo.estaDevuelto()) {
+                    archivo.guardar(prestamo);
+                    indicePorUsuario.desindexar(id);
+                    indicePorLibro.desindexar(id);
+                    indiceOrdenado.quitar(id);
+                    indiceVencimientos.desindexar(id);
+                    return null;
+                }
+                indicePorUsuario.indexar(id, prestamo.getUsuarioDni());
+                indicePorLibro.indexar(id, prestamo.getLibroId());
+                indiceOrdenado.agregar(id);
+                indiceVencimientos.indexar(id, prestamo.getFechaVencimiento());
+                reactivado[0] = archivo.contiene(id);
+                return prestamo;
+            });
+        } finally {
+            bitacora.aplicada(secuencia[0]);
+            acomodarRankings(movidas);
+        }
+        // Un devuelto que vuelve a estar activo se saca del archivo recien cuando ya esta en el mapa,
+        // para que findById no lo pierda entre las dos capas; si mientras tanto se volvio a archivar, no se toca
+        if (reactivado[0]) {
+            prestamos.computeIfPresent(prestamo.getId(), (id, activo) -> {
+                archivo.quitar(id);
+                return activo;
+            });
+        }
+        nextId.accumulateAndGet(prestamo.getId() + 1, Math::max);
+        return secuencia[0];
+    }
+
     @Override
     public Optional<Prestamo> findById(Long id) {
-        return Optional.ofNullable(prestamos.get(id));
+        Prestamo activo = prestamos.get(id);
+        return activo != null ? Optional.of(activo) : archivo.buscar(id);
     }
 
     @Override
     public List<Prestamo> findAll() {
-        return new ArrayList<>(prestamos.values());
+        return streamAll().collect(Collectors.toList());
+    }
+
+    @Override
+    public Stream<Prestamo> streamAll() {
+        return Stream.concat(prestamos.values().stream(), archivo.recorrer());
+    }
+
+    @Override
+    public List<Prestamo> findAllAfter(Long despuesDe, int limite) {
+        // Las dos capas vienen ordenadas por id: se intercalan y se corta en el limite
+        List<Prestamo> activos = indiceOrdenado.pagina(despuesDe, limite, prestamos::get);
+        List<Prestamo> archivados = archivo.pagina(despuesDe, limite);
+        List<Prestamo> resultado = new ArrayList<>(Math.min(limite, activos.size() + archivados.size()));
+        int i = 0;
+        int j = 0;
+        while (resultado.size() < limite && (i < activos.size() || j < archivados.size())) {
+            if (j == archivados.size() || (i < activos.size() && activos.get(i).getId() <= archivados.get(j).getId())) {
+                Prestamo activo = activos.get(i++);
+                if (j < archivados.size() && archivados.get(j).getId().equals(activo.getId())) {
+                    j++; // el mismo prestamo pasando de una capa a la otra
+                }
+                resultado.add(activo);
+            } else {
+                resultado.add(archivados.get(j++));
+            }
+        }
+        return resultado;
     }
 
     @Override
     public List<Prestamo> findByUsuarioDni(Long usuarioDni) {
-        return prestamos.values().stream()
-                .filter(prestamo -> prestamo.getUsuarioPrestatario().getDni().equals(usuarioDni))
-                .collect(Collectors.toList());
+        return unir(buscarPorIds(indicePorUsuario.buscar(usuarioDni)),
+                usuarioDni == null ? List.of() : archivo.buscarPorUsuario(usuarioDni));
     }
 
     @Override
     public List<Prestamo> findByLibroId(Long libroId) {
-        return prestamos.values().stream()
-                .filter(prestamo -> prestamo.getLibroPrestado().getId().equals(libroId))
-                .collect(Collectors.toList());
+        return unir(buscarPorIds(indicePorLibro.buscar(libroId)),
+                libroId == null ? List.of() : archivo.buscarPorLibro(libroId));
+    }
+
+    @Override
+    public int countActivosByUsuarioDni(Long usuarioDni) {
+        // El indice por usuario solo tiene los activos (los devueltos se desindexan al archivarse)
+        return indicePorUsuario.cantidad(usuarioDni);
+    }
+
+    @Override
+    public long countByLibroId(Long libroId) {
+        return porLibro.cantidad(libroId);
+    }
+
+    @Override
+    public long countByUsuarioDni(Long usuarioDni) {
+        return porUsuario.cantidad(usuarioDni);
+    }
+
+    @Override
+    public List<PuestoRanking> findLibrosMasPrestados(int limite) {
+        return porLibro.primeras(limite).stream().map(puesto -> new PuestoRanking(puesto.clave(), null, puesto.cantidad())).toList();
+    }
+
+    @Override
+    public List<PuestoRanking> findUsuariosConMasPrestamos(int limite) {
+        return porUsuario.primeras(limite).stream().map(puesto -> new PuestoRanking(puesto.clave(), null, puesto.cantidad())).toList();
+    }
+
+    @Override
+    public List<PrestamosDelDia> countPorDia(LocalDate desde, LocalDate hasta) {
+        List<PrestamosDelDia> resultado = new ArrayList<>();
+        for (long dia = desde.toEpochDay(); dia <= hasta.toEpochDay(); dia++) {
+            resultado.add(new PrestamosDelDia(LocalDate.ofEpochDay(dia),
+                    prestamosPorDia.getOrDefault(dia, 0L), devolucionesPorDia.getOrDefault(dia, 0L)));
+        }
+        return resultado;
+    }
+
+    @Override
+    public List<Prestamo> findVencidos(LocalDate fecha, int limite) {
+        // Se vuelve a chequear contra el prestamo del mapa por si lo devolvieron o prorrogaron entre medio
+        List<Prestamo> resultado = new ArrayList<>();
+        for (Long id : indiceVencimientos.vencidosAntes(fecha, limite)) {
+            Prestamo prestamo = prestamos.get(id);
+            if (prestamo != null && prestamo.estaVencido(fecha)) {
+                resultado.add(prestamo);
+            }
+        }
+        return resultado;
     }
 
     @Override
     public void deleteById(Long id) {
-        prestamos.remove(id);
+        long[] secuencia = new long[1];
+        Long[] movidas = new Long[4];
+        try {
+            prestamos.compute(id, (clave, prestamo) -> {
+                // Se descuenta antes de sacarlo del archivo, que es de donde se lee lo que tenia
+                contar(clave, prestamo, null, movidas);
+                if (prestamo == null && !archivo.quitar(clave)) {
+                    return null;
+                }
+                secuencia[0] = bitacora.registrarBorrado(TipoEntidad.PRESTAMO, clave);
+                indiceOrdenado.quitar(clave);
+                indicePorUsuario.desindexar(clave);
+                indicePorLibro.desindexar(clave);
+                indiceVencimientos.desindexar(clave);
+                return null;
+            });
+        } finally {
+            bitacora.aplicada(secuencia[0]);
+            acomodarRankings(movidas);
+        }
+        bitacora.esperarDurabilidad(secuencia[0]);
     }
 
     @Override
     public boolean existsById(Long id) {
-        return prestamos.containsKey(id);
+        return prestamos.containsKey(id) || archivo.contiene(id);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registro) {
+        Gauge.builder("biblioteca.repositorio.tamanio", this, repositorio -> repositorio.prestamos.size() + repositorio.archivo.cantidad())
+                .tag("entidad", "prestamos").register(registro);
+        Gauge.builder("biblioteca.prestamos.activos", prestamos, Map::size).register(registro);
+        Gauge.builder("biblioteca.prestamos.archivados", archivo, ArchivoPrestamos::cantidad).register(registro);
+        indicePorUsuario.getConsultas().publicar(registro, "prestamos.usuario");
+        indicePorLibro.getConsultas().publicar(registro, "prestamos.libro");
+    }
+
+    /**
+     * Pasa el prestamo de lo que tenia contado a lo que trae {@code nuevo} (null si se borra). Lo anterior sale de
+     * la capa en la que estaba: un activo no estaba devuelto, y su libro y usuario se leen de los indices porque
+     * el servicio suele modificar el mismo objeto antes de guardarlo. La fecha de prestamo del activo se toma
+     * del objeto: ningun camino la cambia en el lugar. En {@code movidas} deja el libro y el usuario anteriores
+     * y nuevos, para acomodar los rankings cuando el compute termine.
+     */
+    private void contar(Long id, Prestamo activo, Prestamo nuevo, Long[] movidas) {
+        Prestamo archivado = activo == null ? archivo.buscar(id).orElse(null) : null;
+        Prestamo anterior = activo != null ? activo : archivado;
+        movidas[0] = activo != null ? indicePorLibro.claveDe(id) : anterior == null ? null : anterior.getLibroId();
+        movidas[1] = nuevo == null ? null : nuevo.getLibroId();
+        movidas[2] = activo != null ? indicePorUsuario.claveDe(id) : anterior == null ? null : anterior.getUsuarioDni();
+        movidas[3] = nuevo == null ? null : nuevo.getUsuarioDni();
+        mover(porLibro, movidas[0], movidas[1]);
+        mover(porUsuario, movidas[2], movidas[3]);
+        mover(prestamosPorDia, anterior == null ? null : dia(anterior.getFechaPrestamo()),
+                nuevo == null ? null : dia(nuevo.getFechaPrestamo()));
+        mover(devolucionesPorDia, archivado == null ? null : dia(archivado.getFechaDevolucion().orElse(null)),
+                nuevo == null ? null : dia(nuevo.getFechaDevolucion().orElse(null)));
+    }
+
+    // Fuera del compute: acomodar toma el cerrojo de cada clave y relee la cantidad que quedo
+    private void acomodarRankings(Long[] movidas) {
+        porLibro.acomodar(movidas[0]);
+        porLibro.acomodar(movidas[1]);
+        porUsuario.acomodar(movidas[2]);
+        porUsuario.acomodar(movidas[3]);
+    }
+
+    private static void mover(Conteos conteos, Long anterior, Long actual) {
+        if (!Objects.equals(anterior, actual)) {
+            conteos.sumar(anterior, -1);
+            conteos.sumar(actual, 1);
+        }
+    }
+
+    private static void mover(Map<Long, Long> porDia, Long anterior, Long actual) {
+        if (Objects.equals(anterior, actual)) {
+            return;
+        }
+        if (anterior != null) {
+            porDia.merge(anterior, -1L, (cantidad, menos) -> cantidad + menos == 0 ? null : cantidad + menos);
+        }
+        if (actual != null) {
+            porDia.merge(actual, 1L, Long::sum);
+        }
+    }
+
+    private static Long dia(LocalDate fecha) {
+        return fecha == null ? null : fecha.toEpochDay();
+    }
+
+    // Un id puede desaparecer entre la lectura del indice y la del mapa si otro hilo lo borra o lo archiva
+    private List<Prestamo> buscarPorIds(Set<Long> ids) {
+        return ids.stream()
+                .map(prestamos::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    // Mientras un prestamo cambia de capa puede aparecer en las dos: queda la version activa
+    private static List<Prestamo> unir(List<Prestamo> activos, List<Prestamo> archivados) {
+        if (archivados.isEmpty()) {
+            return activos;
+        }
+        Set<Long> ids = activos.stream().map(Prestamo::getId).collect(Collectors.toSet());
+        List<Prestamo> resultado = new ArrayList<>(activos);
+        for (Prestamo archivado : archivados) {
+            if (!ids.contains(archivado.getId())) {
+                resultado.add(archivado);
+            }
+        }
+        return resultado;
     }
 }
\ No newline at end of file
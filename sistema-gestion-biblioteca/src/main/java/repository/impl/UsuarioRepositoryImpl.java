@@ -1,29 +1,114 @@
 package repository.impl;
+import exceptions.EmailDuplicadoExcepcion;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import modelo.*;
 import repository.UsuarioRepository;
+import repository.indices.IndiceOrdenado;
+import repository.indices.IndiceUnico;
+import repository.persistencia.Bitacora;
+import repository.persistencia.TipoEntidad;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 @Repository
-public class UsuarioRepositoryImpl implements UsuarioRepository {
+public class UsuarioRepositoryImpl implements UsuarioRepository, MeterBinder {
 
-    private final Map<Long, Usuario> usuarios = new HashMap<>();
-    private Long nextDni = 1L;
+    private final Map<Long, Usuario> usuarios = new ConcurrentHashMap<>();
+    private final AtomicLong nextDni = new AtomicLong(1L);
+    private final IndiceOrdenado indiceOrdenado = new IndiceOrdenado();
+    private final IndiceUnico<String> indicePorEmail = new IndiceUnico<>();
+    private final Bitacora bitacora;
+
+    public UsuarioRepositoryImpl() {
+        this(Bitacora.NINGUNA);
+    }
+
+    @Autowired
+    public UsuarioRepositoryImpl(Bitacora bitacora) {
+        this.bitacora = bitacora;
+    }
 
     @Override
     public Usuario save(Usuario usuario) {
-        if (usuario.getDni() == null) {
-            usuario.setDni(nextDni++);
+        boolean nuevo = usuario.getDni() == null;
+        if (nuevo) {
+            usuario.setDni(nextDni.getAndIncrement());
         }
-        usuarios.put(usuario.getDni(), usuario);
+        long secuencia;
+        try {
+            secuencia = guardar(usuario, false);
+        } catch (EmailDuplicadoExcepcion e) {
+            if (nuevo) {
+                usuario.setDni(null);
+            }
+            throw e;
+        }
+        bitacora.esperarDurabilidad(secuencia);
         return usuario;
     }
 
+    @Override
+    public Map<Integer, String> saveAll(List<Usuario> lote) {
+        long sinDni = lote.stream().filter(usuario -> usuario.getDni() == null).count();
+        long siguienteDni = nextDni.getAndAdd(sinDni);
+        Map<Integer, String> errores = new LinkedHashMap<>();
+        long ultimaSecuencia = 0;
+        for (int i = 0; i < lote.size(); i++) {
+            Usuario usuario = lote.get(i);
+            boolean nuevo = usuario.getDni() == null;
+            if (nuevo) {
+                usuario.setDni(siguienteDni++);
+            }
+            try {
+                ultimaSecuencia = guardar(usuario, false);
+            } catch (EmailDuplicadoExcepcion e) {
+                if (nuevo) {
+                    usuario.setDni(null);
+                }
+                errores.put(i, e.getMessage());
+            }
+        }
+        bitacora.esperarDurabilidad(ultimaSecuencia);
+        return errores;
+    }
+
+    @Override
+    public void restaurar(Usuario usuario) {
+        guardar(usuario, true);
+    }
+
+    private long guardar(Usuario usuario, boolean restaurando) {
+        long[] secuencia = new long[1];
+        try {
+            usuarios.compute(usuario.getDni(), (dni, anterior) -> {
+                if (restaurando) {
+                    indicePorEmail.reemplazar(dni, normalizarEmail(usuario.getEmail()));
+                } else if (!indicePorEmail.indexar(dni, normalizarEmail(usuario.getEmail()))) {
+                    throw new EmailDuplicadoExcepcion("Ya existe un usuario con el email: " + usuario.getEmail());
+                }
+                secuencia[0] = bitacora.registrarGuardado(TipoEntidad.USUARIO, dni, usuario);
+                indiceOrdenado.agregar(dni);
+                return usuario;
+            });
+        } finally {
+            bitacora.aplicada(secuencia[0]);
+        }
+        nextDni.accumulateAndGet(usuario.getDni() + 1, Math::max);
+        return secuencia[0];
+    }
+
     @Override
     public Optional<Usuario> findByDni(Long dni) {
         return Optional.ofNullable(usuarios.get(dni));
@@ -31,9 +116,7 @@ public class UsuarioRepositoryImpl implements UsuarioRepository {
 
     @Override
     public Optional<Usuario> findByEmail(String email) {
-        return usuarios.values().stream()
-                .filter(usuario -> usuario.getEmail().equals(email))
-                .findFirst();
+        return indicePorEmail.buscar(normalizarEmail(email)).map(usuarios::get);
     }
 
     @Override
@@ -41,13 +124,45 @@ public class UsuarioRepositoryImpl implements UsuarioRepository {
         return new ArrayList<>(usuarios.values());
     }
 
+    @Override
+    public Stream<Usuario> streamAll() {
+        return usuarios.values().stream();
+    }
+
+    @Override
+    public List<Usuario> findAllAfter(Long despuesDe, int limite) {
+        return indiceOrdenado.pagina(despuesDe, limite, usuarios::get);
+    }
+
     @Override
     public void deleteByDni(Long dni) {
-        usuarios.remove(dni);
+        long[] secuencia = new long[1];
+        try {
+            usuarios.computeIfPresent(dni, (clave, usuario) -> {
+                secuencia[0] = bitacora.registrarBorrado(TipoEntidad.USUARIO, clave);
+                indiceOrdenado.quitar(clave);
+                indicePorEmail.desindexar(clave);
+                return null;
+            });
+        } finally {
+            bitacora.aplicada(secuencia[0]);
+        }
+        bitacora.esperarDurabilidad(secuencia[0]);
     }
 
     @Override
     public boolean existsByDni(Long dni) {
         return usuarios.containsKey(dni);
     }
+
+    @Override
+    public void bindTo(MeterRegistry registro) {
+        Gauge.builder("biblioteca.repositorio.tamanio", usuarios, Map::size).tag("entidad", "usuarios").register(registro);
+        indicePorEmail.getConsultas().publicar(registro, "usuarios.email");
+    }
+
+    // Los emails no distinguen mayusculas: "Ana@Mail.com" y "ana@mail.com" son el mismo usuario
+    private static String normalizarEmail(String email) {
+        return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+package repository.indices;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aciertos y fallos de las busquedas en un indice. LongAdder reparte los incrementos
+ * entre celdas por hilo, asi contar no agrega contencion a las lecturas concurrentes.
+ */
+public class ContadorConsultas {
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+
+    public void registrar(boolean acierto) {
+        (acierto ? aciertos : fallos).increment();
+    }
+
+    public long aciertos() {
+        return aciertos.sum();
+    }
+
+    public long fallos() {
+        return fallos.sum();
+    }
+
+    /** Tasa de aciertos acumulada desde el arranque (0 si todavia no hubo consultas). */
+    public double tasaAciertos() {
+        long a = aciertos();
+        long total = a + fallos();
+        return total == 0 ? 0 : (double) a / total;
+    }
+
+    public void publicar(MeterRegistry registro, String indice) {
+        FunctionCounter.builder("biblioteca.indice.consultas", this, ContadorConsultas::aciertos)
+                .tag("indice", indice).tag("resultado", "acierto").register(registro);
+        FunctionCounter.builder("biblioteca.indice.consultas", this, ContadorConsultas::fallos)
+                .tag("indice", indice).tag("resultado", "fallo").register(registro);
+        Gauge.builder("biblioteca.indice.tasa.aciertos", this, ContadorConsultas::tasaAciertos)
+                .tag("indice", indice).register(registro);
+    }
+}
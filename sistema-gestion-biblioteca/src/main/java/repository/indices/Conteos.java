@@ -0,0 +1,104 @@
+package repository.indices;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cantidad exacta por clave y las claves ordenadas de mayor a menor cantidad. Pedir las primeras k cuesta
+ * O(k) aunque haya millones de claves, y ningun cambio rearma nada.
+ * <p>
+ * Sumar es solo un contador atomico por clave, sin cerrojos, y se puede hacer dentro del compute de otro mapa.
+ * El orden se acomoda despues, fuera de ese compute, con {@link #acomodar}: saca la clave de donde estaba y
+ * la pone donde va, O(log n) en un conjunto concurrente. Subir y bajar cuestan lo mismo, asi que bajar una de
+ * las primeras no obliga a recorrer las demas. En el orden estan solo las claves con cantidad, una vez cada
+ * una, asi que ocupa lo mismo que los contadores y no crece con la historia.
+ */
+public class Conteos {
+
+    private static final Comparator<Cantidad> DE_MAYOR_A_MENOR =
+            Comparator.comparingLong(Cantidad::cantidad).reversed().thenComparingLong(Cantidad::clave);
+
+    private final Map<Long, Contador> porClave = new ConcurrentHashMap<>();
+    private final NavigableSet<Cantidad> orden = new ConcurrentSkipListSet<>(DE_MAYOR_A_MENOR);
+    private final int capacidad;
+
+    public record Cantidad(long clave, long cantidad) {}
+
+    public Conteos(int capacidad) {
+        this.capacidad = capacidad;
+    }
+
+    /** Suma sin tocar el orden; hay que llamar a {@link #acomodar} con la clave cuando se pueda. */
+    public void sumar(Long clave, long diferencia) {
+        if (clave != null && diferencia != 0) {
+            porClave.computeIfAbsent(clave, k -> new Contador()).cantidad.addAndGet(diferencia);
+        }
+    }
+
+    public long cantidad(Long clave) {
+        Contador contador = clave == null ? null : porClave.get(clave);
+        return contador == null ? 0 : contador.cantidad.get();
+    }
+
+    /**
+     * Pone la clave en el orden con la cantidad que tiene ahora. La cantidad se relee con la clave bloqueada:
+     * si dos cambios se cruzan, el ultimo en acomodar deja la mas nueva. Cada clave tiene su cerrojo, asi que
+     * las distintas no se esperan entre si.
+     */
+    public void acomodar(Long clave) {
+        Contador contador = clave == null ? null : porClave.get(clave);
+        if (contador == null) {
+            return;
+        }
+        contador.cerrojo.lock();
+        try {
+            long nueva = contador.cantidad.get();
+            long anterior = contador.ordenada;
+            if (nueva == anterior) {
+                return;
+            }
+            // Primero la nueva y despues la vieja: mientras tanto un lector la ve dos veces, nunca ninguna
+            if (nueva > 0) {
+                orden.add(new Cantidad(clave, nueva));
+            }
+            if (anterior > 0) {
+                orden.remove(new Cantidad(clave, anterior));
+            }
+            contador.ordenada = nueva;
+        } finally {
+            contador.cerrojo.unlock();
+        }
+    }
+
+    /** Las {@code limite} claves con mas cantidad (como mucho capacidad), de mayor a menor y por clave si empatan. */
+    public List<Cantidad> primeras(int limite) {
+        int cuantas = Math.min(limite, capacidad);
+        List<Cantidad> resultado = new ArrayList<>(Math.max(0, Math.min(cuantas, 64)));
+        Set<Long> vistas = new HashSet<>();
+        for (Cantidad cantidad : orden) {
+            if (resultado.size() >= cuantas) {
+                break;
+            }
+            if (vistas.add(cantidad.clave())) {
+                resultado.add(cantidad);
+            }
+        }
+        return resultado;
+    }
+
+    // La cantidad ordenada solo se lee y se escribe con el cerrojo de la clave
+    private static final class Contador {
+        private final AtomicLong cantidad = new AtomicLong();
+        private final ReentrantLock cerrojo = new ReentrantLock();
+        private long ordenada;
+    }
+}
@@ -0,0 +1,133 @@
+package repository.indices;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Un {@link MapaBits} por valor del enum: que ids tienen cada estado. Contar es O(1) y listar un estado
+ * cuesta lo que se devuelve, sin recorrer el catalogo; {@link #contiene} sirve de filtro barato para
+ * combinarlo con otro indice.
+ * <p>
+ * No recuerda el estado anterior de cada id (el repositorio puede recibir el mismo objeto ya modificado):
+ * al indexar se saca el id de los demas mapas, que son pocos.
+ * <p>
+ * Cada mapa tiene su cerrojo y nunca se toman dos de escritura a la vez, asi los cambios de estados
+ * distintos no se esperan. El repositorio no llama adentro de su compute sino despues, con
+ * {@link #actualizar}: el estado se relee despues de aplicarlo y, si otro cambio del mismo id se cruzo,
+ * se vuelve a aplicar, asi el ultimo en terminar siempre deja el estado vigente.
+ */
+public class IndiceEstados<E extends Enum<E>> {
+
+    private final Class<E> tipo;
+    private final E[] estados;
+    private final MapaBits[] mapas;
+    private final ReentrantReadWriteLock[] cerrojos;
+
+    public IndiceEstados(Class<E> tipo) {
+        this.tipo = tipo;
+        this.estados = tipo.getEnumConstants();
+        this.mapas = new MapaBits[estados.length];
+        this.cerrojos = new ReentrantReadWriteLock[estados.length];
+        for (int i = 0; i < mapas.length; i++) {
+            mapas[i] = new MapaBits();
+            cerrojos[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Deja el id en el mapa del estado que devuelve {@code estadoActual} (null si el id ya no existe o no
+     * tiene estado). Si ya esta en ese mapa no toca nada: un hilo que lo este moviendo a otro lado
+     * relee el estado al terminar y lo devuelve.
+     */
+    public void actualizar(long id, Supplier<E> estadoActual) {
+        E estado = estadoActual.get();
+        if (estado != null && contiene(estado, id)) {
+            return;
+        }
+        while (true) {
+            indexar(id, estado);
+            E releido = estadoActual.get();
+            if (releido == estado) {
+                return;
+            }
+            estado = releido;
+        }
+    }
+
+    // Primero se agrega y despues se saca: mientras se mueve, el id puede estar en dos mapas pero nunca en ninguno
+    private void indexar(long id, E estado) {
+        if (estado != null) {
+            escribir(estado.ordinal(), mapa -> mapa.agregar(id));
+        }
+        for (int i = 0; i < mapas.length; i++) {
+            if (estado == null || i != estado.ordinal()) {
+                escribir(i, mapa -> mapa.quitar(id));
+            }
+        }
+    }
+
+    private void escribir(int i, Consumer<MapaBits> cambio) {
+        cerrojos[i].writeLock().lock();
+        try {
+            cambio.accept(mapas[i]);
+        } finally {
+            cerrojos[i].writeLock().unlock();
+        }
+    }
+
+    public boolean contiene(E estado, long id) {
+        ReentrantReadWriteLock cerrojo = cerrojos[estado.ordinal()];
+        cerrojo.readLock().lock();
+        try {
+            return mapas[estado.ordinal()].contiene(id);
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    public long cantidad(E estado) {
+        ReentrantReadWriteLock cerrojo = cerrojos[estado.ordinal()];
+        cerrojo.readLock().lock();
+        try {
+            return mapas[estado.ordinal()].cantidad();
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    /**
+     * La cantidad de cada estado, con todos los cerrojos de lectura tomados a la vez. Un id que se esta
+     * moviendo justo en ese momento puede contarse en los dos estados.
+     */
+    public Map<E, Long> cantidades() {
+        Map<E, Long> resultado = new EnumMap<>(tipo);
+        int tomados = 0;
+        try {
+            for (; tomados < cerrojos.length; tomados++) {
+                cerrojos[tomados].readLock().lock();
+            }
+            for (E estado : estados) {
+                resultado.put(estado, mapas[estado.ordinal()].cantidad());
+            }
+        } finally {
+            for (int i = 0; i < tomados; i++) {
+                cerrojos[i].readLock().unlock();
+            }
+        }
+        return resultado;
+    }
+
+    /** Hasta {@code limite} ids con ese estado mayores a {@code despuesDe} (o desde el principio), en orden. */
+    public long[] pagina(E estado, Long despuesDe, int limite) {
+        ReentrantReadWriteLock cerrojo = cerrojos[estado.ordinal()];
+        cerrojo.readLock().lock();
+        try {
+            return mapas[estado.ordinal()].siguientes(despuesDe, limite);
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package repository.indices;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Indice secundario invertido: clave -> ids de todas las entidades con esa clave.
+ * Igual que {@link IndiceUnico}, recuerda la clave de cada id y sus escrituras
+ * deben hacerse con el id bloqueado por el mapa principal.
+ * Lleva ademas la cantidad de ids por clave, para poder contarlos en O(1) sin tocar el conjunto.
+ */
+public class IndiceMultiple<K> {
+
+    private final Map<K, Set<Long>> idsPorClave = new ConcurrentHashMap<>();
+    private final Map<Long, K> clavePorId = new ConcurrentHashMap<>();
+    private final Map<K, Integer> cantidadPorClave = new ConcurrentHashMap<>();
+    private final ContadorConsultas consultas = new ContadorConsultas();
+
+    public void indexar(Long id, K clave) {
+        K anterior = clavePorId.get(id);
+        if (Objects.equals(anterior, clave)) {
+            return;
+        }
+        if (clave != null) {
+            idsPorClave.compute(clave, (k, ids) -> {
+                Set<Long> resultado = ids != null ? ids : ConcurrentHashMap.newKeySet();
+                if (resultado.add(id)) {
+                    cantidadPorClave.merge(k, 1, Integer::sum);
+                }
+                return resultado;
+            });
+            clavePorId.put(id, clave);
+        } else {
+            clavePorId.remove(id);
+        }
+        quitar(anterior, id);
+    }
+
+    public void desindexar(Long id) {
+        quitar(clavePorId.remove(id), id);
+    }
+
+    public Set<Long> buscar(K clave) {
+        Set<Long> ids = clave == null ? null : idsPorClave.get(clave);
+        consultas.registrar(ids != null);
+        return ids == null ? Set.of() : Collections.unmodifiableSet(ids);
+    }
+
+    public K claveDe(Long id) {
+        return clavePorId.get(id);
+    }
+
+    public int cantidad(K clave) {
+        return clave == null ? 0 : cantidadPorClave.getOrDefault(clave, 0);
+    }
+
+    public ContadorConsultas getConsultas() {
+        return consultas;
+    }
+
+    private void quitar(K clave, Long id) {
+        if (clave == null) {
+            return;
+        }
+        // Se borra el conjunto vacio dentro del mismo compute para no perder un alta concurrente;
+        // la cantidad tambien se toca ahi, asi queda serializada con las altas de la misma clave
+        idsPorClave.computeIfPresent(clave, (k, ids) -> {
+            if (ids.remove(id)) {
+                cantidadPorClave.computeIfPresent(k, (c, cantidad) -> cantidad == 1 ? null : cantidad - 1);
+            }
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+}
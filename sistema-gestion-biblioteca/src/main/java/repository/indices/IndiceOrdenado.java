@@ -0,0 +1,44 @@
+package repository.indices;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+
+/**
+ * Ids ordenados de menor a mayor, para paginar por cursor ("keyset"):
+ * cada pagina arranca despues del ultimo id entregado y cuesta O(log n + limite).
+ */
+public class IndiceOrdenado {
+
+    private final NavigableSet<Long> ids = new ConcurrentSkipListSet<>();
+
+    public void agregar(Long id) {
+        ids.add(id);
+    }
+
+    public void quitar(Long id) {
+        ids.remove(id);
+    }
+
+    /**
+     * Devuelve hasta {@code limite} entidades con id mayor a {@code despuesDe}
+     * (o desde el principio si es null). Los ids que {@code buscar} ya no encuentra
+     * (borrados por otro hilo) se saltean.
+     */
+    public <T> List<T> pagina(Long despuesDe, int limite, Function<Long, T> buscar) {
+        NavigableSet<Long> desde = despuesDe == null ? ids : ids.tailSet(despuesDe, false);
+        List<T> resultado = new ArrayList<>(Math.min(limite, 64));
+        for (Long id : desde) {
+            if (resultado.size() >= limite) {
+                break;
+            }
+            T entidad = buscar.apply(id);
+            if (entidad != null) {
+                resultado.add(entidad);
+            }
+        }
+        return resultado;
+    }
+}
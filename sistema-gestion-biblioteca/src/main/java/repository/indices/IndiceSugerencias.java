@@ -0,0 +1,569 @@
+package repository.indices;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Autocompletado de frases enteras (un titulo, un autor) tolerante a errores de tipeo y ordenado por popularidad.
+ * <p>
+ * Las frases normalizadas (ver {@link IndiceTexto#normalizar}) van en un trie compacto: cada arista lleva
+ * un tramo de texto y solo se parte donde dos frases se separan. Cada nodo sabe cuantas frases tiene debajo
+ * y, si son mas de UMBRAL, guarda las MAXIMO mas populares; asi un prefijo corto no recorre medio catalogo,
+ * y debajo del umbral recorrer el subarbol es barato.
+ * <p>
+ * Para los errores se baja por la rama de la primera letra (que no se corrige) calculando la fila de
+ * Levenshtein (con transposiciones) de la consulta contra el camino, y se corta cuando toda la fila supera la distancia permitida
+ * (la distancia nunca baja del minimo de la fila). Coincide todo nodo cuyo camino esta a esa distancia de la
+ * consulta completa; las frases salen ordenadas por distancia y despues por popularidad.
+ * <p>
+ * La popularidad se fija por id y una frase suma la de todos los ids que la tienen (un autor suma la de sus
+ * libros). Los cambios de frases toman el cerrojo de escritura y tocan solo el camino de la frase; las consultas,
+ * el de lectura. Como el cerrojo es uno solo, el repositorio no lo toma dentro de su compute: llama a
+ * {@link #actualizar} despues, y el estado de la entidad se relee con el cerrojo tomado. Fijar la popularidad
+ * no toma ningun cerrojo: queda anotada en el id y se aplica al trie antes de la proxima consulta o cambio.
+ */
+public class IndiceSugerencias {
+
+    public static final int MAXIMO = 10;
+    private static final int UMBRAL = 64;
+    private static final Nodo[] SIN_HIJOS = new Nodo[0];
+    private static final Comparator<Frase> POR_POPULARIDAD =
+            Comparator.comparingLong((Frase frase) -> frase.popularidad).reversed().thenComparing(frase -> frase.clave);
+
+    private final ReentrantReadWriteLock cerrojo = new ReentrantReadWriteLock();
+    private final Nodo raiz = new Nodo("");
+    private final Map<String, Frase> frases = new HashMap<>();
+    private final Map<Long, Registro> porId = new ConcurrentHashMap<>();
+    // Registros con una popularidad anotada que el trie todavia no tiene; cada uno esta a lo sumo una vez
+    private final Queue<Registro> pendientes = new ConcurrentLinkedQueue<>();
+
+    public record Sugerencia(String texto, long popularidad) {}
+
+    /**
+     * Deja las frases del id como las de los textos que devuelve {@code textos}, o lo saca si devuelve null
+     * (la entidad ya no existe). Va despues del compute que cambio la entidad: {@code textos} se llama con
+     * el cerrojo tomado, asi si dos cambios del mismo id se cruzan el ultimo en entrar lee el estado mas nuevo.
+     * Si las frases no cambiaron (un cambio de estado, por ejemplo) alcanza con el cerrojo de lectura.
+     */
+    public void actualizar(Long id, Supplier<String[]> textos) {
+        cerrojo.readLock().lock();
+        try {
+            Registro registro = porId.get(id);
+            String[] actuales = textos.get();
+            if (actuales == null ? registro == null : registro != null && Arrays.equals(registro.claves, claves(actuales).keySet().toArray())) {
+                return;
+            }
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+        cerrojo.writeLock().lock();
+        try {
+            aplicarPendientes();
+            String[] actuales = textos.get();
+            if (actuales == null) {
+                desindexar(id);
+            } else {
+                indexar(porId.computeIfAbsent(id, Registro::new), claves(actuales));
+            }
+        } finally {
+            cerrojo.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Anota la popularidad de un id (y con ella la de sus frases) sin tomar cerrojos. Tiene que llamarse
+     * con el id bloqueado por el mapa principal y la entidad presente: si el id todavia no tenia frases,
+     * las toma con esta popularidad cuando se indexen.
+     */
+    public void popularidad(Long id, long valor) {
+        Registro registro = porId.computeIfAbsent(id, Registro::new);
+        registro.anotada.set(valor);
+        if (registro.pendiente.compareAndSet(false, true)) {
+            pendientes.add(registro);
+        }
+    }
+
+    /**
+     * Hasta {@code limite} (como mucho MAXIMO) frases que empiezan con la consulta o con algo a pocas
+     * ediciones de ella: ninguna hasta 3 caracteres, una hasta 9 y dos desde ahi (la segunda no en las primeras
+     * cinco letras). La primera letra no se corrige.
+     */
+    public List<Sugerencia> sugerir(String consulta, int limite) {
+        String texto = IndiceTexto.normalizar(consulta);
+        if (texto.isEmpty() || limite <= 0) {
+            return List.of();
+        }
+        int maxima = texto.length() < 4 ? 0 : texto.length() < 10 ? 1 : 2;
+        int tope = Math.min(limite, MAXIMO);
+        if (!pendientes.isEmpty()) {
+            cerrojo.writeLock().lock();
+            try {
+                aplicarPendientes();
+            } finally {
+                cerrojo.writeLock().unlock();
+            }
+        }
+        cerrojo.readLock().lock();
+        try {
+            // La primera letra tiene que estar bien, como en los sugeridores difusos de Lucene: casi nunca es
+            // la equivocada y asi se recorre una sola rama de la raiz
+            int posicion = buscarHijo(raiz, texto.charAt(0));
+            if (posicion < 0) {
+                return List.of();
+            }
+            Nodo primera = raiz.hijos[posicion];
+            // Como la distancia ordena primero, si sin errores ya alcanzan no hace falta buscar con errores
+            // (que es lo caro: la rama se abre mucho mas); se sube de a una hasta juntar el tope
+            Map<Frase, Integer> candidatas = new IdentityHashMap<>();
+            for (int distancia = 0; distancia <= maxima && candidatas.size() < tope; distancia++) {
+                Busqueda busqueda = new Busqueda(texto, distancia);
+                busqueda.recorrer(primera, 0, distancia + 1);
+                for (Map.Entry<Nodo, Integer> coincidencia : busqueda.coincidencias.entrySet()) {
+                    for (Frase frase : mejores(coincidencia.getKey())) {
+                        candidatas.merge(frase, coincidencia.getValue(), Math::min);
+                    }
+                }
+            }
+            return candidatas.entrySet().stream()
+                    .sorted(Map.Entry.<Frase, Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey(POR_POPULARIDAD)))
+                    .limit(tope)
+                    .map(candidata -> new Sugerencia(candidata.getKey().texto, candidata.getKey().popularidad))
+                    .toList();
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    public int cantidadFrases() {
+        cerrojo.readLock().lock();
+        try {
+            return frases.size();
+        } finally {
+            cerrojo.readLock().unlock();
+        }
+    }
+
+    // Clave normalizada -> texto original, sin los textos que no tienen letras ni digitos
+    private static Map<String, String> claves(String[] textos) {
+        Map<String, String> claves = new LinkedHashMap<>();
+        for (String texto : textos) {
+            String clave = IndiceTexto.normalizar(texto);
+            if (!clave.isEmpty()) {
+                claves.putIfAbsent(clave, texto.strip());
+            }
+        }
+        return claves;
+    }
+
+    // Los tres que siguen, con el cerrojo de escritura tomado
+    private void indexar(Registro registro, Map<String, String> nuevas) {
+        List<String> viejas = Arrays.asList(registro.claves);
+        for (String vieja : viejas) {
+            if (!nuevas.containsKey(vieja)) {
+                restar(vieja, registro.popularidad);
+            }
+        }
+        String[] claves = new String[nuevas.size()];
+        int i = 0;
+        for (Map.Entry<String, String> nueva : nuevas.entrySet()) {
+            // Se guarda la clave de la frase y no la recien normalizada, para no tener dos copias
+            claves[i++] = viejas.contains(nueva.getKey()) ? frases.get(nueva.getKey()).clave
+                    : sumar(nueva.getKey(), nueva.getValue(), registro.popularidad).clave;
+        }
+        registro.claves = claves;
+    }
+
+    private void desindexar(Long id) {
+        Registro registro = porId.remove(id);
+        if (registro != null) {
+            for (String clave : registro.claves) {
+                restar(clave, registro.popularidad);
+            }
+        }
+    }
+
+    private void aplicarPendientes() {
+        Registro registro;
+        while ((registro = pendientes.poll()) != null) {
+            // Se baja la marca antes de leer: una popularidad anotada despues vuelve a encolarlo
+            registro.pendiente.set(false);
+            long valor = registro.anotada.get();
+            if (porId.get(registro.id) != registro || registro.popularidad == valor) {
+                continue;
+            }
+            long diferencia = valor - registro.popularidad;
+            registro.popularidad = valor;
+            for (String clave : registro.claves) {
+                cambiar(frases.get(clave), diferencia);
+            }
+        }
+    }
+
+    private Frase sumar(String clave, String texto, long popularidad) {
+        Frase frase = frases.get(clave);
+        if (frase == null) {
+            frase = new Frase(clave, texto);
+            frases.put(clave, frase);
+            insertar(frase);
+        }
+        frase.ids++;
+        if (popularidad != 0) {
+            cambiar(frase, popularidad);
+        }
+        return frase;
+    }
+
+    private void restar(String clave, long popularidad) {
+        Frase frase = frases.get(clave);
+        if (--frase.ids == 0) {
+            frases.remove(clave);
+            quitar(frase);
+        } else if (popularidad != 0) {
+            cambiar(frase, -popularidad);
+        }
+    }
+
+    private void insertar(Frase frase) {
+        String clave = frase.clave;
+        List<Nodo> camino = new ArrayList<>();
+        Nodo nodo = raiz;
+        camino.add(nodo);
+        int i = 0;
+        while (i < clave.length()) {
+            int posicion = buscarHijo(nodo, clave.charAt(i));
+            if (posicion < 0) {
+                Nodo hoja = new Nodo(clave.substring(i));
+                nodo.hijos = agregarHijo(nodo.hijos, -posicion - 1, hoja);
+                nodo = hoja;
+                camino.add(nodo);
+                break;
+            }
+            Nodo hijo = nodo.hijos[posicion];
+            int comun = 1;
+            while (comun < hijo.tramo.length() && i + comun < clave.length() && hijo.tramo.charAt(comun) == clave.charAt(i + comun)) {
+                comun++;
+            }
+            if (comun < hijo.tramo.length()) {
+                // La frase se separa a mitad del tramo: un nodo intermedio con la parte comun, que tiene lo mismo debajo
+                Nodo medio = new Nodo(hijo.tramo.substring(0, comun));
+                hijo.tramo = hijo.tramo.substring(comun);
+                medio.hijos = new Nodo[] {hijo};
+                medio.cantidad = hijo.cantidad;
+                medio.mejores = hijo.mejores;
+                nodo.hijos[posicion] = medio;
+                hijo = medio;
+            }
+            nodo = hijo;
+            camino.add(nodo);
+            i += comun;
+        }
+        nodo.frase = frase;
+        // De abajo hacia arriba: al recalcular un nodo sus hijos ya estan al dia
+        for (int k = camino.size() - 1; k >= 0; k--) {
+            Nodo actual = camino.get(k);
+            actual.cantidad++;
+            if (actual.cantidad > UMBRAL) {
+                if (actual.mejores == null) {
+                    actual.mejores = calcular(actual);
+                } else {
+                    ofrecer(actual, frase);
+                }
+            }
+        }
+    }
+
+    private void quitar(Frase frase) {
+        List<Nodo> camino = camino(frase.clave);
+        Nodo nodo = camino.get(camino.size() - 1);
+        nodo.frase = null;
+        for (int k = camino.size() - 1; k >= 0; k--) {
+            Nodo actual = camino.get(k);
+            actual.cantidad--;
+            if (actual.cantidad <= UMBRAL) {
+                actual.mejores = null;
+            } else if (contiene(actual.mejores, frase)) {
+                actual.mejores = calcular(actual);
+            }
+        }
+        if (nodo == raiz) {
+            return;
+        }
+        if (nodo.hijos.length == 0) {
+            Nodo padre = camino.get(camino.size() - 2);
+            padre.hijos = sacarHijo(padre.hijos, nodo);
+            nodo = padre;
+        }
+        if (nodo != raiz && nodo.frase == null && nodo.hijos.length == 1) {
+            // Un nodo sin frase y con un solo hijo sobra: se junta con el hijo, que tiene lo mismo debajo
+            Nodo unico = nodo.hijos[0];
+            nodo.tramo = nodo.tramo + unico.tramo;
+            nodo.hijos = unico.hijos;
+            nodo.frase = unico.frase;
+            nodo.mejores = unico.mejores;
+        }
+    }
+
+    private void cambiar(Frase frase, long diferencia) {
+        frase.popularidad += diferencia;
+        List<Nodo> camino = camino(frase.clave);
+        for (int k = camino.size() - 1; k >= 0; k--) {
+            Nodo actual = camino.get(k);
+            if (actual.mejores == null) {
+                continue;
+            }
+            if (diferencia > 0) {
+                ofrecer(actual, frase);
+            } else if (contiene(actual.mejores, frase)) {
+                // Si bajo puede haber otra que ahora la supere: se rearma con las de los hijos
+                actual.mejores = calcular(actual);
+            }
+        }
+    }
+
+    private List<Nodo> camino(String clave) {
+        List<Nodo> camino = new ArrayList<>();
+        Nodo nodo = raiz;
+        camino.add(nodo);
+        for (int i = 0; i < clave.length(); i += nodo.tramo.length()) {
+            nodo = nodo.hijos[buscarHijo(nodo, clave.charAt(i))];
+            camino.add(nodo);
+        }
+        return camino;
+    }
+
+    // Las mas populares del nodo sale de sus hijos: las guardadas de los grandes y todas las de los chicos
+    private static Frase[] calcular(Nodo nodo) {
+        List<Frase> candidatas = new ArrayList<>();
+        if (nodo.frase != null) {
+            candidatas.add(nodo.frase);
+        }
+        for (Nodo hijo : nodo.hijos) {
+            if (hijo.mejores != null) {
+                Collections.addAll(candidatas, hijo.mejores);
+            } else {
+                juntar(hijo, candidatas);
+            }
+        }
+        candidatas.sort(POR_POPULARIDAD);
+        return candidatas.subList(0, Math.min(MAXIMO, candidatas.size())).toArray(Frase[]::new);
+    }
+
+    // Los arreglos no se modifican en el lugar: un nodo recien partido comparte el de su hijo
+    private static void ofrecer(Nodo nodo, Frase frase) {
+        Frase[] mejores = nodo.mejores;
+        Frase[] nuevas;
+        if (contiene(mejores, frase)) {
+            nuevas = mejores.clone();
+        } else if (mejores.length < MAXIMO) {
+            nuevas = Arrays.copyOf(mejores, mejores.length + 1);
+            nuevas[mejores.length] = frase;
+        } else if (POR_POPULARIDAD.compare(frase, mejores[mejores.length - 1]) < 0) {
+            nuevas = mejores.clone();
+            nuevas[nuevas.length - 1] = frase;
+        } else {
+            return;
+        }
+        Arrays.sort(nuevas, POR_POPULARIDAD);
+        nodo.mejores = nuevas;
+    }
+
+    private static List<Frase> mejores(Nodo nodo) {
+        return nodo.mejores != null ? Arrays.asList(nodo.mejores) : juntar(nodo, new ArrayList<>());
+    }
+
+    private static List<Frase> juntar(Nodo nodo, List<Frase> destino) {
+        if (nodo.frase != null) {
+            destino.add(nodo.frase);
+        }
+        for (Nodo hijo : nodo.hijos) {
+            juntar(hijo, destino);
+        }
+        return destino;
+    }
+
+    private static boolean contiene(Frase[] mejores, Frase frase) {
+        for (Frase mejor : mejores) {
+            if (mejor == frase) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int buscarHijo(Nodo nodo, char letra) {
+        int desde = 0;
+        int hasta = nodo.hijos.length - 1;
+        while (desde <= hasta) {
+            int medio = (desde + hasta) >>> 1;
+            char actual = nodo.hijos[medio].tramo.charAt(0);
+            if (actual < letra) {
+                desde = medio + 1;
+            } else if (actual > letra) {
+                hasta = medio - 1;
+            } else {
+                return medio;
+            }
+        }
+        return -desde - 1;
+    }
+
+    private static Nodo[] agregarHijo(Nodo[] hijos, int posicion, Nodo hijo) {
+        Nodo[] resultado = new Nodo[hijos.length + 1];
+        System.arraycopy(hijos, 0, resultado, 0, posicion);
+        resultado[posicion] = hijo;
+        System.arraycopy(hijos, posicion, resultado, posicion + 1, hijos.length - posicion);
+        return resultado;
+    }
+
+    private static Nodo[] sacarHijo(Nodo[] hijos, Nodo hijo) {
+        Nodo[] resultado = new Nodo[hijos.length - 1];
+        int j = 0;
+        for (Nodo actual : hijos) {
+            if (actual != hijo) {
+                resultado[j++] = actual;
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Un recorrido del trie para una consulta y una distancia. La distancia es la de Levenshtein con
+     * transposiciones ("cein" esta a una de "cien"), calculada fila por fila a medida que se baja:
+     * hay una fila por profundidad, y mas alla de consulta + distancia letras ninguna puede quedar dentro.
+     */
+    private static final class Busqueda {
+        final String consulta;
+        final int distancia;
+        final int[][] filas;
+        final char[] letras;
+        final Map<Nodo, Integer> coincidencias = new IdentityHashMap<>();
+
+        Busqueda(String consulta, int distancia) {
+            this.consulta = consulta;
+            this.distancia = distancia;
+            this.filas = new int[consulta.length() + distancia + 1][consulta.length() + 1];
+            this.letras = new char[filas.length];
+            for (int j = 0; j <= consulta.length(); j++) {
+                filas[0][j] = Math.min(j, distancia + 1);
+            }
+        }
+
+        /**
+         * Consume el tramo del nodo letra por letra y despues sigue por los hijos, mientras la fila lo permita.
+         * {@code cota} es la menor distancia que ya coincidio mas arriba en el camino: un nodo de abajo solo
+         * agrega algo si la mejora, porque sus frases ya estan entre las de ese antecesor.
+         */
+        void recorrer(Nodo nodo, int profundidad, int cota) {
+            int actual = profundidad;
+            for (int i = 0; i < nodo.tramo.length(); i++) {
+                actual++;
+                if (actual == filas.length) {
+                    return;
+                }
+                letras[actual] = nodo.tramo.charAt(i);
+                int minimo = siguienteFila(actual);
+                int total = actual + distancia >= consulta.length() ? filas[actual][consulta.length()] : distancia + 1;
+                if (total < cota) {
+                    coincidencias.merge(nodo, total, Math::min);
+                    cota = total;
+                }
+                // Mas abajo la distancia no puede quedar por debajo del minimo de la fila
+                if (minimo >= cota || minimo > toleradas(actual)) {
+                    return;
+                }
+            }
+            for (Nodo hijo : nodo.hijos) {
+                recorrer(hijo, actual, cota);
+            }
+        }
+
+        /**
+         * Correcciones aceptadas en las primeras {@code profundidad} letras: la segunda recien desde la sexta.
+         * Con dos desde el principio, los prefijos cortos a dos letras de distancia son casi todo el trie.
+         */
+        int toleradas(int profundidad) {
+            return profundidad < 6 ? Math.min(distancia, 1) : distancia;
+        }
+
+        /**
+         * Fila para la letra numero {@code i} del camino. Solo se calcula la banda de la diagonal donde el
+         * valor puede no pasar la distancia; lo demas vale distancia + 1, que para cortar es lo mismo.
+         */
+        int siguienteFila(int i) {
+            int[] anterior = filas[i - 1];
+            int[] fila = filas[i];
+            char letra = letras[i];
+            int fuera = distancia + 1;
+            int desde = Math.max(1, i - distancia);
+            int hasta = Math.min(consulta.length(), i + distancia);
+            fila[0] = Math.min(i, fuera);
+            fila[desde - 1] = desde == 1 ? fila[0] : fuera;
+            int minimo = fila[0];
+            for (int j = desde; j <= hasta; j++) {
+                int sustitucion = anterior[j - 1] + (consulta.charAt(j - 1) == letra ? 0 : 1);
+                int valor = Math.min(sustitucion, Math.min(anterior[j], fila[j - 1]) + 1);
+                if (i > 1 && j > 1 && consulta.charAt(j - 1) == letras[i - 1] && consulta.charAt(j - 2) == letra) {
+                    valor = Math.min(valor, filas[i - 2][j - 2] + 1);
+                }
+                fila[j] = Math.min(fuera, valor);
+                minimo = Math.min(minimo, fila[j]);
+            }
+            if (hasta < consulta.length()) {
+                // La banda de la fila siguiente llega una columna mas y la lee de esta
+                fila[hasta + 1] = fuera;
+            }
+            return minimo;
+        }
+    }
+
+    private static final class Frase {
+        final String clave;
+        final String texto;
+        int ids;
+        long popularidad;
+
+        Frase(String clave, String texto) {
+            this.clave = clave;
+            this.texto = texto;
+        }
+    }
+
+    private static final class Registro {
+        final Long id;
+        // claves y popularidad son las que tiene el trie: se cambian con el cerrojo de escritura
+        String[] claves = new String[0];
+        long popularidad;
+        final AtomicLong anotada = new AtomicLong();
+        final AtomicBoolean pendiente = new AtomicBoolean();
+
+        Registro(Long id) {
+            this.id = id;
+        }
+    }
+
+    private static final class Nodo {
+        String tramo;
+        Nodo[] hijos = SIN_HIJOS;
+        Frase frase;
+        int cantidad;
+        Frase[] mejores;
+
+        Nodo(String tramo) {
+            this.tramo = tramo;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package repository.indices;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Indice invertido de texto libre: palabra normalizada -> ids ordenados de las entidades que la contienen.
+ * Normalizar es pasar a minusculas y sacar tildes y dieresis ("Cortázar" y "cortazar" son la misma
+ * palabra, la ñ queda como n). Cada palabra de la consulta coincide con las palabras que empiezan
+ * con ella, y tienen que coincidir todas.
+ * <p>
+ * El diccionario esta ordenado, asi un prefijo es un rango. Para buscar se elige la palabra de la
+ * consulta con menos ids y se recorren solo esos; cada candidato se busca en las listas de
+ * las otras palabras y recien los que pasan se verifican contra el texto actual de la entidad.
+ * El costo depende de la palabra mas rara y del limite, no del tamanio del catalogo.
+ * <p>
+ * Igual que {@link IndiceUnico}, recuerda las palabras indexadas de cada id: la entidad puede llegar
+ * ya modificada y sin eso no se sabria de que listas sacarla. Se verifica siempre contra el texto
+ * actual, asi que un cambio que todavia se esta indexando tampoco aparece en un resultado.
+ * Una palabra que se queda sin ids sale del diccionario, asi editar titulos no lo hace crecer.
+ */
+public class IndiceTexto {
+
+    private static final Pattern MARCAS = Pattern.compile("\\p{M}+");
+    // Un prefijo con mas palabras que estas no se usa para filtrar: se deja para la verificacion
+    private static final int MAXIMO_LISTAS_FILTRO = 16;
+
+    private final NavigableMap<String, Lista> porPalabra = new ConcurrentSkipListMap<>();
+    private final Map<Long, String[]> palabrasPorId = new ConcurrentHashMap<>();
+
+    /** Actualiza las listas de un id con el id bloqueado por el mapa principal. */
+    public void indexar(Long id, String texto) {
+        Set<String> nuevas = palabras(texto);
+        String[] anteriores = nuevas.isEmpty() ? palabrasPorId.remove(id) : palabrasPorId.put(id, nuevas.toArray(String[]::new));
+        if (anteriores != null) {
+            for (String palabra : anteriores) {
+                if (!nuevas.remove(palabra)) {
+                    quitar(palabra, id);
+                }
+            }
+        }
+        for (String palabra : nuevas) {
+            agregar(palabra, id);
+        }
+    }
+
+    public void desindexar(Long id) {
+        String[] anteriores = palabrasPorId.remove(id);
+        if (anteriores != null) {
+            for (String palabra : anteriores) {
+                quitar(palabra, id);
+            }
+        }
+    }
+
+    /**
+     * Hasta {@code limite} entidades cuyo texto contiene todas las palabras de la consulta (como prefijo).
+     * Primero las que tienen la palabra elegida completa y despues las que solo empiezan con ella.
+     */
+    public <T> List<T> buscar(String consulta, int limite, Function<Long, T> buscar, Function<T, String> texto) {
+        List<String> terminos = new ArrayList<>(palabras(consulta));
+        if (terminos.isEmpty() || limite <= 0) {
+            return List.of();
+        }
+        // Las mas largas suelen ser las mas raras: estimarlas primero acota rapido a las demas
+        terminos.sort(Comparator.comparingInt(String::length).reversed());
+        Collection<Lista> elegidas = null;
+        String elegido = null;
+        long menor = Long.MAX_VALUE;
+        for (String termino : terminos) {
+            List<Lista> listas = new ArrayList<>();
+            long cantidad = 0;
+            Lista exacta = porPalabra.get(termino);
+            if (exacta != null) {
+                listas.add(exacta);
+                cantidad = exacta.cantidad();
+            }
+            for (Map.Entry<String, Lista> entrada : rango(termino).entrySet()) {
+                if (cantidad >= menor) {
+                    break;
+                }
+                if (!entrada.getKey().equals(termino)) {
+                    listas.add(entrada.getValue());
+                    cantidad += entrada.getValue().cantidad();
+                }
+            }
+            if (cantidad < menor) {
+                menor = cantidad;
+                elegidas = listas;
+                elegido = termino;
+            }
+        }
+        if (menor == 0) {
+            return List.of();
+        }
+        List<Lista[]> filtros = new ArrayList<>();
+        for (String termino : terminos) {
+            if (!termino.equals(elegido)) {
+                Lista[] filtro = filtro(termino);
+                if (filtro != null) {
+                    filtros.add(filtro);
+                }
+            }
+        }
+
+        List<T> resultado = new ArrayList<>(Math.min(limite, 64));
+        Set<Long> vistos = elegidas.size() > 1 ? new HashSet<>() : null;
+        for (Lista lista : elegidas) {
+            for (long id : lista.ids) {
+                if ((vistos != null && !vistos.add(id)) || !pasaFiltros(id, filtros)) {
+                    continue;
+                }
+                T entidad = buscar.apply(id);
+                if (entidad != null && contieneTodas(texto.apply(entidad), terminos)) {
+                    resultado.add(entidad);
+                    if (resultado.size() >= limite) {
+                        return resultado;
+                    }
+                }
+            }
+        }
+        return resultado;
+    }
+
+    public int cantidadPalabras() {
+        return porPalabra.size();
+    }
+
+    /** Palabras normalizadas de un texto, sin repetir y en el orden en que aparecen. */
+    public static Set<String> palabras(String texto) {
+        return palabras(texto, new LinkedHashSet<>());
+    }
+
+    /** El texto entero normalizado: todas sus palabras, repetidas incluidas, separadas por un espacio. */
+    public static String normalizar(String texto) {
+        return String.join(" ", palabras(texto, new ArrayList<>()));
+    }
+
+    /** Si el texto tiene todas las palabras de la consulta (como prefijo), igual que al buscar. */
+    public static boolean coincide(String texto, String consulta) {
+        List<String> terminos = new ArrayList<>(palabras(consulta));
+        return !terminos.isEmpty() && contieneTodas(texto, terminos);
+    }
+
+    private static <C extends Collection<String>> C palabras(String texto, C palabras) {
+        if (texto == null || texto.isEmpty()) {
+            return palabras;
+        }
+        String normalizado = (esAscii(texto) ? texto
+                : MARCAS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("")).toLowerCase(Locale.ROOT);
+        int inicio = -1;
+        for (int i = 0; i <= normalizado.length(); i++) {
+            boolean letra = i < normalizado.length() && Character.isLetterOrDigit(normalizado.charAt(i));
+            if (letra && inicio < 0) {
+                inicio = i;
+            } else if (!letra && inicio >= 0) {
+                palabras.add(normalizado.substring(inicio, i));
+                inicio = -1;
+            }
+        }
+        return palabras;
+    }
+
+    private static boolean contieneTodas(String texto, List<String> terminos) {
+        Set<String> palabras = palabras(texto);
+        for (String termino : terminos) {
+            if (!palabras.contains(termino) && palabras.stream().noneMatch(palabra -> palabra.startsWith(termino))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // El caso comun en un catalogo: sin tildes no hace falta descomponer el texto
+    private static boolean esAscii(String texto) {
+        for (int i = 0; i < texto.length(); i++) {
+            if (texto.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Las listas de todas las palabras que empiezan con el termino, o null si son demasiadas
+    private Lista[] filtro(String termino) {
+        List<Lista> listas = new ArrayList<>();
+        for (Lista lista : rango(termino).values()) {
+            if (listas.size() == MAXIMO_LISTAS_FILTRO) {
+                return null;
+            }
+            listas.add(lista);
+        }
+        return listas.toArray(Lista[]::new);
+    }
+
+    private static boolean pasaFiltros(long id, List<Lista[]> filtros) {
+        for (Lista[] filtro : filtros) {
+            boolean esta = false;
+            for (int i = 0; i < filtro.length && !esta; i++) {
+                esta = filtro[i].ids.contains(id);
+            }
+            if (!esta) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private NavigableMap<String, Lista> rango(String prefijo) {
+        return porPalabra.subMap(prefijo, true, prefijo + Character.MAX_VALUE, false);
+    }
+
+    // Una lista retirada ya no acepta ids: se ayuda a sacarla y se usa una nueva
+    private void agregar(String palabra, Long id) {
+        while (true) {
+            Lista lista = porPalabra.computeIfAbsent(palabra, p -> new Lista());
+            if (lista.agregar(id)) {
+                return;
+            }
+            porPalabra.remove(palabra, lista);
+        }
+    }
+
+    private void quitar(String palabra, Long id) {
+        Lista lista = porPalabra.get(palabra);
+        if (lista != null && lista.quitar(id)) {
+            // Si mientras tanto alguien agrego un id ya no esta vacia y no se retira
+            porPalabra.computeIfPresent(palabra, (p, actual) -> actual == lista && lista.retirar() ? null : actual);
+        }
+    }
+
+    /**
+     * Ids ordenados de una palabra en un conjunto concurrente: agregar o quitar cuesta O(log n) sin copiar
+     * nada ni tomar cerrojos, y los lectores lo recorren en orden mientras otros escriben.
+     * La cantidad va aparte porque contar el conjunto lo recorre entero. Tambien marca la lista retirada del
+     * diccionario: se reserva el lugar en la cantidad antes de agregar, asi una lista vacia solo se retira si
+     * nadie esta agregando, y un alta nunca cae en una lista que ya salio.
+     */
+    private static final class Lista {
+        private static final int RETIRADA = -1;
+
+        private final NavigableSet<Long> ids = new ConcurrentSkipListSet<>();
+        private final AtomicInteger cantidad = new AtomicInteger();
+
+        int cantidad() {
+            return Math.max(0, cantidad.get());
+        }
+
+        boolean agregar(long id) {
+            int actual;
+            do {
+                actual = cantidad.get();
+                if (actual == RETIRADA) {
+                    return false;
+                }
+            } while (!cantidad.compareAndSet(actual, actual + 1));
+            if (!ids.add(id)) {
+                cantidad.decrementAndGet(); // Ya estaba y ya contaba, asi que no llega a cero
+            }
+            return true;
+        }
+
+        /** Si quedo vacia. */
+        boolean quitar(long id) {
+            return ids.remove(id) && cantidad.decrementAndGet() == 0;
+        }
+
+        // computeIfPresent puede llamar a la funcion mas de una vez: retirarla de nuevo tambien cuenta
+        boolean retirar() {
+            return cantidad.compareAndSet(0, RETIRADA) || cantidad.get() == RETIRADA;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package repository.indices;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Indice secundario unico: clave -> id.
+ * Guarda tambien la clave vigente de cada id, porque las entidades son mutables
+ * y al reindexar ya no se puede leer la clave anterior desde el objeto.
+ * Los metodos de escritura deben llamarse con el id "bloqueado", es decir,
+ * desde dentro de un compute del mapa principal sobre ese id.
+ */
+public class IndiceUnico<K> {
+
+    private final Map<K, Long> idPorClave = new ConcurrentHashMap<>();
+    private final Map<Long, K> clavePorId = new ConcurrentHashMap<>();
+    private final ContadorConsultas consultas = new ContadorConsultas();
+
+    /**
+     * Asocia la clave al id, liberando la clave anterior del id si cambio.
+     * Devuelve false (sin modificar nada) si la clave ya pertenece a otro id.
+     */
+    public boolean indexar(Long id, K clave) {
+        K anterior = clavePorId.get(id);
+        if (Objects.equals(anterior, clave)) {
+            return true;
+        }
+        if (clave != null) {
+            Long duenio = idPorClave.putIfAbsent(clave, id);
+            if (duenio != null && !duenio.equals(id)) {
+                return false;
+            }
+            clavePorId.put(id, clave);
+        } else {
+            clavePorId.remove(id);
+        }
+        if (anterior != null) {
+            idPorClave.remove(anterior, id);
+        }
+        return true;
+    }
+
+    /**
+     * Como {@link #indexar}, pero si la clave es de otro id se la saca a ese otro en vez de rechazarla.
+     * Sirve para reproducir la bitacora, donde un estado intermedio puede repetir una clave:
+     * el id desalojado vuelve a indexarse cuando se reproduce su propio cambio posterior.
+     */
+    public void reemplazar(Long id, K clave) {
+        K anterior = clavePorId.get(id);
+        if (Objects.equals(anterior, clave)) {
+            return;
+        }
+        if (clave != null) {
+            Long duenio = idPorClave.put(clave, id);
+            if (duenio != null && !duenio.equals(id)) {
+                clavePorId.remove(duenio, clave);
+            }
+            clavePorId.put(id, clave);
+        } else {
+            clavePorId.remove(id);
+        }
+        if (anterior != null) {
+            idPorClave.remove(anterior, id);
+        }
+    }
+
+    public void desindexar(Long id) {
+        K anterior = clavePorId.remove(id);
+        if (anterior != null) {
+            idPorClave.remove(anterior, id);
+        }
+    }
+
+    public Optional<Long> buscar(K clave) {
+        Long id = clave == null ? null : idPorClave.get(clave);
+        consultas.registrar(id != null);
+        return Optional.ofNullable(id);
+    }
+
+    public ContadorConsultas getConsultas() {
+        return consultas;
+    }
+}
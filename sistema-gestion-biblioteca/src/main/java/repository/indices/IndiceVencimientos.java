@@ -0,0 +1,64 @@
+package repository.indices;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Ids ordenados por fecha de vencimiento (y por id para desempatar). Los vencidos a una fecha son
+ * siempre un prefijo del orden, asi que traer k cuesta O(log n + k) sin mirar los que estan al dia.
+ * Como el IndiceMultiple, cada id se debe tocar solo desde el compute de ese id en el repositorio.
+ */
+public class IndiceVencimientos {
+
+    private final NavigableSet<Vencimiento> orden = new ConcurrentSkipListSet<>();
+    private final Map<Long, Long> diaPorId = new ConcurrentHashMap<>();
+
+    public void indexar(Long id, LocalDate vencimiento) {
+        if (vencimiento == null) {
+            desindexar(id);
+            return;
+        }
+        long dia = vencimiento.toEpochDay();
+        Long anterior = diaPorId.put(id, dia);
+        if (anterior != null && anterior != dia) {
+            orden.remove(new Vencimiento(anterior, id));
+        }
+        orden.add(new Vencimiento(dia, id));
+    }
+
+    public void desindexar(Long id) {
+        Long anterior = diaPorId.remove(id);
+        if (anterior != null) {
+            orden.remove(new Vencimiento(anterior, id));
+        }
+    }
+
+    /** Hasta {@code limite} ids que vencieron antes de {@code fecha}, del mas atrasado al mas reciente. */
+    public List<Long> vencidosAntes(LocalDate fecha, int limite) {
+        List<Long> resultado = new ArrayList<>(Math.min(limite, 64));
+        for (Vencimiento vencimiento : orden.headSet(new Vencimiento(fecha.toEpochDay(), Long.MIN_VALUE), false)) {
+            if (resultado.size() >= limite) {
+                break;
+            }
+            resultado.add(vencimiento.id());
+        }
+        return resultado;
+    }
+
+    public int cantidad() {
+        return diaPorId.size();
+    }
+
+    private record Vencimiento(long dia, long id) implements Comparable<Vencimiento> {
+        @Override
+        public int compareTo(Vencimiento otro) {
+            int porDia = Long.compare(dia, otro.dia);
+            return porDia != 0 ? porDia : Long.compare(id, otro.id);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package repository.indices;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Conjunto de ids comprimido al estilo Roaring: los ids se parten en bloques de 65536 consecutivos
+ * (los 16 bits bajos dentro del bloque). Un bloque con pocos ids es un arreglo ordenado de char
+ * (2 bytes por id); pasados ARREGLO_MAXIMO se convierte en un mapa de bits de 8 KB (1 bit por id posible).
+ * Como los ids salen de un contador, un estado que tienen casi todos queda en mapas de bits llenos
+ * y uno raro en arreglos cortos.
+ * <p>
+ * No es seguro entre hilos: lo protege quien lo usa (ver {@link IndiceEstados}).
+ */
+final class MapaBits {
+
+    private static final int BITS_BLOQUE = 16;
+    private static final int ARREGLO_MAXIMO = 4096;
+    // Se vuelve a arreglo bastante por debajo del maximo, para no convertir ida y vuelta en el borde
+    private static final int ARREGLO_VUELTA = ARREGLO_MAXIMO / 2;
+
+    private final NavigableMap<Long, Bloque> bloques = new TreeMap<>();
+    private long cantidad;
+
+    boolean agregar(long id) {
+        long clave = id >> BITS_BLOQUE;
+        Bloque bloque = bloques.get(clave);
+        if (bloque == null) {
+            bloque = new Arreglo();
+            bloques.put(clave, bloque);
+        } else if (bloque instanceof Arreglo arreglo && arreglo.cantidad == ARREGLO_MAXIMO && !arreglo.contiene(bajo(id))) {
+            bloque = arreglo.aBits();
+            bloques.put(clave, bloque);
+        }
+        if (!bloque.agregar(bajo(id))) {
+            return false;
+        }
+        cantidad++;
+        return true;
+    }
+
+    boolean quitar(long id) {
+        long clave = id >> BITS_BLOQUE;
+        Bloque bloque = bloques.get(clave);
+        if (bloque == null || !bloque.quitar(bajo(id))) {
+            return false;
+        }
+        cantidad--;
+        if (bloque.cantidad() == 0) {
+            bloques.remove(clave);
+        } else if (bloque instanceof Bits bits && bits.cantidad < ARREGLO_VUELTA) {
+            bloques.put(clave, bits.aArreglo());
+        }
+        return true;
+    }
+
+    boolean contiene(long id) {
+        Bloque bloque = bloques.get(id >> BITS_BLOQUE);
+        return bloque != null && bloque.contiene(bajo(id));
+    }
+
+    long cantidad() {
+        return cantidad;
+    }
+
+    /** Hasta {@code limite} ids mayores a {@code despuesDe} (o desde el principio), en orden. */
+    long[] siguientes(Long despuesDe, int limite) {
+        if (despuesDe != null && despuesDe == Long.MAX_VALUE) {
+            return new long[0];
+        }
+        long[] resultado = new long[(int) Math.min(limite, cantidad)];
+        int n = 0;
+        long desde = despuesDe == null ? Long.MIN_VALUE : despuesDe + 1;
+        for (Map.Entry<Long, Bloque> entrada : bloques.tailMap(desde >> BITS_BLOQUE, true).entrySet()) {
+            long base = entrada.getKey() << BITS_BLOQUE;
+            Bloque bloque = entrada.getValue();
+            int bajo = entrada.getKey() == desde >> BITS_BLOQUE ? bajo(desde) : 0;
+            while (n < resultado.length && bajo < 1 << BITS_BLOQUE && (bajo = bloque.siguiente(bajo)) >= 0) {
+                resultado[n++] = base | bajo;
+                bajo++;
+            }
+            if (n == resultado.length) {
+                break;
+            }
+        }
+        return n == resultado.length ? resultado : Arrays.copyOf(resultado, n);
+    }
+
+    private static int bajo(long id) {
+        return (int) (id & ((1 << BITS_BLOQUE) - 1));
+    }
+
+    private interface Bloque {
+        boolean agregar(int bajo);
+
+        boolean quitar(int bajo);
+
+        boolean contiene(int bajo);
+
+        int cantidad();
+
+        /** El menor valor del bloque que es mayor o igual a {@code desde}, o -1. */
+        int siguiente(int desde);
+    }
+
+    private static final class Arreglo implements Bloque {
+        private char[] valores = new char[4];
+        private int cantidad;
+
+        @Override
+        public boolean agregar(int bajo) {
+            int posicion = Arrays.binarySearch(valores, 0, cantidad, (char) bajo);
+            if (posicion >= 0) {
+                return false;
+            }
+            posicion = -posicion - 1;
+            if (cantidad == valores.length) {
+                valores = Arrays.copyOf(valores, Math.min(valores.length * 2, ARREGLO_MAXIMO));
+            }
+            System.arraycopy(valores, posicion, valores, posicion + 1, cantidad - posicion);
+            valores[posicion] = (char) bajo;
+            cantidad++;
+            return true;
+        }
+
+        @Override
+        public boolean quitar(int bajo) {
+            int posicion = Arrays.binarySearch(valores, 0, cantidad, (char) bajo);
+            if (posicion < 0) {
+                return false;
+            }
+            System.arraycopy(valores, posicion + 1, valores, posicion, cantidad - posicion - 1);
+            cantidad--;
+            return true;
+        }
+
+        @Override
+        public boolean contiene(int bajo) {
+            return Arrays.binarySearch(valores, 0, cantidad, (char) bajo) >= 0;
+        }
+
+        @Override
+        public int cantidad() {
+            return cantidad;
+        }
+
+        @Override
+        public int siguiente(int desde) {
+            int posicion = Arrays.binarySearch(valores, 0, cantidad, (char) desde);
+            if (posicion < 0) {
+                posicion = -posicion - 1;
+            }
+            return posicion < cantidad ? valores[posicion] : -1;
+        }
+
+        Bits aBits() {
+            Bits bits = new Bits();
+            for (int i = 0; i < cantidad; i++) {
+                bits.agregar(valores[i]);
+            }
+            return bits;
+        }
+    }
+
+    private static final class Bits implements Bloque {
+        private final long[] palabras = new long[(1 << BITS_BLOQUE) / Long.SIZE];
+        private int cantidad;
+
+        @Override
+        public boolean agregar(int bajo) {
+            long antes = palabras[bajo >>> 6];
+            palabras[bajo >>> 6] = antes | (1L << bajo);
+            if (antes == palabras[bajo >>> 6]) {
+                return false;
+            }
+            cantidad++;
+            return true;
+        }
+
+        @Override
+        public boolean quitar(int bajo) {
+            long antes = palabras[bajo >>> 6];
+            palabras[bajo >>> 6] = antes & ~(1L << bajo);
+            if (antes == palabras[bajo >>> 6]) {
+                return false;
+            }
+            cantidad--;
+            return true;
+        }
+
+        @Override
+        public boolean contiene(int bajo) {
+            return (palabras[bajo >>> 6] & (1L << bajo)) != 0;
+        }
+
+        @Override
+        public int cantidad() {
+            return cantidad;
+        }
+
+        @Override
+        public int siguiente(int desde) {
+            int i = desde >>> 6;
+            long palabra = palabras[i] & (-1L << desde);
+            while (palabra == 0) {
+                if (++i == palabras.length) {
+                    return -1;
+                }
+                palabra = palabras[i];
+            }
+            return i * Long.SIZE + Long.numberOfTrailingZeros(palabra);
+        }
+
+        Arreglo aArreglo() {
+            Arreglo arreglo = new Arreglo();
+            arreglo.valores = new char[Math.max(cantidad, 4)];
+            for (int bajo = siguiente(0); bajo >= 0; bajo = bajo + 1 < 1 << BITS_BLOQUE ? siguiente(bajo + 1) : -1) {
+                arreglo.valores[arreglo.cantidad++] = (char) bajo;
+            }
+            return arreglo;
+        }
+    }
+}
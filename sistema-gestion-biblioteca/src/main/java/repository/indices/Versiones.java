@@ -0,0 +1,41 @@
+package repository.indices;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Versiones para los GET condicionales (ETag): una global que sube con cada cambio del repositorio
+ * y una por id, que es el valor global de su ultimo cambio. La version 0 significa "desconocida".
+ * Se suben despues de publicar el cambio en el mapa principal: quien lee una version y despues los
+ * datos ve datos por lo menos igual de nuevos, nunca una version nueva con datos viejos.
+ */
+public class Versiones {
+
+    private final AtomicLong global = new AtomicLong();
+    private final Map<Long, Long> porId = new ConcurrentHashMap<>();
+
+    /** Con el id bloqueado por el mapa principal y el cambio ya visible en el. */
+    public void cambio(Long id) {
+        porId.put(id, global.incrementAndGet());
+    }
+
+    /** Dentro del compute que borra: desde ahi el id no tiene version y ningun ETag viejo coincide. */
+    public void quitar(Long id) {
+        porId.remove(id);
+    }
+
+    /** Despues de un borrado, que tambien cambia el conjunto completo. */
+    public void avanzar() {
+        global.incrementAndGet();
+    }
+
+    public long global() {
+        return global.get();
+    }
+
+    public long de(Long id) {
+        Long version = id == null ? null : porId.get(id);
+        return version == null ? 0 : version;
+    }
+}
@@ -0,0 +1,81 @@
+package repository.persistencia;
+
+import java.util.stream.Stream;
+
+/**
+ * Registro de escritura anticipada (write-ahead log) de los repositorios.
+ * Los repositorios registran cada save/delete dentro del compute que lo aplica,
+ * para que el orden en la bitacora sea el mismo que en memoria, y esperan la
+ * durabilidad afuera del compute, sin tener el id bloqueado. Apenas termina el compute
+ * avisan con {@link #aplicada}, para que un snapshot sepa que ya puede leer lo registrado.
+ */
+public interface Bitacora extends AutoCloseable {
+
+    /** Bitacora vacia para cuando la persistencia esta deshabilitada (y para los tests). */
+    Bitacora NINGUNA = new Bitacora() {
+        @Override
+        public long registrarGuardado(TipoEntidad tipo, Long id, Object entidad) {
+            return 0;
+        }
+
+        @Override
+        public long registrarBorrado(TipoEntidad tipo, Long id) {
+            return 0;
+        }
+
+        @Override
+        public void aplicada(long secuencia) {
+        }
+
+        @Override
+        public void esperarDurabilidad(long secuencia) {
+        }
+
+        @Override
+        public void reproducir(Aplicador aplicador) {
+        }
+    };
+
+    /** Devuelve el numero de secuencia asignado, para pasarlo a {@link #esperarDurabilidad}. */
+    long registrarGuardado(TipoEntidad tipo, Long id, Object entidad);
+
+    long registrarBorrado(TipoEntidad tipo, Long id);
+
+    /** La operacion registrada con esa secuencia ya esta visible en el repositorio. */
+    void aplicada(long secuencia);
+
+    /** Bloquea hasta que la operacion con esa secuencia (y todas las anteriores) este en disco, segun el modo. */
+    void esperarDurabilidad(long secuencia);
+
+    /**
+     * Vuelve a aplicar, en orden, todas las operaciones registradas. Lo registrado mientras tanto se ignora.
+     * Las entidades de un snapshot pueden aplicarse desde varios hilos a la vez.
+     */
+    void reproducir(Aplicador aplicador);
+
+    /**
+     * Escribe un snapshot del estado actual y descarta la bitacora que quedo cubierta por el.
+     * Los repositorios siguen recibiendo escrituras mientras tanto.
+     */
+    default void compactar(Fuente fuente) {
+    }
+
+    /** Bytes de bitacora que habria que reproducir despues del ultimo snapshot. */
+    default long bytesDesdeUltimoSnapshot() {
+        return 0;
+    }
+
+    @Override
+    default void close() {
+    }
+
+    interface Aplicador {
+        void guardar(TipoEntidad tipo, Object entidad);
+
+        void borrar(TipoEntidad tipo, Long id);
+    }
+
+    interface Fuente {
+        Stream<?> recorrer(TipoEntidad tipo);
+    }
+}
@@ -0,0 +1,513 @@
+package repository.persistencia;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Bitacora append-only en un directorio, escrita por un unico hilo con un FileChannel.
+ * Cada registro es: largo (int) | crc32 (int) | operacion (byte) | entidad (byte) | id (long) | JSON.
+ * Los que guardan solo encolan el registro ya serializado; el hilo escritor junta todo lo
+ * pendiente, lo escribe de una vez y hace un fsync por tanda (group commit).
+ * Si el proceso se cae a mitad de una escritura, el registro cortado o con crc invalido
+ * se descarta al abrir y el archivo se trunca ahi.
+ * <p>
+ * Encolar no toma ningun lock: se llama dentro del compute de los repositorios, donde
+ * ConcurrentHashMap tiene tomado el monitor del bucket y un hilo virtual que se bloquee ahi
+ * queda fijado a su portador. La cola es una lista enlazada con CAS en la que cada nodo
+ * toma su numero y su epoca del anterior, asi el orden en la lista es el orden de secuencia.
+ * <p>
+ * La bitacora se divide en generaciones (bitacora-N.wal). Compactar pasa a la generacion N+1
+ * y escribe snapshot-N+1.snap con el estado de los repositorios; despues se borra todo lo anterior.
+ * Al arrancar se carga el ultimo snapshot y se reproducen solo las generaciones desde la suya.
+ */
+public class BitacoraEnArchivo implements Bitacora {
+
+    private static final byte GUARDAR = 0;
+    private static final byte BORRAR = 1;
+    private static final int CABECERA = 8;        // largo + crc
+    private static final int CUERPO_MINIMO = 10;  // operacion + entidad + id
+    private static final int CUERPO_MAXIMO = 16 * 1024 * 1024;
+
+    private static final Pattern NOMBRE_BITACORA = Pattern.compile("bitacora-(\\d+)\\.wal");
+    private static final Pattern NOMBRE_SNAPSHOT = Pattern.compile("snapshot-(\\d+)\\.snap");
+    private static final VarHandle SIGUIENTE;
+
+    static {
+        try {
+            SIGUIENTE = MethodHandles.lookup().findVarHandle(Nodo.class, "siguiente", Nodo.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Path directorio;
+    private final ModoFsync modo;
+    private final long intervaloAsincronicoNanos;
+    private final ObjectMapper objectMapper;
+    private final Thread escritor;
+    private final ReentrantLock compactando = new ReentrantLock();
+
+    // solo los toca el hilo escritor (y el constructor antes de arrancarlo)
+    private FileChannel canal;
+    private Nodo cabeza;
+    private volatile long bytesEnGeneracion;
+
+    private final AtomicReference<Nodo> cola;
+    private volatile IOException falla;
+    private volatile boolean cerrada;
+    // solo la toca compactar, con compactando tomado
+    private long generacion;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition bajadoADisco = lock.newCondition();
+    private long secuenciaDurable;
+    private long generacionEscrita;
+    private boolean terminado;
+    // Operaciones registradas cuyo compute todavia no termino, separadas por epoca: al compactar
+    // se cambia de epoca y se espera a que la anterior llegue a cero antes de leer los repositorios
+    private final AtomicLong[] enCurso = {new AtomicLong(), new AtomicLong()};
+
+    private volatile boolean reproduciendo;
+
+    public BitacoraEnArchivo(Path directorio, ModoFsync modo, long intervaloAsincronicoMs, ObjectMapper objectMapper)
+            throws IOException {
+        this.directorio = directorio;
+        this.modo = modo;
+        this.intervaloAsincronicoNanos = TimeUnit.MILLISECONDS.toNanos(intervaloAsincronicoMs);
+        this.objectMapper = objectMapper;
+        Files.createDirectories(directorio);
+        List<Long> generaciones = generaciones(NOMBRE_BITACORA);
+        generacion = generaciones.isEmpty() ? ultimaGeneracion(NOMBRE_SNAPSHOT).orElse(1L) : generaciones.get(generaciones.size() - 1);
+        generacionEscrita = generacion;
+        Path archivo = archivoBitacora(generacion);
+        // Solo la ultima generacion puede tener un registro a medias: las anteriores se cerraron con fsync
+        this.canal = FileChannel.open(archivo, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long finValido = recorrer(archivo, cuerpo -> { });
+        canal.truncate(finValido);
+        canal.position(finValido);
+        bytesEnGeneracion = finValido;
+        this.cabeza = new Nodo(null);
+        this.cola = new AtomicReference<>(cabeza);
+        this.escritor = Thread.ofPlatform().daemon().name("bitacora-escritor").start(this::escribirEnLoop);
+    }
+
+    @Override
+    public long registrarGuardado(TipoEntidad tipo, Long id, Object entidad) {
+        if (reproduciendo) {
+            return 0;
+        }
+        try {
+            return encolar(armar(GUARDAR, tipo, id, objectMapper.writeValueAsBytes(entidad)));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public long registrarBorrado(TipoEntidad tipo, Long id) {
+        if (reproduciendo) {
+            return 0;
+        }
+        return encolar(armar(BORRAR, tipo, id, new byte[0]));
+    }
+
+    @Override
+    public void aplicada(long secuencia) {
+        if (secuencia != 0) {
+            enCurso[(int) (secuencia & 1)].decrementAndGet();
+        }
+    }
+
+    @Override
+    public void esperarDurabilidad(long secuencia) {
+        if (secuencia == 0 || modo == ModoFsync.ASINCRONICO) {
+            return;
+        }
+        long numero = secuencia >>> 1;
+        lock.lock();
+        try {
+            while (secuenciaDurable < numero) {
+                verificarFalla();
+                verificarTerminado();
+                bajadoADisco.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void reproducir(Aplicador aplicador) {
+        reproduciendo = true;
+        try {
+            Optional<Long> desde = ultimaGeneracion(NOMBRE_SNAPSHOT);
+            if (desde.isPresent()) {
+                FormatoSnapshot.leer(archivoSnapshot(desde.get()), aplicador, Runtime.getRuntime().availableProcessors());
+            }
+            for (long numero : generaciones(NOMBRE_BITACORA)) {
+                if (numero >= desde.orElse(0L)) {
+                    reproducirGeneracion(numero, aplicador);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo reproducir la bitacora en " + directorio, e);
+        } finally {
+            reproduciendo = false;
+        }
+    }
+
+    private void reproducirGeneracion(long numero, Aplicador aplicador) throws IOException {
+        recorrer(archivoBitacora(numero), cuerpo -> {
+                ByteBuffer lectura = ByteBuffer.wrap(cuerpo);
+                byte operacion = lectura.get();
+                TipoEntidad tipo = TipoEntidad.values()[lectura.get()];
+                long id = lectura.getLong();
+                if (operacion == BORRAR) {
+                    aplicador.borrar(tipo, id);
+                } else {
+                    aplicador.guardar(tipo, objectMapper.readValue(cuerpo, CUERPO_MINIMO,
+                            cuerpo.length - CUERPO_MINIMO, tipo.getClase()));
+                }
+            });
+    }
+
+    @Override
+    public void compactar(Fuente fuente) {
+        if (!compactando.tryLock()) {
+            return;
+        }
+        try {
+            verificarFalla();
+            if (cerrada) {
+                return;
+            }
+            long nueva = ++generacion;
+            // La marca de rotacion cambia la epoca de todo lo que se enlace despues de ella
+            int epocaAnterior = enlazar(null).epoca ^ 1;
+            LockSupport.unpark(escritor);
+            // Todo lo registrado antes del corte tiene que estar visible en los mapas antes de recorrerlos.
+            // Lo posterior puede o no quedar en el snapshot: reproducirlo de nuevo encima termina en el mismo estado,
+            // aunque por el camino repita claves unicas (por eso el aplicador restaura sin validarlas).
+            // yield y no onSpinWait: si compactar corre en un hilo virtual, libera el portador para los que faltan terminar
+            while (enCurso[epocaAnterior].get() > 0) {
+                Thread.yield();
+            }
+            FormatoSnapshot.escribir(archivoSnapshot(nueva), nueva, fuente);
+            esperarGeneracion(nueva);
+            for (long numero : generaciones(NOMBRE_BITACORA)) {
+                if (numero < nueva) {
+                    Files.deleteIfExists(archivoBitacora(numero));
+                }
+            }
+            for (long numero : generaciones(NOMBRE_SNAPSHOT)) {
+                if (numero < nueva) {
+                    Files.deleteIfExists(archivoSnapshot(numero));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo compactar la bitacora en " + directorio, e);
+        } finally {
+            compactando.unlock();
+        }
+    }
+
+    @Override
+    public long bytesDesdeUltimoSnapshot() {
+        return bytesEnGeneracion;
+    }
+
+    /** Espera a que termine una compactacion en curso, baja a disco lo pendiente y detiene el hilo escritor. */
+    @Override
+    public void close() {
+        compactando.lock();
+        compactando.unlock();
+        cerrada = true;
+        LockSupport.unpark(escritor);
+        try {
+            escritor.join();
+            canal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ByteBuffer armar(byte operacion, TipoEntidad tipo, Long id, byte[] datos) {
+        int largo = CUERPO_MINIMO + datos.length;
+        ByteBuffer registro = ByteBuffer.allocate(CABECERA + largo);
+        registro.putInt(largo).putInt(0).put(operacion).put((byte) tipo.ordinal()).putLong(id).put(datos);
+        CRC32 crc = new CRC32();
+        crc.update(registro.array(), CABECERA, largo);
+        registro.putInt(4, (int) crc.getValue());
+        return registro.flip();
+    }
+
+    private long encolar(ByteBuffer registro) {
+        verificarFalla();
+        if (cerrada) {
+            throw new IllegalStateException("La bitacora en " + directorio + " esta cerrada");
+        }
+        Nodo nodo = enlazar(registro);
+        if (modo != ModoFsync.ASINCRONICO) {
+            LockSupport.unpark(escritor);
+        }
+        // El bit bajo lleva la epoca, para que aplicada() descuente del contador correcto
+        return (nodo.numero << 1) | nodo.epoca;
+    }
+
+    /**
+     * Agrega un nodo al final de la cola; un registro null es la marca de rotacion. Si el CAS
+     * falla es porque otro enlazo primero, y se recalculan numero y epoca sobre el nuevo ultimo.
+     * El contador de la epoca se sube antes del CAS para que compactar nunca vea cero con un
+     * registro ya enlazado delante de su marca.
+     */
+    private Nodo enlazar(ByteBuffer registro) {
+        Nodo nodo = new Nodo(registro);
+        boolean rotacion = registro == null;
+        while (true) {
+            Nodo ultimo = cola.get();
+            Nodo siguiente = ultimo.siguiente;
+            if (siguiente != null) {
+                cola.compareAndSet(ultimo, siguiente);
+                continue;
+            }
+            nodo.numero = rotacion ? ultimo.numero : ultimo.numero + 1;
+            nodo.epoca = rotacion ? ultimo.epoca ^ 1 : ultimo.epoca;
+            if (!rotacion) {
+                enCurso[nodo.epoca].incrementAndGet();
+            }
+            if (SIGUIENTE.compareAndSet(ultimo, (Nodo) null, nodo)) {
+                cola.compareAndSet(ultimo, nodo);
+                return nodo;
+            }
+            if (!rotacion) {
+                enCurso[nodo.epoca].decrementAndGet();
+            }
+        }
+    }
+
+    private void escribirEnLoop() {
+        try {
+            while (true) {
+                boolean ultimaVuelta = cerrada;
+                esperarTrabajo();
+                List<ByteBuffer> tanda = new ArrayList<>();
+                boolean rotar = false;
+                Nodo siguiente;
+                while (!rotar && (siguiente = cabeza.siguiente) != null) {
+                    cabeza = siguiente;
+                    if (siguiente.registro == null) {
+                        rotar = true;
+                    } else {
+                        tanda.add(siguiente.registro);
+                        if (modo == ModoFsync.SINCRONICO) {
+                            break;
+                        }
+                    }
+                }
+                if (tanda.isEmpty() && !rotar) {
+                    if (ultimaVuelta) {
+                        return;
+                    }
+                    continue;
+                }
+                IOException error = null;
+                try {
+                    if (!tanda.isEmpty()) {
+                        escribir(tanda);
+                        canal.force(false);
+                    }
+                    if (rotar) {
+                        rotar();
+                    }
+                } catch (IOException e) {
+                    error = e;
+                }
+                lock.lock();
+                try {
+                    if (error != null) {
+                        falla = error;
+                    } else {
+                        secuenciaDurable = cabeza.numero;
+                        if (rotar) {
+                            generacionEscrita++;
+                        }
+                    }
+                    bajadoADisco.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                if (error != null) {
+                    return;
+                }
+            }
+        } finally {
+            lock.lock();
+            try {
+                terminado = true;
+                bajadoADisco.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void rotar() throws IOException {
+        canal.close();
+        long siguiente;
+        lock.lock();
+        try {
+            siguiente = generacionEscrita + 1;
+        } finally {
+            lock.unlock();
+        }
+        canal = FileChannel.open(archivoBitacora(siguiente), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        bytesEnGeneracion = 0;
+    }
+
+    private void esperarGeneracion(long numero) {
+        lock.lock();
+        try {
+            while (generacionEscrita < numero) {
+                verificarFalla();
+                verificarTerminado();
+                bajadoADisco.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void esperarTrabajo() {
+        if (modo == ModoFsync.ASINCRONICO) {
+            long limite = System.nanoTime() + intervaloAsincronicoNanos;
+            long restante;
+            while (!cerrada && (restante = limite - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, restante);
+            }
+        } else {
+            while (cabeza.siguiente == null && !cerrada) {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    private void escribir(List<ByteBuffer> tanda) throws IOException {
+        ByteBuffer[] buffers = tanda.toArray(new ByteBuffer[0]);
+        ByteBuffer ultimo = buffers[buffers.length - 1];
+        while (ultimo.hasRemaining()) {
+            bytesEnGeneracion += canal.write(buffers);
+        }
+    }
+
+    private void verificarFalla() {
+        if (falla != null) {
+            throw new UncheckedIOException("La bitacora en " + directorio + " no pudo escribir", falla);
+        }
+    }
+
+    /** Recorre los registros validos en orden y devuelve la posicion donde termina el ultimo. */
+    private long recorrer(Path archivo, Visitante visitante) throws IOException {
+        long posicion = 0;
+        try (DataInputStream entrada = new DataInputStream(new BufferedInputStream(Files.newInputStream(archivo), 1 << 16))) {
+            while (true) {
+                int largo;
+                int crcEsperado;
+                byte[] cuerpo;
+                try {
+                    largo = entrada.readInt();
+                    crcEsperado = entrada.readInt();
+                    if (largo < CUERPO_MINIMO || largo > CUERPO_MAXIMO) {
+                        break;
+                    }
+                    cuerpo = new byte[largo];
+                    entrada.readFully(cuerpo);
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(cuerpo);
+                if ((int) crc.getValue() != crcEsperado) {
+                    break;
+                }
+                visitante.visitar(cuerpo);
+                posicion += CABECERA + largo;
+            }
+        }
+        return posicion;
+    }
+
+    private Path archivoBitacora(long numero) {
+        return directorio.resolve(String.format("bitacora-%06d.wal", numero));
+    }
+
+    private Path archivoSnapshot(long numero) {
+        return directorio.resolve(String.format("snapshot-%06d.snap", numero));
+    }
+
+    private List<Long> generaciones(Pattern nombre) throws IOException {
+        try (Stream<Path> archivos = Files.list(directorio)) {
+            return archivos
+                    .map(archivo -> nombre.matcher(archivo.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .map(coincidencia -> Long.parseLong(coincidencia.group(1)))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Optional<Long> ultimaGeneracion(Pattern nombre) throws IOException {
+        return generaciones(nombre).stream().max(Comparator.naturalOrder());
+    }
+
+    // Un registro que se encolo justo mientras se cerraba puede quedar sin escribir: mejor fallar que esperar para siempre
+    private void verificarTerminado() {
+        if (terminado) {
+            throw new IllegalStateException("La bitacora en " + directorio + " se cerro antes de escribir el registro");
+        }
+    }
+
+    private static final class Nodo {
+        final ByteBuffer registro;
+        long numero;
+        int epoca;
+        volatile Nodo siguiente;
+
+        Nodo(ByteBuffer registro) {
+            this.registro = registro;
+        }
+    }
+
+    private interface Visitante {
+        void visitar(byte[] cuerpo) throws IOException;
+    }
+}
@@ -0,0 +1,38 @@
+package repository.persistencia;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import repository.LibroRepository;
+import repository.PrestamoRepository;
+import repository.UsuarioRepository;
+
+/**
+ * Toma un snapshot en segundo plano cuando la bitacora crecio lo suficiente desde el ultimo,
+ * para que el arranque no tenga que reproducir toda la historia.
+ */
+@Component
+public class CompactadorBitacora {
+
+    private final Bitacora bitacora;
+    private final PropiedadesPersistencia propiedades;
+    private final Bitacora.Fuente fuente;
+
+    public CompactadorBitacora(Bitacora bitacora, PropiedadesPersistencia propiedades, LibroRepository libroRepository,
+                               UsuarioRepository usuarioRepository, PrestamoRepository prestamoRepository) {
+        this.bitacora = bitacora;
+        this.propiedades = propiedades;
+        this.fuente = tipo -> switch (tipo) {
+            case LIBRO -> libroRepository.streamAll();
+            case USUARIO -> usuarioRepository.streamAll();
+            case PRESTAMO -> prestamoRepository.streamAll();
+        };
+    }
+
+    @Scheduled(initialDelayString = "${biblioteca.persistencia.intervalo-snapshot-ms:60000}",
+            fixedDelayString = "${biblioteca.persistencia.intervalo-snapshot-ms:60000}")
+    public void compactarSiHaceFalta() {
+        if (bitacora.bytesDesdeUltimoSnapshot() >= propiedades.getMinimoBytesSnapshot()) {
+            bitacora.compactar(fuente);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package repository.persistencia;
+
+import estados.EstadoLibro;
+import estados.EstadoUsuario;
+import modelo.Libro;
+import modelo.Prestamo;
+import modelo.Usuario;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Snapshot binario de los tres repositorios. Por cada tipo de entidad se escribe una seccion
+ * con sus registros (cada uno precedido por un 1 y la seccion terminada en 0); al final va una
+ * marca de cierre con el total, asi un archivo incompleto no se confunde con uno valido.
+ * Los prestamos guardan solo el id del libro y el dni del usuario, y las fechas como epochDay.
+ * La version 2 agrego el vencimiento de los prestamos; los snapshots de la version 1 se siguen leyendo.
+ * La lectura recorre el archivo mapeado en memoria por ventanas, sin copiarlo al heap, y reparte
+ * las entidades en lotes entre varios hilos: en un snapshot no hay dos registros con el mismo id,
+ * asi que el orden dentro de una seccion no importa.
+ */
+final class FormatoSnapshot {
+
+    private static final int MAGIA = 0x42494253;      // "BIBS"
+    private static final int MAGIA_FIN = 0x46494E21;  // "FIN!"
+    private static final int VERSION = 2;
+    private static final long SIN_VALOR = Long.MIN_VALUE;
+    private static final long VENTANA = 1L << 28;
+    private static final int TAMANIO_LOTE = 4096;
+
+    private FormatoSnapshot() {
+    }
+
+    /** Escribe a un archivo temporal, hace fsync y recien ahi lo renombra al destino. */
+    static void escribir(Path destino, long generacion, Bitacora.Fuente fuente) throws IOException {
+        Path temporal = destino.resolveSibling(destino.getFileName() + ".tmp");
+        long total = 0;
+        try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream salida = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(canal), 1 << 16));
+            salida.writeInt(MAGIA);
+            salida.writeInt(VERSION);
+            salida.writeLong(generacion);
+            for (TipoEntidad tipo : TipoEntidad.values()) {
+                salida.writeByte(tipo.ordinal());
+                Iterator<?> entidades = fuente.recorrer(tipo).iterator();
+                while (entidades.hasNext()) {
+                    salida.writeByte(1);
+                    escribirEntidad(salida, tipo, entidades.next());
+                    total++;
+                }
+                salida.writeByte(0);
+            }
+            salida.writeInt(MAGIA_FIN);
+            salida.writeLong(total);
+            salida.flush();
+            canal.force(true);
+        }
+        Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Aplica cada entidad del snapshot con {@code hilos} hilos. Cada seccion termina de aplicarse antes
+     * de leer la siguiente (libros, usuarios, prestamos), porque los prestamos se enlazan con las anteriores.
+     * Devuelve cuantas entidades leyo.
+     */
+    static long leer(Path origen, Bitacora.Aplicador aplicador, int hilos) throws IOException {
+        ExecutorService ejecutor = hilos > 1 ? Executors.newFixedThreadPool(hilos) : null;
+        try (FileChannel canal = FileChannel.open(origen, StandardOpenOption.READ)) {
+            Lector lector = new Lector(canal);
+            int version;
+            if (lector.getInt() != MAGIA || (version = lector.getInt()) < 1 || version > VERSION) {
+                throw new IOException("El archivo " + origen + " no es un snapshot valido");
+            }
+            lector.getLong();
+            long total = 0;
+            for (TipoEntidad tipo : TipoEntidad.values()) {
+                if (lector.getByte() != tipo.ordinal()) {
+                    throw new IOException("Seccion inesperada en el snapshot " + origen);
+                }
+                List<Future<?>> enCurso = new ArrayList<>();
+                List<Object> lote = new ArrayList<>(TAMANIO_LOTE);
+                while (lector.getByte() == 1) {
+                    lote.add(leerEntidad(lector, tipo, version));
+                    total++;
+                    if (lote.size() == TAMANIO_LOTE) {
+                        aplicar(ejecutor, enCurso, aplicador, tipo, lote);
+                        lote = new ArrayList<>(TAMANIO_LOTE);
+                    }
+                }
+                aplicar(ejecutor, enCurso, aplicador, tipo, lote);
+                esperar(enCurso);
+            }
+            if (lector.getInt() != MAGIA_FIN || lector.getLong() != total) {
+                throw new IOException("El snapshot " + origen + " esta incompleto");
+            }
+            return total;
+        } finally {
+            if (ejecutor != null) {
+                ejecutor.shutdownNow();
+            }
+        }
+    }
+
+    private static void aplicar(ExecutorService ejecutor, List<Future<?>> enCurso, Bitacora.Aplicador aplicador,
+                                TipoEntidad tipo, List<Object> lote) {
+        Runnable tarea = () -> lote.forEach(entidad -> aplicador.guardar(tipo, entidad));
+        if (ejecutor == null) {
+            tarea.run();
+        } else {
+            enCurso.add(ejecutor.submit(tarea));
+        }
+    }
+
+    private static void esperar(List<Future<?>> enCurso) throws IOException {
+        for (Future<?> tarea : enCurso) {
+            try {
+                tarea.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Se interrumpio la carga del snapshot");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException causa) {
+                    throw causa;
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    private static void escribirEntidad(DataOutputStream salida, TipoEntidad tipo, Object entidad) throws IOException {
+        switch (tipo) {
+            case LIBRO -> {
+                Libro libro = (Libro) entidad;
+                salida.writeLong(libro.getId());
+                escribirTexto(salida, libro.getIsbn());
+                escribirTexto(salida, libro.getTitulo());
+                escribirTexto(salida, libro.getAutor());
+                salida.writeByte(libro.getEstadoLibro() == null ? -1 : libro.getEstadoLibro().ordinal());
+            }
+            case USUARIO -> {
+                Usuario usuario = (Usuario) entidad;
+                salida.writeLong(usuario.getDni());
+                escribirTexto(salida, usuario.getNombre());
+                escribirTexto(salida, usuario.getEmail());
+                salida.writeByte(usuario.getEstadoUsuario() == null ? -1 : usuario.getEstadoUsuario().ordinal());
+            }
+            case PRESTAMO -> {
+                Prestamo prestamo = (Prestamo) entidad;
+                salida.writeLong(prestamo.getId());
+                salida.writeLong(prestamo.getLibroId() == null ? SIN_VALOR : prestamo.getLibroId());
+                salida.writeLong(prestamo.getUsuarioDni() == null ? SIN_VALOR : prestamo.getUsuarioDni());
+                salida.writeLong(prestamo.getFechaPrestamo() == null ? SIN_VALOR : prestamo.getFechaPrestamo().toEpochDay());
+                salida.writeLong(prestamo.getFechaVencimiento() == null ? SIN_VALOR : prestamo.getFechaVencimiento().toEpochDay());
+                Optional<LocalDate> devolucion = prestamo.getFechaDevolucion();
+                if (devolucion.isEmpty()) {
+                    salida.writeByte(1);
+                } else {
+                    salida.writeByte(2);
+                    salida.writeLong(devolucion.get().toEpochDay());
+                }
+            }
+        }
+    }
+
+    private static Object leerEntidad(Lector lector, TipoEntidad tipo, int version) throws IOException {
+        return switch (tipo) {
+            case LIBRO -> {
+                Long id = lector.getLong();
+                String isbn = lector.getTexto();
+                String titulo = lector.getTexto();
+                String autor = lector.getTexto();
+                byte estado = lector.getByte();
+                yield new Libro(id, isbn, titulo, autor, estado < 0 ? null : EstadoLibro.values()[estado]);
+            }
+            case USUARIO -> {
+                Long dni = lector.getLong();
+                String nombre = lector.getTexto();
+                String email = lector.getTexto();
+                byte estado = lector.getByte();
+                yield new Usuario(dni, nombre, email, estado < 0 ? null : EstadoUsuario.values()[estado]);
+            }
+            case PRESTAMO -> {
+                Long id = lector.getLong();
+                long libroId = lector.getLong();
+                long usuarioDni = lector.getLong();
+                long fechaPrestamo = lector.getLong();
+                long vencimiento = version >= 2 ? lector.getLong() : SIN_VALOR;
+                byte devolucion = lector.getByte();
+                Prestamo prestamo = new Prestamo();
+                prestamo.setId(id);
+                if (libroId != SIN_VALOR) {
+                    prestamo.setLibroId(libroId);
+                }
+                if (usuarioDni != SIN_VALOR) {
+                    prestamo.setUsuarioDni(usuarioDni);
+                }
+                if (fechaPrestamo != SIN_VALOR) {
+                    prestamo.setFechaPrestamo(LocalDate.ofEpochDay(fechaPrestamo));
+                }
+                if (vencimiento != SIN_VALOR) {
+                    prestamo.setFechaVencimiento(LocalDate.ofEpochDay(vencimiento));
+                }
+                if (devolucion == 1) {
+                    prestamo.setFechaDevolucion(Optional.empty());
+                } else if (devolucion == 2) {
+                    prestamo.setFechaDevolucion(Optional.of(LocalDate.ofEpochDay(lector.getLong())));
+                }
+                yield prestamo;
+            }
+        };
+    }
+
+    private static void escribirTexto(DataOutputStream salida, String texto) throws IOException {
+        if (texto == null) {
+            salida.writeInt(-1);
+            return;
+        }
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        salida.writeInt(bytes.length);
+        salida.write(bytes);
+    }
+
+    /** Lee el archivo mapeado de a ventanas de 256 MB, asi sirve tambien para snapshots de mas de 2 GB. */
+    private static final class Lector {
+        private final FileChannel canal;
+        private final long tamanio;
+        private long inicioVentana;
+        private MappedByteBuffer ventana;
+
+        Lector(FileChannel canal) throws IOException {
+            this.canal = canal;
+            this.tamanio = canal.size();
+            mapear(0);
+        }
+
+        byte getByte() throws IOException {
+            asegurar(Byte.BYTES);
+            return ventana.get();
+        }
+
+        int getInt() throws IOException {
+            asegurar(Integer.BYTES);
+            return ventana.getInt();
+        }
+
+        long getLong() throws IOException {
+            asegurar(Long.BYTES);
+            return ventana.getLong();
+        }
+
+        String getTexto() throws IOException {
+            int largo = getInt();
+            if (largo < 0) {
+                return null;
+            }
+            asegurar(largo);
+            byte[] bytes = new byte[largo];
+            ventana.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private void asegurar(int bytes) throws IOException {
+            if (ventana.remaining() >= bytes) {
+                return;
+            }
+            long posicion = inicioVentana + ventana.position();
+            if (tamanio - posicion < bytes) {
+                throw new IOException("El snapshot termina antes de tiempo");
+            }
+            mapear(posicion);
+        }
+
+        private void mapear(long desde) throws IOException {
+            inicioVentana = desde;
+            ventana = canal.map(FileChannel.MapMode.READ_ONLY, desde, Math.min(VENTANA, tamanio - desde));
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package repository.persistencia;
+
+public enum ModoFsync {
+    SINCRONICO,  // un fsync por operacion: cada save espera su propio fsync
+    GRUPO,       // group commit: las operaciones que llegan mientras corre un fsync se bajan juntas en el siguiente
+    ASINCRONICO  // el save no espera; se hace fsync cada cierto intervalo y se puede perder ese ultimo tramo
+}
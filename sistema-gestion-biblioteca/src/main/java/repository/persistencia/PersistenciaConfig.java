@@ -0,0 +1,77 @@
+package repository.persistencia;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import modelo.Libro;
+import modelo.Prestamo;
+import modelo.Usuario;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import repository.LibroRepository;
+import repository.PrestamoRepository;
+import repository.UsuarioRepository;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+@Configuration
+@EnableConfigurationProperties(PropiedadesPersistencia.class)
+@EnableScheduling
+public class PersistenciaConfig {
+
+    @Bean(destroyMethod = "close")
+    public Bitacora bitacora(PropiedadesPersistencia propiedades, ObjectMapper objectMapper) throws IOException {
+        if (!propiedades.isHabilitada()) {
+            return Bitacora.NINGUNA;
+        }
+        return new BitacoraEnArchivo(Path.of(propiedades.getDirectorio()), propiedades.getModo(), propiedades.getIntervaloAsincronicoMs(), objectMapper);
+    }
+
+    // Corre despues de crear todos los singletons y antes de levantar el servidor web,
+    // asi ningun request ve los repositorios a medio cargar
+    @Bean
+    public SmartInitializingSingleton reproducirBitacora(Bitacora bitacora, LibroRepository libroRepository,
+                                                         UsuarioRepository usuarioRepository,
+                                                         PrestamoRepository prestamoRepository) {
+        return () -> bitacora.reproducir(new AplicadorRepositorios(libroRepository, usuarioRepository, prestamoRepository));
+    }
+
+    /**
+     * Aplica cada operacion de la bitacora sobre los repositorios en memoria. Libros y usuarios se restauran
+     * sin validar las claves unicas: el snapshot lee objetos que se siguen modificando y la cola de la bitacora
+     * repite estados intermedios, asi que un ISBN o un email pueden aparecer repetidos hasta el final.
+     */
+    public static class AplicadorRepositorios implements Bitacora.Aplicador {
+
+        private final LibroRepository libroRepository;
+        private final UsuarioRepository usuarioRepository;
+        private final PrestamoRepository prestamoRepository;
+
+        public AplicadorRepositorios(LibroRepository libroRepository, UsuarioRepository usuarioRepository,
+                                     PrestamoRepository prestamoRepository) {
+            this.libroRepository = libroRepository;
+            this.usuarioRepository = usuarioRepository;
+            this.prestamoRepository = prestamoRepository;
+        }
+
+        @Override
+        public void guardar(TipoEntidad tipo, Object entidad) {
+            switch (tipo) {
+                case LIBRO -> libroRepository.restaurar((Libro) entidad);
+                case USUARIO -> usuarioRepository.restaurar((Usuario) entidad);
+                case PRESTAMO -> prestamoRepository.save((Prestamo) entidad);
+            }
+        }
+
+        @Override
+        public void borrar(TipoEntidad tipo, Long id) {
+            switch (tipo) {
+                case LIBRO -> libroRepository.deleteById(id);
+                case USUARIO -> usuarioRepository.deleteByDni(id);
+                case PRESTAMO -> prestamoRepository.deleteById(id);
+            }
+        }
+    }
+}
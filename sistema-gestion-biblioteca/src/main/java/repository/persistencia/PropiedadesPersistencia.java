@@ -0,0 +1,17 @@
+package repository.persistencia;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties("biblioteca.persistencia")
+public class PropiedadesPersistencia {
+    private boolean habilitada = false;
+    private String directorio = "datos";
+    private ModoFsync modo = ModoFsync.GRUPO;
+    // solo para ASINCRONICO: cada cuanto se baja a disco lo acumulado
+    private long intervaloAsincronicoMs = 200;
+    // cada cuanto se revisa si conviene compactar, y cuanta bitacora tiene que haber para hacerlo
+    private long intervaloSnapshotMs = 60_000;
+    private long minimoBytesSnapshot = 64L * 1024 * 1024;
+}
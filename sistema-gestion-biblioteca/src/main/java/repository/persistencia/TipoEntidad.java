@@ -0,0 +1,21 @@
+package repository.persistencia;
+
+import modelo.Libro;
+import modelo.Prestamo;
+import modelo.Usuario;
+
+public enum TipoEntidad {
+    LIBRO(Libro.class),
+    USUARIO(Usuario.class),
+    PRESTAMO(Prestamo.class);
+
+    private final Class<?> clase;
+
+    TipoEntidad(Class<?> clase) {
+        this.clase = clase;
+    }
+
+    public Class<?> getClase() {
+        return clase;
+    }
+}
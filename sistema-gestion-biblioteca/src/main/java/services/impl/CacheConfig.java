@@ -0,0 +1,15 @@
+package services.impl;
+
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Cache de lectura delante de los servicios, con la abstraccion de cache de Spring.
+ * El CacheManager lo arma Spring Boot con Caffeine segun spring.cache.* (tamanio maximo con
+ * desalojo W-TinyLFU y vencimiento), y como las caches se declaran al arrancar tambien publica
+ * sus aciertos, fallos y desalojos como metricas cache.* en /actuator/prometheus.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+}
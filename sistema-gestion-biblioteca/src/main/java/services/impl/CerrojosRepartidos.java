@@ -0,0 +1,54 @@
+package services.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cerrojos repartidos ("striped") por clave, por ejemplo el id de un libro o el dni de un usuario.
+ * Una misma clave siempre cae en el mismo cerrojo, y las claves distintas se reparten entre muchos
+ * cerrojos para que las operaciones sobre claves diferentes no esperen unas por otras.
+ * Se usan ReentrantLock y no synchronized para no fijar hilos virtuales a su portador.
+ */
+class CerrojosRepartidos {
+
+    private final Lock[] cerrojos;
+
+    CerrojosRepartidos(int cantidad) {
+        // Potencia de dos para poder elegir el cerrojo con una mascara
+        int tamanio = Integer.highestOneBit(Math.max(1, cantidad - 1)) << 1;
+        cerrojos = new Lock[tamanio];
+        for (int i = 0; i < tamanio; i++) {
+            cerrojos[i] = new ReentrantLock();
+        }
+    }
+
+    Lock de(Long clave) {
+        return cerrojos[indice(clave)];
+    }
+
+    /**
+     * Los cerrojos de varias claves, sin repetir y siempre en el mismo orden (el del arreglo): quien toma
+     * varios los toma en ese orden, asi dos pedidos con claves en comun no pueden esperarse en circulo.
+     */
+    List<Lock> ordenados(Collection<Long> claves) {
+        TreeSet<Integer> indices = new TreeSet<>();
+        for (Long clave : claves) {
+            indices.add(indice(clave));
+        }
+        List<Lock> resultado = new ArrayList<>(indices.size());
+        for (int indice : indices) {
+            resultado.add(cerrojos[indice]);
+        }
+        return resultado;
+    }
+
+    private int indice(Long clave) {
+        int h = clave == null ? 0 : clave.hashCode();
+        h ^= (h >>> 16); // mezcla los bits altos, las claves consecutivas caen en cerrojos distintos igual
+        return h & (cerrojos.length - 1);
+    }
+}
@@ -0,0 +1,65 @@
+package services.impl;
+import modelo.*;
+import org.springframework.stereotype.Service;
+import repository.LibroRepository;
+import repository.PrestamoRepository;
+import repository.UsuarioRepository;
+import services.interfaces.EstadisticasService;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Estadisticas de circulacion para los tableros. Los rankings traen solo ids y cantidades; aca se les
+ * agrega el titulo o el nombre, una busqueda por puesto (O(limite)). Un libro o usuario ya borrado queda
+ * en el ranking sin nombre, porque sus prestamos siguen en el historial.
+ */
+@Service
+public class EstadisticasServiceImpl implements EstadisticasService {
+
+    private final PrestamoRepository prestamoRepository;
+    private final LibroRepository libroRepository;
+    private final UsuarioRepository usuarioRepository;
+
+    public EstadisticasServiceImpl(PrestamoRepository prestamoRepository, LibroRepository libroRepository,
+                                   UsuarioRepository usuarioRepository) {
+        this.prestamoRepository = prestamoRepository;
+        this.libroRepository = libroRepository;
+        this.usuarioRepository = usuarioRepository;
+    }
+
+    @Override
+    public List<PrestamosDelDia> prestamosPorDia(LocalDate desde, LocalDate hasta) {
+        return prestamoRepository.countPorDia(desde, hasta);
+    }
+
+    @Override
+    public List<PuestoRanking> librosMasPrestados(int limite) {
+        return prestamoRepository.findLibrosMasPrestados(acotar(limite)).stream()
+                .map(puesto -> puesto.conNombre(libroRepository.findById(puesto.id()).map(Libro::getTitulo).orElse(null)))
+                .toList();
+    }
+
+    @Override
+    public List<PuestoRanking> usuariosConMasPrestamos(int limite) {
+        return prestamoRepository.findUsuariosConMasPrestamos(acotar(limite)).stream()
+                .map(puesto -> puesto.conNombre(usuarioRepository.findByDni(puesto.id()).map(Usuario::getNombre).orElse(null)))
+                .toList();
+    }
+
+    @Override
+    public PuestoRanking prestamosDeLibro(Long id) {
+        return new PuestoRanking(id, libroRepository.findById(id).map(Libro::getTitulo).orElse(null),
+                prestamoRepository.countByLibroId(id));
+    }
+
+    @Override
+    public PuestoRanking prestamosDeUsuario(Long dni) {
+        return new PuestoRanking(dni, usuarioRepository.findByDni(dni).map(Usuario::getNombre).orElse(null),
+                prestamoRepository.countByUsuarioDni(dni));
+    }
+
+    private static int acotar(int limite) {
+        return Math.max(1, Math.min(limite, PrestamoRepository.MAXIMO_RANKING));
+    }
+}
@@ -1,32 +1,107 @@
 package services.impl;
+import estados.EstadoLibro;
 import exceptions.LibroNoEncontradoException;
 import repository.*;
 import services.interfaces.LibroService;
 import modelo.Libro;
+import modelo.Pagina;
+import modelo.Sugerencia;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+/**
+ * Las busquedas por id y por isbn pasan por las caches "libros" y "librosPorIsbn" (ver CacheConfig).
+ * Cada escritura saca de "libros" solo el id que toca; "librosPorIsbn" se vacia entera porque
+ * una escritura puede cambiar el isbn de un libro y no se sabe cual era el anterior.
+ * <p>
+ * En "libros" cada libro va con la version que tenia el repositorio antes de leerlo, y solo se usa si
+ * sigue siendo la actual. Sacarlo al escribir no alcanza: una lectura que empezo antes de la escritura
+ * puede volver a poner el libro viejo despues, y con el ETag de la version nueva quedaria para siempre.
+ */
 @Service
 public class LibroServiceImpl implements LibroService {
 
     private final LibroRepository libroRepository;
+    private final Cache libros; // null sin cache, por ejemplo fuera de Spring
 
     public LibroServiceImpl(LibroRepository libroRepository) {
+        this(libroRepository, null);
+    }
+
+    @Autowired
+    public LibroServiceImpl(LibroRepository libroRepository, CacheManager cacheManager) {
         this.libroRepository = libroRepository;
+        this.libros = cacheManager == null ? null : cacheManager.getCache("libros");
     }
 
     @Override
     public Libro buscarPorId(Long id){
-        return libroRepository.findById(id)
-                .orElseThrow(()-> new LibroNoEncontradoException("Libro no encontrado por el ID: "+id));
+        return buscarLibro(id)
+                .orElseThrow(()-> new LibroNoEncontradoException("Libro no encontrado por el ID: "+id, false));
+    }
+
+    // Para los controllers: un id inexistente es un resultado normal, no una excepcion
+    @Override
+    public Optional<Libro> buscarLibro(Long id) {
+        // La version se lee antes que el libro: el libro leido es por lo menos de esa version.
+        // La 0 no se guarda, porque tambien es la de un libro borrado
+        long version = libroRepository.versionDe(id);
+        if (libros == null || version == 0) {
+            return libroRepository.findById(id);
+        }
+        LibroEnVersion enCache = libros.get(id, LibroEnVersion.class);
+        if (enCache != null && enCache.version() == version) {
+            return Optional.of(enCache.libro());
+        }
+        Optional<Libro> libro = libroRepository.findById(id);
+        libro.ifPresent(encontrado -> libros.put(id, new LibroEnVersion(version, encontrado)));
+        return libro;
     }
 
     @Override
+    @Cacheable(cacheNames = "librosPorIsbn", key = "#isbn")
     public Libro buscarPorIsbn(String isbn) {
         return libroRepository.findByIsbn(isbn)
-                .orElseThrow(() -> new LibroNoEncontradoException("Libro no encontrado con ISBN: " + isbn));
+                .orElseThrow(() -> new LibroNoEncontradoException("Libro no encontrado con ISBN: " + isbn, false));
+    }
+
+    @Override
+    public List<Libro> buscarPorTexto(String texto, int limite) {
+        return libroRepository.findByTexto(texto, Pagina.acotarLimite(limite));
+    }
+
+    @Override
+    public List<Libro> buscarPorTexto(String texto, EstadoLibro estado, int limite) {
+        return libroRepository.findByTextoYEstado(texto, estado, Pagina.acotarLimite(limite));
+    }
+
+    @Override
+    public Pagina<Libro> obtenerPaginaPorEstado(EstadoLibro estado, Long despuesDe, int limite) {
+        int acotado = Pagina.acotarLimite(limite);
+        List<Libro> libros = libroRepository.findByEstadoAfter(estado, despuesDe, acotado);
+        Long siguiente = libros.size() < acotado ? null : libros.get(libros.size() - 1).getId();
+        return new Pagina<>(libros, siguiente);
+    }
+
+    @Override
+    public Map<EstadoLibro, Long> contarPorEstado() {
+        return libroRepository.countPorEstado();
+    }
+
+    @Override
+    public List<Sugerencia> sugerir(String texto, int limite) {
+        return libroRepository.findSugerencias(texto, limite);
     }
 
     @Override
@@ -35,24 +110,61 @@ public class LibroServiceImpl implements LibroService {
     }
 
     @Override
+    public Pagina<Libro> obtenerPagina(Long despuesDe, int limite) {
+        int acotado = Pagina.acotarLimite(limite);
+        List<Libro> libros = libroRepository.findAllAfter(despuesDe, acotado);
+        Long siguiente = libros.size() < acotado ? null : libros.get(libros.size() - 1).getId();
+        return new Pagina<>(libros, siguiente);
+    }
+
+    @Override
+    public Stream<Libro> recorrerTodos() {
+        return libroRepository.streamAll();
+    }
+
+    @Override
+    @Caching(evict = {@CacheEvict(cacheNames = "libros", key = "#result.id"),
+            @CacheEvict(cacheNames = "librosPorIsbn", allEntries = true)})
     public Libro guardar(Libro libro) {
         return libroRepository.save(libro);
     }
 
     @Override
+    @CacheEvict(cacheNames = {"libros", "librosPorIsbn"}, allEntries = true)
+    public Map<Integer, String> guardarTodos(List<Libro> libros) {
+        return libroRepository.saveAll(libros);
+    }
+
+    @Override
+    @Caching(evict = {@CacheEvict(cacheNames = "libros", key = "#id"),
+            @CacheEvict(cacheNames = "librosPorIsbn", allEntries = true)})
     public void eliminar(Long id) {
         if (!libroRepository.existsById(id)) {
-            throw new LibroNoEncontradoException("Libro no encontrado con ID: " + id);
+            throw new LibroNoEncontradoException("Libro no encontrado con ID: " + id, false);
         }
         libroRepository.deleteById(id);
     }
 
     @Override
+    @Caching(evict = {@CacheEvict(cacheNames = "libros", key = "#id"),
+            @CacheEvict(cacheNames = "librosPorIsbn", allEntries = true)})
     public Libro actualizar(Long id, Libro libro) {
         if (!libroRepository.existsById(id)) {
-            throw new LibroNoEncontradoException("Libro no encontrado con ID: " + id);
+            throw new LibroNoEncontradoException("Libro no encontrado con ID: " + id, false);
         }
         libro.setId(id); // Aseguramos que el ID sea el correcto para la actualización
         return libroRepository.save(libro);
     }
+
+    @Override
+    public long versionCatalogo() {
+        return libroRepository.version();
+    }
+
+    @Override
+    public long versionLibro(Long id) {
+        return libroRepository.versionDe(id);
+    }
+
+    private record LibroEnVersion(long version, Libro libro) {}
 }
\ No newline at end of file
@@ -1,50 +1,134 @@
 package services.impl;
 import estados.EstadoLibro;
+import estados.EstadoUsuario;
 import exceptions.LibroNoEncontradoException;
 import exceptions.PrestamoNoEncontradoExcepcion;
+import exceptions.PrestamoNoPermitidoExcepcion;
+import exceptions.UsuarioNoEncontradoExcepcion;
 import modelo.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import repository.LibroRepository;
 import repository.PrestamoRepository;
+import repository.UsuarioRepository;
 import services.interfaces.PrestamoService;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
 
 @Service
 public class PrestamoServiceImpl implements PrestamoService {
 
     private final PrestamoRepository prestamoRepository;
     private final LibroRepository libroRepository;
+    private final UsuarioRepository usuarioRepository;
+    private final PropiedadesPrestamos propiedades;
+    private final CerrojosRepartidos cerrojosPorLibro = new CerrojosRepartidos(1024);
+    // Por dni: serializan los prestamos de un usuario para que dos pedidos simultaneos no pasen juntos el control del maximo
+    private final CerrojosRepartidos cerrojosPorUsuario = new CerrojosRepartidos(1024);
+
+    public PrestamoServiceImpl(PrestamoRepository prestamoRepository, LibroRepository libroRepository,
+                               UsuarioRepository usuarioRepository) {
+        this(prestamoRepository, libroRepository, usuarioRepository, new PropiedadesPrestamos());
+    }
 
     @Autowired
-    public PrestamoServiceImpl(PrestamoRepository prestamoRepository, LibroRepository libroRepository) {
+    public PrestamoServiceImpl(PrestamoRepository prestamoRepository, LibroRepository libroRepository,
+                               UsuarioRepository usuarioRepository, PropiedadesPrestamos propiedades) {
         this.prestamoRepository = prestamoRepository;
         this.libroRepository = libroRepository;
-
+        this.usuarioRepository = usuarioRepository;
+        this.propiedades = propiedades;
     }
     @Override
     public Prestamo realizarPrestamo(Libro libro, Usuario usuario){
-        if (libro.getEstadoLibro() != EstadoLibro.DISPONIBLE){
-            throw new LibroNoEncontradoException("El libro "+libro.getTitulo()+" no esta disponible");
-        }
-        Prestamo prestamo = new Prestamo();
-        prestamo.setLibroPrestado(libro);
-        prestamo.setUsuarioPrestatario(usuario);
-        prestamo.setFechaPrestamo(LocalDate.now());
-        prestamo.setFechaDevolucion(null);
-
-        libro.setEstadoLibro(EstadoLibro.PRESTADO);
-        libroRepository.save(libro);
+        // Siempre primero el cerrojo del usuario y despues el del libro, para no cruzarse con otro prestamo.
+        // El del libro hace atomico el "verificar disponible y marcar prestado"
+        Lock cerrojoUsuario = cerrojosPorUsuario.de(usuario.getDni());
+        cerrojoUsuario.lock();
+        Lock cerrojo = cerrojosPorLibro.de(libro.getId());
+        cerrojo.lock();
+        try {
+            verificarQuePuedePedir(usuario, 1);
+            Libro actual = libroGuardado(libro);
+            if (actual.getEstadoLibro() != EstadoLibro.DISPONIBLE){
+                throw new LibroNoEncontradoException("El libro "+libro.getTitulo()+" no esta disponible", false);
+            }
+            LocalDate hoy = LocalDate.now();
+            Prestamo prestamo = new Prestamo(null, actual, usuario, hoy, Optional.empty());
+            prestamo.setFechaVencimiento(hoy.plusDays(propiedades.getDiasPlazo()));
 
-        return prestamoRepository.save(prestamo);
+            actual.setEstadoLibro(EstadoLibro.PRESTADO);
+            libro.setEstadoLibro(EstadoLibro.PRESTADO);
+            libroRepository.save(actual);
 
+            Prestamo guardado = prestamoRepository.save(prestamo);
+            actualizarPopularidad(actual.getId());
+            return guardado;
+        } finally {
+            cerrojo.unlock();
+            cerrojoUsuario.unlock();
+        }
+    }
+    @Override
+    public List<Prestamo> realizarPrestamos(Long usuarioDni, List<Long> libroIds) {
+        Usuario usuario = usuarioRepository.findByDni(usuarioDni)
+                .orElseThrow(() -> new UsuarioNoEncontradoExcepcion("Usuario no encontrado con DNI: " + usuarioDni, false));
+        if (new HashSet<>(libroIds).size() < libroIds.size()) {
+            throw new PrestamoNoPermitidoExcepcion("El pedido tiene el mismo libro mas de una vez");
+        }
+        if (libroIds.isEmpty()) {
+            return List.of();
+        }
+        // El usuario primero y despues los libros en el orden de los cerrojos, como en realizarPrestamo
+        Lock cerrojoUsuario = cerrojosPorUsuario.de(usuarioDni);
+        cerrojoUsuario.lock();
+        List<Lock> cerrojos = cerrojosPorLibro.ordenados(libroIds);
+        cerrojos.forEach(Lock::lock);
+        try {
+            // Primero se verifica todo; recien entonces se escribe, asi un libro que falla no deja prestados a los demas
+            verificarQuePuedePedir(usuario, libroIds.size());
+            List<Libro> libros = new ArrayList<>(libroIds.size());
+            for (Long libroId : libroIds) {
+                Libro libro = libroRepository.findById(libroId)
+                        .orElseThrow(() -> new LibroNoEncontradoException("Libro no encontrado con ID: " + libroId, false));
+                if (libro.getEstadoLibro() != EstadoLibro.DISPONIBLE) {
+                    throw new PrestamoNoPermitidoExcepcion("El libro " + libro.getTitulo() + " no esta disponible");
+                }
+                libros.add(libro);
+            }
+            LocalDate hoy = LocalDate.now();
+            List<Prestamo> prestamos = new ArrayList<>(libros.size());
+            for (Libro libro : libros) {
+                Prestamo prestamo = new Prestamo(null, libro, usuario, hoy, Optional.empty());
+                prestamo.setFechaVencimiento(hoy.plusDays(propiedades.getDiasPlazo()));
+                prestamos.add(prestamo);
+            }
+            cambiarEstado(libros, EstadoLibro.PRESTADO, EstadoLibro.DISPONIBLE);
+            prestamoRepository.saveAll(prestamos);
+            libroIds.forEach(this::actualizarPopularidad);
+            return prestamos;
+        } finally {
+            cerrojos.reversed().forEach(Lock::unlock);
+            cerrojoUsuario.unlock();
+        }
     }
+
     @Override
     public Prestamo obtenerPrestamoPorId(Long id) {
         return prestamoRepository.findById(id)
-                .orElseThrow(() -> new PrestamoNoEncontradoExcepcion("Prestamo no encontrado con ID: " + id));
+                .orElseThrow(() -> new PrestamoNoEncontradoExcepcion("Prestamo no encontrado con ID: " + id, false));
+    }
+
+    @Override
+    public Optional<Prestamo> buscarPrestamo(Long id) {
+        return prestamoRepository.findById(id);
     }
 
     @Override
@@ -52,6 +136,19 @@ public class PrestamoServiceImpl implements PrestamoService {
         return prestamoRepository.findAll();
     }
 
+    @Override
+    public Pagina<Prestamo> obtenerPaginaPrestamos(Long despuesDe, int limite) {
+        int acotado = Pagina.acotarLimite(limite);
+        List<Prestamo> prestamos = prestamoRepository.findAllAfter(despuesDe, acotado);
+        Long siguiente = prestamos.size() < acotado ? null : prestamos.get(prestamos.size() - 1).getId();
+        return new Pagina<>(prestamos, siguiente);
+    }
+
+    @Override
+    public Stream<Prestamo> recorrerTodosPrestamos() {
+        return prestamoRepository.streamAll();
+    }
+
     @Override
     public List<Prestamo> obtenerPrestamosPorUsuario(Long usuarioId) {
         return prestamoRepository.findByUsuarioDni(usuarioId);
@@ -62,34 +159,220 @@ public class PrestamoServiceImpl implements PrestamoService {
         return prestamoRepository.findByLibroId(libroId);
     }
 
+    @Override
+    public List<Prestamo> obtenerPrestamosVencidos(LocalDate fecha, int limite) {
+        return prestamoRepository.findVencidos(fecha, limite);
+    }
+
+    @Override
+    public Optional<Libro> libroDe(Prestamo prestamo) {
+        return prestamo.getLibroId() == null ? Optional.empty() : libroRepository.findById(prestamo.getLibroId());
+    }
+
+    @Override
+    public Optional<Usuario> usuarioDe(Prestamo prestamo) {
+        return prestamo.getUsuarioDni() == null ? Optional.empty() : usuarioRepository.findByDni(prestamo.getUsuarioDni());
+    }
+
     @Override
     public void marcarComoDevuelto(Long id) {
-        Optional<Prestamo> prestamoOptional = prestamoRepository.findById(id);
-        if (prestamoOptional.isPresent()) {
-            Prestamo prestamo = prestamoOptional.get();
-            Libro libro = prestamo.getLibroPrestado();
-            if (libro != null) {
+        Long libroId = prestamoRepository.findById(id)
+                .orElseThrow(() -> new PrestamoNoEncontradoExcepcion("No se encontró el préstamo con ID: " + id, false))
+                .getLibroId();
+        if (libroId == null) {
+            throw new PrestamoNoPermitidoExcepcion("El préstamo con ID " + id + " no tiene libro");
+        }
+        Lock cerrojo = cerrojosPorLibro.de(libroId);
+        cerrojo.lock();
+        try {
+            // Se relee bajo el cerrojo del libro: dos devoluciones del mismo prestamo no pueden pasar ambas
+            Prestamo prestamo = prestamoRepository.findById(id)
+                    .filter(actual -> libroId.equals(actual.getLibroId()))
+                    .orElseThrow(() -> new PrestamoNoEncontradoExcepcion("No se encontró el préstamo con ID: " + id, false));
+            if (prestamo.estaDevuelto()) {
+                throw new PrestamoNoPermitidoExcepcion("El préstamo con ID " + id + " ya fue devuelto");
+            }
+            prestamo.setFechaDevolucion(Optional.of(LocalDate.now()));
+            libroRepository.findById(libroId).ifPresent(libro -> {
                 libro.setEstadoLibro(EstadoLibro.DISPONIBLE);
-                prestamo.setFechaDevolucion(Optional.of(LocalDate.now()));
-                prestamoRepository.save(prestamo);
-            } else {
-                System.err.println("Error: El libro asociado al préstamo con ID " + id + " es null.");
+                libroRepository.save(libro);
+            });
+            prestamoRepository.save(prestamo);
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    @Override
+    public Prestamo cambiarFechaDevolucion(Long id, Optional<LocalDate> fechaDevolucion) {
+        while (true) {
+            Prestamo leido = prestamoRepository.findById(id)
+                    .orElseThrow(() -> new PrestamoNoEncontradoExcepcion("No se encontró el préstamo con ID: " + id, false));
+            Long libroId = leido.getLibroId();
+            Long usuarioDni = leido.getUsuarioDni();
+            if (libroId == null) {
+                throw new PrestamoNoPermitidoExcepcion("El préstamo con ID " + id + " no tiene libro");
+            }
+            // Reabrirlo es como prestar el libro otra vez: los mismos cerrojos y en el mismo orden que realizarPrestamo
+            Lock cerrojoUsuario = cerrojosPorUsuario.de(usuarioDni);
+            cerrojoUsuario.lock();
+            Lock cerrojo = cerrojosPorLibro.de(libroId);
+            cerrojo.lock();
+            try {
+                Prestamo actual = prestamoRepository.findById(id)
+                        .orElseThrow(() -> new PrestamoNoEncontradoExcepcion("No se encontró el préstamo con ID: " + id, false));
+                if (!libroId.equals(actual.getLibroId()) || !Objects.equals(usuarioDni, actual.getUsuarioDni())) {
+                    continue; // Lo cambiaron de libro o de usuario mientras se esperaba: hay que tomar otros cerrojos
+                }
+                // Se trabaja sobre una copia: si algo falla, el guardado queda como estaba
+                Prestamo cambiado = copia(actual);
+                cambiado.setFechaDevolucion(fechaDevolucion);
+                if (cambiado.estaDevuelto() && !actual.estaDevuelto()) {
+                    libroRepository.findById(libroId).ifPresent(libro -> {
+                        libro.setEstadoLibro(EstadoLibro.DISPONIBLE);
+                        libroRepository.save(libro);
+                    });
+                } else if (!cambiado.estaDevuelto() && actual.estaDevuelto()) {
+                    Libro libro = libroRepository.findById(libroId)
+                            .orElseThrow(() -> new LibroNoEncontradoException("Libro no encontrado con ID: " + libroId, false));
+                    if (libro.getEstadoLibro() != EstadoLibro.DISPONIBLE) {
+                        throw new PrestamoNoPermitidoExcepcion("El libro " + libro.getTitulo() + " no esta disponible");
+                    }
+                    if (usuarioDni != null) {
+                        verificarQuePuedePedir(usuarioRepository.findByDni(usuarioDni).orElseThrow(() ->
+                                new UsuarioNoEncontradoExcepcion("Usuario no encontrado con DNI: " + usuarioDni, false)), 1);
+                    }
+                    libro.setEstadoLibro(EstadoLibro.PRESTADO);
+                    libroRepository.save(libro);
+                }
+                return prestamoRepository.save(cambiado);
+            } finally {
+                cerrojo.unlock();
+                cerrojoUsuario.unlock();
             }
-        } else {
-            throw new PrestamoNoEncontradoExcepcion("No se encontró el préstamo con ID: " + id);
+        }
+    }
+
+    @Override
+    public List<Prestamo> devolverPrestamos(List<Long> ids) {
+        if (new HashSet<>(ids).size() < ids.size()) {
+            throw new PrestamoNoPermitidoExcepcion("La devolucion tiene el mismo prestamo mas de una vez");
+        }
+        List<Prestamo> prestamos = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Prestamo prestamo = prestamoRepository.findById(id)
+                    .orElseThrow(() -> new PrestamoNoEncontradoExcepcion("No se encontró el préstamo con ID: " + id, false));
+            if (prestamo.getLibroId() == null) {
+                throw new PrestamoNoPermitidoExcepcion("El préstamo con ID " + id + " no tiene libro");
+            }
+            prestamos.add(prestamo);
+        }
+        List<Lock> cerrojos = cerrojosPorLibro.ordenados(prestamos.stream().map(Prestamo::getLibroId).toList());
+        cerrojos.forEach(Lock::lock);
+        try {
+            // Se releen bajo los cerrojos, igual que en marcarComoDevuelto: otra devolucion de los mismos no puede pasar a la vez
+            for (int i = 0; i < prestamos.size(); i++) {
+                Prestamo leido = prestamos.get(i);
+                Prestamo prestamo = prestamoRepository.findById(leido.getId())
+                        .filter(actual -> leido.getLibroId().equals(actual.getLibroId()))
+                        .orElseThrow(() -> new PrestamoNoEncontradoExcepcion("No se encontró el préstamo con ID: " + leido.getId(), false));
+                if (prestamo.estaDevuelto()) {
+                    throw new PrestamoNoPermitidoExcepcion("El préstamo con ID " + prestamo.getId() + " ya fue devuelto");
+                }
+                prestamos.set(i, prestamo);
+            }
+            List<Libro> libros = new ArrayList<>(prestamos.size());
+            for (Prestamo prestamo : prestamos) {
+                libroRepository.findById(prestamo.getLibroId()).ifPresent(libros::add);
+            }
+            cambiarEstado(libros, EstadoLibro.DISPONIBLE, EstadoLibro.PRESTADO);
+            LocalDate hoy = LocalDate.now();
+            prestamos.forEach(prestamo -> prestamo.setFechaDevolucion(Optional.of(hoy)));
+            prestamoRepository.saveAll(prestamos);
+            return prestamos;
+        } finally {
+            cerrojos.reversed().forEach(Lock::unlock);
+        }
+    }
+
+    private static Prestamo copia(Prestamo prestamo) {
+        Prestamo copia = new Prestamo(prestamo.getId(), prestamo.getLibroId(), prestamo.getUsuarioDni(),
+                prestamo.getFechaPrestamo(), prestamo.getFechaDevolucion());
+        copia.setFechaVencimiento(prestamo.getFechaVencimiento());
+        return copia;
+    }
+
+    // Guarda todos los libros juntos; si alguno no se pudo guardar (por ejemplo, su ISBN lo tomo otro libro
+    // entre medio) vuelve todos al estado anterior, para no dejar el lote a medias
+    private void cambiarEstado(List<Libro> libros, EstadoLibro nuevo, EstadoLibro anterior) {
+        libros.forEach(libro -> libro.setEstadoLibro(nuevo));
+        Map<Integer, String> errores = libroRepository.saveAll(libros);
+        if (!errores.isEmpty()) {
+            libros.forEach(libro -> libro.setEstadoLibro(anterior));
+            libroRepository.saveAll(libros);
+            throw new PrestamoNoPermitidoExcepcion("No se pudo cambiar el estado del libro: " + errores.values().iterator().next());
         }
     }
 
     @Override
     public Prestamo guardarPrestamo(Prestamo prestamo) {
-        return prestamoRepository.save(prestamo);
+        if (prestamo.getId() != null && prestamoRepository.existsById(prestamo.getId())) {
+            throw new PrestamoNoPermitidoExcepcion("Ya existe un préstamo con ID " + prestamo.getId());
+        }
+        if (!prestamo.estaDevuelto()) {
+            // Uno abierto es un prestamo nuevo: pasa por los mismos controles y cerrojos que el resto
+            if (prestamo.getLibroId() == null || prestamo.getUsuarioDni() == null) {
+                throw new PrestamoNoPermitidoExcepcion("Un préstamo abierto necesita libro y usuario");
+            }
+            return realizarPrestamos(prestamo.getUsuarioDni(), List.of(prestamo.getLibroId())).get(0);
+        }
+        Prestamo guardado = prestamoRepository.save(prestamo);
+        actualizarPopularidad(guardado.getLibroId());
+        return guardado;
     }
 
     @Override
     public void eliminarPrestamo(Long id) {
-        if (!prestamoRepository.existsById(id)) {
-            throw new PrestamoNoEncontradoExcepcion("Prestamo no encontrado con ID: " + id);
-        }
+        Prestamo prestamo = prestamoRepository.findById(id)
+                .orElseThrow(() -> new PrestamoNoEncontradoExcepcion("Prestamo no encontrado con ID: " + id, false));
         prestamoRepository.deleteById(id);
+        actualizarPopularidad(prestamo.getLibroId());
+    }
+
+    // Se copia el contador del repositorio en vez de sumar uno: si dos llamadas se cruzan, la siguiente lo corrige
+    private void actualizarPopularidad(Long libroId) {
+        if (libroId != null) {
+            libroRepository.actualizarPopularidad(libroId, prestamoRepository.countByLibroId(libroId));
+        }
+    }
+
+    // El estado y la cantidad de prestamos abiertos salen del repositorio (el contador es O(1)), no del objeto recibido
+    private void verificarQuePuedePedir(Usuario usuario, int pedidos) {
+        if (usuario.getDni() == null) {
+            return;
+        }
+        EstadoUsuario estado = usuarioRepository.findByDni(usuario.getDni())
+                .map(Usuario::getEstadoUsuario)
+                .orElse(usuario.getEstadoUsuario());
+        if (estado == EstadoUsuario.BLOQUEADO || estado == EstadoUsuario.INACTIVO) {
+            throw new PrestamoNoPermitidoExcepcion("El usuario " + usuario.getDni() + " esta " + estado.name().toLowerCase());
+        }
+        int abiertos = prestamoRepository.countActivosByUsuarioDni(usuario.getDni());
+        if (abiertos >= propiedades.getMaximoPorUsuario()) {
+            throw new PrestamoNoPermitidoExcepcion("El usuario " + usuario.getDni() + " ya tiene "
+                    + propiedades.getMaximoPorUsuario() + " prestamos abiertos");
+        }
+        if (abiertos + pedidos > propiedades.getMaximoPorUsuario()) {
+            throw new PrestamoNoPermitidoExcepcion("El usuario " + usuario.getDni() + " tiene " + abiertos
+                    + " prestamos abiertos y no puede llevarse " + pedidos + " mas (maximo " + propiedades.getMaximoPorUsuario() + ")");
+        }
+    }
+
+    // El estado que manda es el del repositorio: el objeto recibido puede ser una copia vieja
+    private Libro libroGuardado(Libro libro) {
+        if (libro.getId() == null) {
+            return libro;
+        }
+        return libroRepository.findById(libro.getId()).orElse(libro);
     }
 }
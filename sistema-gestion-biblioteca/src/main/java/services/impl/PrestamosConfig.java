@@ -0,0 +1,15 @@
+package services.impl;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Configuracion de los prestamos: las propiedades biblioteca.prestamos.* (las usan PrestamoServiceImpl y
+ * RevisorVencimientos) y las tareas @Scheduled, que asi no dependen de que la persistencia este configurada.
+ */
+@Configuration
+@EnableConfigurationProperties(PropiedadesPrestamos.class)
+@EnableScheduling
+public class PrestamosConfig {
+}
@@ -0,0 +1,16 @@
+package services.impl;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties("biblioteca.prestamos")
+public class PropiedadesPrestamos {
+    // dias que tiene el usuario para devolver, contados desde el dia del prestamo
+    private int diasPlazo = 14;
+    // prestamos abiertos que puede tener un usuario a la vez
+    private int maximoPorUsuario = 5;
+    // cada cuanto corre la revision de vencidos, y si bloquea a los usuarios que deben libros
+    private long intervaloVencidosMs = 3_600_000;
+    private boolean bloquearMorosos = false;
+}
@@ -0,0 +1,73 @@
+package services.impl;
+
+import estados.EstadoUsuario;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import modelo.Prestamo;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import services.interfaces.PrestamoService;
+import services.interfaces.UsuarioService;
+
+import java.time.LocalDate;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Revisa cada tanto los prestamos vencidos. Solo recorre los vencidos (el indice por vencimiento
+ * los deja al principio), asi que el costo depende de cuantos hay y no del total de prestamos.
+ * Publica la cantidad y, si esta configurado, bloquea a los usuarios que deben algun libro.
+ */
+@Component
+public class RevisorVencimientos implements MeterBinder {
+
+    private final PrestamoService prestamoService;
+    private final UsuarioService usuarioService;
+    private final PropiedadesPrestamos propiedades;
+    private final AtomicLong vencidos = new AtomicLong();
+
+    public RevisorVencimientos(PrestamoService prestamoService, UsuarioService usuarioService,
+                               PropiedadesPrestamos propiedades) {
+        this.prestamoService = prestamoService;
+        this.usuarioService = usuarioService;
+        this.propiedades = propiedades;
+    }
+
+    @Scheduled(fixedDelayString = "${biblioteca.prestamos.intervalo-vencidos-ms:3600000}")
+    public void revisar() {
+        revisar(LocalDate.now());
+    }
+
+    /** Devuelve los dni de los usuarios bloqueados en esta pasada. */
+    public Set<Long> revisar(LocalDate fecha) {
+        List<Prestamo> prestamos = prestamoService.obtenerPrestamosVencidos(fecha, Integer.MAX_VALUE);
+        vencidos.set(prestamos.size());
+        Set<Long> bloqueados = new LinkedHashSet<>();
+        if (!propiedades.isBloquearMorosos()) {
+            return bloqueados;
+        }
+        for (Prestamo prestamo : prestamos) {
+            Long dni = prestamo.getUsuarioDni();
+            if (dni == null || bloqueados.contains(dni)) {
+                continue;
+            }
+            // Los que ya estan bloqueados no se vuelven a guardar, para no escribir en la bitacora en cada pasada
+            boolean activo = usuarioService.buscarUsuario(dni)
+                    .map(usuario -> usuario.getEstadoUsuario() != EstadoUsuario.BLOQUEADO)
+                    .orElse(false);
+            if (activo) {
+                usuarioService.bloquearUsuario(dni);
+                bloqueados.add(dni);
+            }
+        }
+        return bloqueados;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registro) {
+        Gauge.builder("biblioteca.prestamos.vencidos", vencidos, AtomicLong::get).register(registro);
+    }
+}
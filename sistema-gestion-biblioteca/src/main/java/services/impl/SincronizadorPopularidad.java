@@ -0,0 +1,34 @@
+package services.impl;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import repository.LibroRepository;
+import repository.PrestamoRepository;
+
+/**
+ * Al arrancar, despues de reproducir la bitacora, copia a las sugerencias de libros los prestamos
+ * de cada libro. La reproduccion guarda directo en los repositorios y no pasa por PrestamoService,
+ * que es quien las mantiene al dia de ahi en mas.
+ */
+@Component
+public class SincronizadorPopularidad {
+
+    private final LibroRepository libroRepository;
+    private final PrestamoRepository prestamoRepository;
+
+    public SincronizadorPopularidad(LibroRepository libroRepository, PrestamoRepository prestamoRepository) {
+        this.libroRepository = libroRepository;
+        this.prestamoRepository = prestamoRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void sincronizar() {
+        libroRepository.streamAll().forEach(libro -> {
+            long prestamos = prestamoRepository.countByLibroId(libro.getId());
+            if (prestamos > 0) {
+                libroRepository.actualizarPopularidad(libro.getId(), prestamos);
+            }
+        });
+    }
+}
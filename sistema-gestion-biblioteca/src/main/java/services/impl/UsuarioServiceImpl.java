@@ -1,11 +1,20 @@
 package services.impl;
 import estados.EstadoUsuario;
 import exceptions.UsuarioNoEncontradoExcepcion;
+import modelo.Pagina;
 import modelo.Usuario;
 import repository.UsuarioRepository;
 import services.interfaces.UsuarioService;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.stereotype.Service;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+// Las lecturas por dni pasan por la cache "usuarios"; toda escritura saca ese dni de la cache
+@Service
 public class UsuarioServiceImpl implements UsuarioService{
     private final UsuarioRepository usuarioRepository;
 
@@ -13,15 +22,22 @@ public class UsuarioServiceImpl implements UsuarioService{
         this.usuarioRepository = usuarioRepository;
     }
     @Override
+    @Cacheable(cacheNames = "usuarios", key = "#dni")
     public Usuario obtenerUsuarioPorDni(Long dni) {
         return usuarioRepository.findByDni(dni)
-                .orElseThrow(()->new UsuarioNoEncontradoExcepcion("Usuario no encontrado por el dni: "+dni));
+                .orElseThrow(()->new UsuarioNoEncontradoExcepcion("Usuario no encontrado por el dni: "+dni, false));
+    }
+
+    @Override
+    @Cacheable(cacheNames = "usuarios", key = "#dni", unless = "#result == null")
+    public Optional<Usuario> buscarUsuario(Long dni) {
+        return usuarioRepository.findByDni(dni);
     }
 
     @Override
     public Usuario obtenerUsuarioPorEmail(String email){
         return usuarioRepository.findByEmail(email)
-                .orElseThrow(()->new UsuarioNoEncontradoExcepcion("El usuario no fue encontrado por el emial: "+ email));
+                .orElseThrow(()->new UsuarioNoEncontradoExcepcion("El usuario no fue encontrado por el emial: "+ email, false));
     }
 
     @Override
@@ -30,28 +46,51 @@ public class UsuarioServiceImpl implements UsuarioService{
     }
 
     @Override
+    public Pagina<Usuario> obtenerPaginaUsuarios(Long despuesDe, int limite){
+        int acotado = Pagina.acotarLimite(limite);
+        List<Usuario> usuarios = usuarioRepository.findAllAfter(despuesDe, acotado);
+        Long siguiente = usuarios.size() < acotado ? null : usuarios.get(usuarios.size() - 1).getDni();
+        return new Pagina<>(usuarios, siguiente);
+    }
+
+    @Override
+    public Stream<Usuario> recorrerTodosUsuarios(){
+        return usuarioRepository.streamAll();
+    }
+
+    @Override
+    @CacheEvict(cacheNames = "usuarios", key = "#result.dni")
     public Usuario guardarUsuario(Usuario usuario){
         return usuarioRepository.save(usuario);
     }
 
     @Override
+    @CacheEvict(cacheNames = "usuarios", allEntries = true)
+    public Map<Integer, String> guardarUsuarios(List<Usuario> usuarios){
+        return usuarioRepository.saveAll(usuarios);
+    }
+
+    @Override
+    @CacheEvict(cacheNames = "usuarios", key = "#dni")
     public void eliminarUsuario(Long dni){
         if (!usuarioRepository.existsByDni(dni)){
-            throw new UsuarioNoEncontradoExcepcion("No se puede eliminar el usuario con el DNI: "+dni+" porque no existe");
+            throw new UsuarioNoEncontradoExcepcion("No se puede eliminar el usuario con el DNI: "+dni+" porque no existe", false);
         }
         usuarioRepository.deleteByDni(dni);
     }
 
     @Override
+    @CacheEvict(cacheNames = "usuarios", key = "#dni")
     public Usuario actualizarUsuario(Long dni, Usuario usuario) {
         if (!usuarioRepository.existsByDni(dni)){
-            throw new UsuarioNoEncontradoExcepcion("No se puede actualizar el usuario con el DNI: "+dni+" porque no existe");
+            throw new UsuarioNoEncontradoExcepcion("No se puede actualizar el usuario con el DNI: "+dni+" porque no existe", false);
         }
         usuario.setDni(dni);
         return usuarioRepository.save(usuario);
     }
 
     @Override
+    @CacheEvict(cacheNames = "usuarios", key = "#dni")
     public void bloquearUsuario(Long dni){
         Usuario usuario = obtenerUsuarioPorDni(dni);
         usuario.setEstadoUsuario(EstadoUsuario.BLOQUEADO);
@@ -59,6 +98,7 @@ public class UsuarioServiceImpl implements UsuarioService{
     }
 
     @Override
+    @CacheEvict(cacheNames = "usuarios", key = "#dni")
     public void activarUsuario(Long dni) {
         Usuario usuario = obtenerUsuarioPorDni(dni);
         usuario.setEstadoUsuario(EstadoUsuario.ACTIVO);
@@ -0,0 +1,13 @@
+package services.interfaces;
+import modelo.*;
+import java.time.LocalDate;
+import java.util.List;
+
+// Todo sale de contadores que el repositorio de prestamos mantiene en cada cambio: nada recorre el historial
+public interface EstadisticasService {
+    List<PrestamosDelDia> prestamosPorDia(LocalDate desde, LocalDate hasta);
+    List<PuestoRanking> librosMasPrestados(int limite);
+    List<PuestoRanking> usuariosConMasPrestamos(int limite);
+    PuestoRanking prestamosDeLibro(Long id);
+    PuestoRanking prestamosDeUsuario(Long dni);
+}
@@ -1,12 +1,28 @@
 package services.interfaces;
+import estados.EstadoLibro;
 import modelo.*;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface LibroService {
     Libro buscarPorId(Long id);
+    Optional<Libro> buscarLibro(Long id);
     Libro buscarPorIsbn(String isbn);
+    List<Libro> buscarPorTexto(String texto, int limite);
+    List<Libro> buscarPorTexto(String texto, EstadoLibro estado, int limite);
+    Pagina<Libro> obtenerPaginaPorEstado(EstadoLibro estado, Long despuesDe, int limite);
+    Map<EstadoLibro, Long> contarPorEstado();
+    List<Sugerencia> sugerir(String texto, int limite);
     List<Libro> obtenerTodos();
+    Pagina<Libro> obtenerPagina(Long despuesDe, int limite);
+    Stream<Libro> recorrerTodos();
     Libro guardar(Libro libro);
+    Map<Integer, String> guardarTodos(List<Libro> libros);
     void eliminar(Long id);
     Libro actualizar(Long id, Libro libro);
+    // Versiones del repositorio, para los GET condicionales
+    long versionCatalogo();
+    long versionLibro(Long id);
 }
\ No newline at end of file
@@ -1,14 +1,30 @@
 package services.interfaces;
 import modelo.*;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface PrestamoService {
     Prestamo realizarPrestamo(Libro libro, Usuario usuario);
+    // Varios libros a la vez (por ejemplo en una terminal de autopréstamo): se prestan todos o ninguno
+    List<Prestamo> realizarPrestamos(Long usuarioDni, List<Long> libroIds);
     Prestamo obtenerPrestamoPorId(Long id);
+    Optional<Prestamo> buscarPrestamo(Long id);
     List<Prestamo> obtenerTodosPrestamos();
+    Pagina<Prestamo> obtenerPaginaPrestamos(Long despuesDe, int limite);
+    Stream<Prestamo> recorrerTodosPrestamos();
     List<Prestamo> obtenerPrestamosPorUsuario(Long usuarioDni);
     List<Prestamo> obtenerPrestamosPorLibro(Long libroId);
+    List<Prestamo> obtenerPrestamosVencidos(LocalDate fecha, int limite);
+    // El prestamo solo guarda ids: libro y usuario se buscan recien cuando alguien los pide
+    Optional<Libro> libroDe(Prestamo prestamo);
+    Optional<Usuario> usuarioDe(Prestamo prestamo);
     void marcarComoDevuelto(Long id);
+    List<Prestamo> devolverPrestamos(List<Long> ids); // Todos o ninguno, como realizarPrestamos
+    // Devolverlo o reabrirlo cambia el estado del libro, bajo el mismo cerrojo que prestar y devolver
+    Prestamo cambiarFechaDevolucion(Long id, Optional<LocalDate> fechaDevolucion);
+    // Uno abierto se presta como en realizarPrestamos; uno ya devuelto se guarda como historial
     Prestamo guardarPrestamo(Prestamo prestamo);
     void eliminarPrestamo(Long id);
 }
\ No newline at end of file
@@ -1,12 +1,19 @@
 package services.interfaces;
 import modelo.*;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 public interface UsuarioService {
     Usuario obtenerUsuarioPorDni(Long dni);
+    Optional<Usuario> buscarUsuario(Long dni);
     Usuario obtenerUsuarioPorEmail(String email);
     List<Usuario> obtenerTodosUsuarios();
+    Pagina<Usuario> obtenerPaginaUsuarios(Long despuesDe, int limite);
+    Stream<Usuario> recorrerTodosUsuarios();
     Usuario guardarUsuario(Usuario usuario);
+    Map<Integer, String> guardarUsuarios(List<Usuario> usuarios);
     void eliminarUsuario(Long dni);
     Usuario actualizarUsuario(Long dni, Usuario usuario);
     void bloquearUsuario(Long dni);
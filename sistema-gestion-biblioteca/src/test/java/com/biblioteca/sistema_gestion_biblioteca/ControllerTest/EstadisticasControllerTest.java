@@ -0,0 +1,64 @@
+package com.biblioteca.sistema_gestion_biblioteca.ControllerTest;
+
+import controller.EstadisticasController;
+import modelo.PrestamosDelDia;
+import modelo.PuestoRanking;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import services.interfaces.EstadisticasService;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+public class EstadisticasControllerTest {
+
+    @InjectMocks
+    private EstadisticasController estadisticasController;
+
+    @Mock
+    private EstadisticasService estadisticasService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+    }
+
+    @Test
+    void prestamosPorDia_sinFechas_deberiaPedirLosUltimos30Dias() {
+        LocalDate hoy = LocalDate.now();
+        List<PrestamosDelDia> dias = List.of(new PrestamosDelDia(hoy, 3, 1));
+        when(estadisticasService.prestamosPorDia(hoy.minusDays(29), hoy)).thenReturn(dias);
+
+        ResponseEntity<List<PrestamosDelDia>> respuesta = estadisticasController.prestamosPorDia(null, null);
+
+        assertEquals(HttpStatus.OK, respuesta.getStatusCode());
+        assertEquals(dias, respuesta.getBody());
+    }
+
+    @Test
+    void prestamosPorDia_conRangoInvalido_deberiaRetornarBadRequest() {
+        LocalDate hoy = LocalDate.now();
+
+        assertEquals(HttpStatus.BAD_REQUEST, estadisticasController.prestamosPorDia(hoy, hoy.minusDays(1)).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, estadisticasController.prestamosPorDia(hoy.minusYears(20), hoy).getStatusCode());
+        verifyNoInteractions(estadisticasService);
+    }
+
+    @Test
+    void librosMasPrestados_deberiaDelegarEnElServicio() {
+        List<PuestoRanking> ranking = List.of(new PuestoRanking(1L, "Rayuela", 9));
+        when(estadisticasService.librosMasPrestados(10)).thenReturn(ranking);
+
+        assertEquals(ranking, estadisticasController.librosMasPrestados(10).getBody());
+        assertEquals(HttpStatus.BAD_REQUEST, estadisticasController.librosMasPrestados(0).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, estadisticasController.usuariosConMasPrestamos(-1).getStatusCode());
+    }
+}
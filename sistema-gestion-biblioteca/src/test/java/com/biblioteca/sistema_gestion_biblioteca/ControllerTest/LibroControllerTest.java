@@ -1,22 +1,38 @@
 package com.biblioteca.sistema_gestion_biblioteca.ControllerTest;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import controller.LibroController;
+import estados.EstadoLibro;
+import exceptions.IsbnDuplicadoException;
 import exceptions.LibroNoEncontradoException;
 import modelo.Libro;
+import modelo.Pagina;
+import modelo.ResumenImportacion;
+import modelo.Sugerencia;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import services.interfaces.LibroService;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 public class LibroControllerTest {
@@ -42,7 +58,7 @@ public class LibroControllerTest {
         List<Libro> librosEsperados = Arrays.asList(libro1, libro2);
         when(libroService.obtenerTodos()).thenReturn(librosEsperados);
 
-        ResponseEntity<List<Libro>> respuesta = libroController.obteberTodos();
+        ResponseEntity<List<Libro>> respuesta = libroController.obteberTodos(null);
 
         assertEquals(HttpStatus.OK, respuesta.getStatusCode());
         assertEquals(librosEsperados, respuesta.getBody());
@@ -51,24 +67,24 @@ public class LibroControllerTest {
 
     @Test
     void obtenerPorId_conIdExistente_deberiaRetornarLibroYOk() {
-        when(libroService.buscarPorId(1L)).thenReturn(libro1);
+        when(libroService.buscarLibro(1L)).thenReturn(Optional.of(libro1));
 
-        ResponseEntity<Libro> respuesta = libroController.obtenerPorId(1L);
+        ResponseEntity<Libro> respuesta = libroController.obtenerPorId(1L, null);
 
         assertEquals(HttpStatus.OK, respuesta.getStatusCode());
         assertEquals(libro1, respuesta.getBody());
-        verify(libroService, times(1)).buscarPorId(1L);
+        verify(libroService, times(1)).buscarLibro(1L);
     }
 
     @Test
     void obtenerPorId_conIdNoExistente_deberiaRetornarNotFound() {
-        when(libroService.buscarPorId(3L)).thenThrow(new LibroNoEncontradoException("Libro no encontrado por el ID: 3"));
+        when(libroService.buscarLibro(3L)).thenReturn(Optional.empty());
 
-        ResponseEntity<Libro> respuesta = libroController.obtenerPorId(3L);
+        ResponseEntity<Libro> respuesta = libroController.obtenerPorId(3L, null);
 
         assertEquals(HttpStatus.NOT_FOUND, respuesta.getStatusCode());
         assertNull(respuesta.getBody());
-        verify(libroService, times(1)).buscarPorId(3L);
+        verify(libroService, times(1)).buscarLibro(3L);
     }
 
     @Test
@@ -123,4 +139,187 @@ public class LibroControllerTest {
         assertEquals(HttpStatus.NOT_FOUND, respuesta.getStatusCode());
         verify(libroService, times(1)).eliminar(3L);
     }
+
+    @Test
+    void crear_conIsbnDuplicado_deberiaRetornarConflict() {
+        when(libroService.guardar(libro1)).thenThrow(new IsbnDuplicadoException("Ya existe un libro con ISBN: 978-0321765723"));
+
+        ResponseEntity<Libro> respuesta = libroController.crear(libro1);
+
+        assertEquals(HttpStatus.CONFLICT, respuesta.getStatusCode());
+        assertNull(respuesta.getBody());
+        verify(libroService, times(1)).guardar(libro1);
+    }
+
+    @Test
+    void obtenerPagina_deberiaRetornarPaginaYOk() {
+        Pagina<Libro> pagina = new Pagina<>(List.of(libro1, libro2), 2L);
+        when(libroService.obtenerPagina(null, 2)).thenReturn(pagina);
+
+        ResponseEntity<Pagina<Libro>> respuesta = libroController.obtenerPagina(2, null, null);
+
+        assertEquals(HttpStatus.OK, respuesta.getStatusCode());
+        assertEquals(pagina, respuesta.getBody());
+        verify(libroService, times(1)).obtenerPagina(null, 2);
+    }
+
+    @Test
+    void obtenerPagina_conLimiteInvalido_deberiaRetornarBadRequest() {
+        ResponseEntity<Pagina<Libro>> respuesta = libroController.obtenerPagina(0, null, null);
+
+        assertEquals(HttpStatus.BAD_REQUEST, respuesta.getStatusCode());
+        verifyNoInteractions(libroService);
+    }
+
+    @Test
+    void exportar_deberiaEscribirUnLibroPorLineaEnNdjson() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        LibroController controller = new LibroController(libroService, objectMapper);
+        when(libroService.recorrerTodos()).thenReturn(Stream.of(libro1, libro2));
+
+        ResponseEntity<StreamingResponseBody> respuesta = controller.exportar();
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        respuesta.getBody().writeTo(salida);
+
+        assertEquals(HttpStatus.OK, respuesta.getStatusCode());
+        assertEquals(MediaType.APPLICATION_NDJSON, respuesta.getHeaders().getContentType());
+        String texto = salida.toString(StandardCharsets.UTF_8);
+        String[] lineas = texto.split("\n");
+        assertEquals(2, lineas.length);
+        assertEquals(libro1, objectMapper.readValue(lineas[0], Libro.class));
+        assertEquals(libro2, objectMapper.readValue(lineas[1], Libro.class));
+        assertTrue(texto.endsWith("\n"));
+    }
+
+    @Test
+    void importar_conArregloJson_deberiaGuardarEnLotesYReportarErrores() throws IOException {
+        LibroController controller = new LibroController(libroService, new ObjectMapper());
+        String cuerpo = "[{\"isbn\":\"1\",\"titulo\":\"A\"},{\"isbn\":\"2\",\"titulo\":\"B\"},{\"isbn\":\"1\",\"titulo\":\"C\"}]";
+        when(libroService.guardarTodos(anyList())).thenReturn(Map.of(2, "Ya existe un libro con ISBN: 1"));
+
+        ResponseEntity<ResumenImportacion> respuesta = controller.importar(
+                new ByteArrayInputStream(cuerpo.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(HttpStatus.OK, respuesta.getStatusCode());
+        assertEquals(2, respuesta.getBody().getImportados());
+        assertEquals(1, respuesta.getBody().getErrores().size());
+        assertEquals(2, respuesta.getBody().getErrores().get(0).getPosicion());
+        verify(libroService, times(1)).guardarTodos(anyList());
+    }
+
+    @Test
+    void importar_conNdjsonInvalido_deberiaGuardarLoLeidoYReportarLaPosicion() throws IOException {
+        LibroController controller = new LibroController(libroService, new ObjectMapper());
+        String cuerpo = "{\"isbn\":\"1\",\"titulo\":\"A\"}\n{\"isbn\":\"2\",\"titulo\":\"B\"}\n{\"isbn\": roto\n";
+        when(libroService.guardarTodos(anyList())).thenReturn(Map.of());
+
+        ResponseEntity<ResumenImportacion> respuesta = controller.importar(
+                new ByteArrayInputStream(cuerpo.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(2, respuesta.getBody().getImportados());
+        assertEquals(1, respuesta.getBody().getErrores().size());
+        assertEquals(2, respuesta.getBody().getErrores().get(0).getPosicion());
+    }
+
+    @Test
+    void importar_conValorInvalidoEnElMedio_deberiaRechazarSoloEseRegistroYSeguir() throws IOException {
+        LibroController controller = new LibroController(libroService, new ObjectMapper());
+        String cuerpo = "{\"isbn\":\"1\",\"titulo\":\"A\"}\n"
+                + "{\"isbn\":\"2\",\"titulo\":\"B\",\"estadoLibro\":\"PERDIDO\"}\n"
+                + "{\"id\":\"abc\",\"isbn\":\"3\",\"titulo\":\"C\"}\n"
+                + "{\"isbn\":\"4\",\"titulo\":\"D\"}\n"
+                + "{\"isbn\":\"1\",\"titulo\":\"E\"}\n";
+        // El lote llega sin los dos rechazados: su indice 2 es el quinto registro de la entrada
+        when(libroService.guardarTodos(anyList())).thenAnswer(invocacion -> {
+            List<Libro> lote = invocacion.getArgument(0);
+            assertEquals(List.of("1", "4", "1"), lote.stream().map(Libro::getIsbn).toList());
+            return Map.of(2, "Ya existe un libro con ISBN: 1");
+        });
+
+        ResponseEntity<ResumenImportacion> respuesta = controller.importar(
+                new ByteArrayInputStream(cuerpo.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(2, respuesta.getBody().getImportados());
+        assertEquals(List.of(1, 2, 4), respuesta.getBody().getErrores().stream().map(e -> e.getPosicion()).sorted().toList());
+        verify(libroService, times(1)).guardarTodos(anyList());
+    }
+
+    @Test
+    void obtenerPorId_conEtagVigente_deberiaRetornarNotModifiedSinBuscar() {
+        when(libroService.versionLibro(1L)).thenReturn(7L);
+        when(libroService.buscarLibro(1L)).thenReturn(Optional.of(libro1));
+
+        ResponseEntity<Libro> primera = libroController.obtenerPorId(1L, null);
+        ResponseEntity<Libro> repetida = libroController.obtenerPorId(1L, primera.getHeaders().getETag());
+        ResponseEntity<Libro> vieja = libroController.obtenerPorId(1L,
+                "W/" + primera.getHeaders().getETag().replace("-7\"", "-6\"") + ", \"7\"");
+
+        assertTrue(primera.getHeaders().getETag().matches("\"[0-9a-z]+-7\""));
+        assertEquals(HttpStatus.NOT_MODIFIED, repetida.getStatusCode());
+        assertNull(repetida.getBody());
+        assertEquals(HttpStatus.OK, vieja.getStatusCode());
+        verify(libroService, times(2)).buscarLibro(1L);
+    }
+
+    @Test
+    void obteberTodos_conEtagVigente_noSerializaLaLista() {
+        when(libroService.versionCatalogo()).thenReturn(42L);
+        String etag = libroController.obteberTodos(null).getHeaders().getETag();
+        clearInvocations(libroService);
+
+        ResponseEntity<List<Libro>> respuesta = libroController.obteberTodos("\"41\", W/" + etag);
+
+        assertEquals(HttpStatus.NOT_MODIFIED, respuesta.getStatusCode());
+        assertEquals(etag, respuesta.getHeaders().getETag());
+        verify(libroService, never()).obtenerTodos();
+    }
+
+    @Test
+    void obtenerPorId_libroSinVersion_noCoincideNiConComodin() {
+        when(libroService.buscarLibro(3L)).thenReturn(Optional.empty());
+
+        ResponseEntity<Libro> respuesta = libroController.obtenerPorId(3L, "*");
+
+        assertEquals(HttpStatus.NOT_FOUND, respuesta.getStatusCode());
+    }
+
+    @Test
+    void buscar_deberiaDelegarEnElServicio() {
+        when(libroService.buscarPorTexto("tolkien", 20)).thenReturn(List.of(libro1));
+
+        ResponseEntity<List<Libro>> respuesta = libroController.buscar("tolkien", 20, null);
+
+        assertEquals(HttpStatus.OK, respuesta.getStatusCode());
+        assertEquals(List.of(libro1), respuesta.getBody());
+        assertEquals(HttpStatus.BAD_REQUEST, libroController.buscar("tolkien", 0, null).getStatusCode());
+    }
+
+    @Test
+    void sugerir_deberiaDelegarEnElServicio() {
+        List<Sugerencia> sugerencias = List.of(new Sugerencia("Tolkien", 7));
+        when(libroService.sugerir("tolkein", 10)).thenReturn(sugerencias);
+
+        ResponseEntity<List<Sugerencia>> respuesta = libroController.sugerir("tolkein", 10);
+
+        assertEquals(HttpStatus.OK, respuesta.getStatusCode());
+        assertEquals(sugerencias, respuesta.getBody());
+        assertEquals(HttpStatus.BAD_REQUEST, libroController.sugerir("tolkein", 0).getStatusCode());
+    }
+
+    @Test
+    void obtenerPaginaPorEstado_yContar_deberianDelegarEnElServicio() {
+        Pagina<Libro> pagina = new Pagina<>(List.of(libro2), null);
+        when(libroService.obtenerPaginaPorEstado(EstadoLibro.EN_REPARACION, 1L, 50)).thenReturn(pagina);
+        when(libroService.contarPorEstado()).thenReturn(Map.of(EstadoLibro.EN_REPARACION, 1L));
+        when(libroService.buscarPorTexto("gatsby", EstadoLibro.EN_REPARACION, 20)).thenReturn(List.of(libro2));
+
+        ResponseEntity<Pagina<Libro>> respuesta = libroController.obtenerPaginaPorEstado(EstadoLibro.EN_REPARACION, 50, 1L, null);
+
+        assertEquals(HttpStatus.OK, respuesta.getStatusCode());
+        assertEquals(pagina, respuesta.getBody());
+        assertEquals(Map.of(EstadoLibro.EN_REPARACION, 1L), libroController.contarPorEstado().getBody());
+        assertEquals(List.of(libro2), libroController.buscar("gatsby", 20, EstadoLibro.EN_REPARACION).getBody());
+        assertEquals(HttpStatus.BAD_REQUEST,
+                libroController.obtenerPaginaPorEstado(EstadoLibro.DISPONIBLE, 0, null, null).getStatusCode());
+    }
 }
\ No newline at end of file
@@ -1,11 +1,17 @@
 package com.biblioteca.sistema_gestion_biblioteca.ControllerTest;
 
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
 import controller.PrestamoController;
 import exceptions.LibroNoEncontradoException;
 import exceptions.PrestamoNoEncontradoExcepcion;
+import exceptions.PrestamoNoPermitidoExcepcion;
 import modelo.Libro;
+import modelo.Pagina;
+import modelo.PedidoPrestamos;
 import modelo.Prestamo;
+import modelo.PrestamoResumen;
 import modelo.Usuario;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -14,12 +20,17 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import services.interfaces.PrestamoService;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -54,72 +65,89 @@ public class PrestamoControllerTest {
         List<Prestamo> prestamosEsperados = Arrays.asList(prestamo1, prestamo2);
         when(prestamoService.obtenerTodosPrestamos()).thenReturn(prestamosEsperados);
 
-        ResponseEntity<List<Prestamo>> respuesta = prestamoController.obtenerTodos();
+        ResponseEntity<List<PrestamoResumen>> respuesta = prestamoController.obtenerTodos();
 
         assertEquals(HttpStatus.OK, respuesta.getStatusCode());
-        assertEquals(prestamosEsperados, respuesta.getBody());
+        assertEquals(List.of(PrestamoResumen.de(prestamo1), PrestamoResumen.de(prestamo2)), respuesta.getBody());
         verify(prestamoService, times(1)).obtenerTodosPrestamos();
     }
 
     @Test
     void obtenerPorId_conIdExistente_deberiaRetornarPrestamoYOk() {
-        when(prestamoService.obtenerPrestamoPorId(101L)).thenReturn(prestamo1);
+        when(prestamoService.buscarPrestamo(101L)).thenReturn(Optional.of(prestamo1));
 
-        ResponseEntity<Prestamo> respuesta = prestamoController.obtenerPorId(101L);
+        ResponseEntity<PrestamoResumen> respuesta = prestamoController.obtenerPorId(101L, false);
 
         assertEquals(HttpStatus.OK, respuesta.getStatusCode());
-        assertEquals(prestamo1, respuesta.getBody());
-        verify(prestamoService, times(1)).obtenerPrestamoPorId(101L);
+        assertEquals(PrestamoResumen.de(prestamo1), respuesta.getBody());
+        assertNull(respuesta.getBody().libro());
+        verify(prestamoService, times(1)).buscarPrestamo(101L);
     }
 
     @Test
     void obtenerPorId_conIdNoExistente_deberiaRetornarNotFound() {
-        when(prestamoService.obtenerPrestamoPorId(999L)).thenThrow(new PrestamoNoEncontradoExcepcion("Prestamo no encontrado con ID: 999"));
+        when(prestamoService.buscarPrestamo(999L)).thenReturn(Optional.empty());
 
-        ResponseEntity<Prestamo> respuesta = prestamoController.obtenerPorId(999L);
+        ResponseEntity<PrestamoResumen> respuesta = prestamoController.obtenerPorId(999L, false);
 
         assertEquals(HttpStatus.NOT_FOUND, respuesta.getStatusCode());
         assertNull(respuesta.getBody());
-        verify(prestamoService, times(1)).obtenerPrestamoPorId(999L);
+        verify(prestamoService, times(1)).buscarPrestamo(999L);
     }
 
     @Test
     void crear_deberiaGuardarPrestamoYRetornarCreatedConNuevoPrestamo() {
         when(prestamoService.guardarPrestamo(prestamo1)).thenReturn(prestamo1);
 
-        ResponseEntity<Prestamo> respuesta = prestamoController.crear(prestamo1);
+        ResponseEntity<PrestamoResumen> respuesta = prestamoController.crear(prestamo1);
 
         assertEquals(HttpStatus.CREATED, respuesta.getStatusCode());
-        assertEquals(prestamo1, respuesta.getBody());
+        assertEquals(PrestamoResumen.de(prestamo1), respuesta.getBody());
         verify(prestamoService, times(1)).guardarPrestamo(prestamo1);
     }
 
+    @Test
+    void crear_prestamoNoPermitido_deberiaRetornarConflict() {
+        when(prestamoService.guardarPrestamo(prestamo1)).thenThrow(new PrestamoNoPermitidoExcepcion("El usuario 11111111 esta bloqueado"));
+
+        assertEquals(HttpStatus.CONFLICT, prestamoController.crear(prestamo1).getStatusCode());
+    }
+
     @Test
     void actualizar_conIdExistente_deberiaActualizarFechaDevolucionYRetornarOkConPrestamoActualizado() {
         Prestamo prestamoActualizado = new Prestamo(101L, libro1, usuario1, LocalDate.now(), Optional.of(LocalDate.now().plusDays(7)));
-        when(prestamoService.obtenerPrestamoPorId(101L)).thenReturn(prestamo1);
-        when(prestamoService.guardarPrestamo(any(Prestamo.class))).thenReturn(prestamoActualizado);
+        when(prestamoService.cambiarFechaDevolucion(101L, prestamoActualizado.getFechaDevolucion())).thenReturn(prestamoActualizado);
 
-        ResponseEntity<Prestamo> respuesta = prestamoController.actualizar(101L, prestamoActualizado);
+        ResponseEntity<PrestamoResumen> respuesta = prestamoController.actualizar(101L, prestamoActualizado);
 
         assertEquals(HttpStatus.OK, respuesta.getStatusCode());
-        assertEquals(prestamoActualizado, respuesta.getBody());
-        verify(prestamoService, times(1)).obtenerPrestamoPorId(101L);
-        verify(prestamoService, times(1)).guardarPrestamo(any(Prestamo.class));
+        assertEquals(PrestamoResumen.de(prestamoActualizado), respuesta.getBody());
+        verify(prestamoService, times(1)).cambiarFechaDevolucion(101L, prestamoActualizado.getFechaDevolucion());
+        verify(prestamoService, never()).guardarPrestamo(any(Prestamo.class));
     }
 
     @Test
     void actualizar_conIdNoExistente_deberiaRetornarNotFound() {
-        when(prestamoService.obtenerPrestamoPorId(999L)).thenThrow(new PrestamoNoEncontradoExcepcion("Préstamo no encontrado con ID: 999"));
+        when(prestamoService.cambiarFechaDevolucion(999L, Optional.empty()))
+                .thenThrow(new PrestamoNoEncontradoExcepcion("No se encontró el préstamo con ID: 999"));
 
-        ResponseEntity<Prestamo> respuesta = prestamoController.actualizar(999L, new Prestamo());
+        ResponseEntity<PrestamoResumen> respuesta = prestamoController.actualizar(999L, new Prestamo());
 
         assertEquals(HttpStatus.NOT_FOUND, respuesta.getStatusCode());
         assertNull(respuesta.getBody());
-        verify(prestamoService, times(1)).obtenerPrestamoPorId(999L);
         verify(prestamoService, never()).guardarPrestamo(any(Prestamo.class));
     }
 
+    @Test
+    void actualizar_reabrirConElLibroPrestado_deberiaRetornarConflict() {
+        when(prestamoService.cambiarFechaDevolucion(102L, Optional.empty()))
+                .thenThrow(new PrestamoNoPermitidoExcepcion("El libro Título Libro 2 no esta disponible"));
+
+        ResponseEntity<PrestamoResumen> respuesta = prestamoController.actualizar(102L, new Prestamo());
+
+        assertEquals(HttpStatus.CONFLICT, respuesta.getStatusCode());
+    }
+
     @Test
     void eliminar_conIdExistente_deberiaEliminarPrestamoYRetornarNoContent() {
         doNothing().when(prestamoService).eliminarPrestamo(101L);
@@ -159,4 +187,88 @@ public class PrestamoControllerTest {
         assertEquals(HttpStatus.NOT_FOUND, respuesta.getStatusCode());
         verify(prestamoService, times(1)).marcarComoDevuelto(999L);
     }
+
+    @Test
+    void marcarComoDevuelto_yaDevuelto_deberiaRetornarConflict() {
+        doThrow(new PrestamoNoPermitidoExcepcion("El préstamo con ID 102 ya fue devuelto")).when(prestamoService).marcarComoDevuelto(102L);
+
+        ResponseEntity<Void> respuesta = prestamoController.marcarComoDevuelto(102L);
+
+        assertEquals(HttpStatus.CONFLICT, respuesta.getStatusCode());
+    }
+
+    @Test
+    void exportar_deberiaEscribirLosPrestamosConSusFechas() throws IOException {
+        ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build(); // LocalDate y Optional, como en Spring Boot
+        PrestamoController controller = new PrestamoController(prestamoService, objectMapper);
+        when(prestamoService.recorrerTodosPrestamos()).thenReturn(Stream.of(prestamo1, prestamo2));
+
+        ResponseEntity<StreamingResponseBody> respuesta = controller.exportar();
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        respuesta.getBody().writeTo(salida);
+
+        String[] lineas = salida.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lineas.length);
+        assertEquals(101L, objectMapper.readTree(lineas[0]).get("id").asLong());
+        assertEquals(102L, objectMapper.readTree(lineas[1]).get("id").asLong());
+        assertEquals(2L, objectMapper.readTree(lineas[1]).get("libroId").asLong());
+        assertNull(objectMapper.readTree(lineas[0]).get("fechaDevolucion"), "Sin devolucion el campo no se escribe");
+        assertNull(objectMapper.readTree(lineas[1]).get("libroPrestado"));
+    }
+
+    @Test
+    void obtenerPorId_conExpandir_deberiaResolverLibroYUsuario() {
+        when(prestamoService.buscarPrestamo(101L)).thenReturn(Optional.of(prestamo1));
+        when(prestamoService.libroDe(prestamo1)).thenReturn(Optional.of(libro1));
+        when(prestamoService.usuarioDe(prestamo1)).thenReturn(Optional.of(usuario1));
+
+        ResponseEntity<PrestamoResumen> respuesta = prestamoController.obtenerPorId(101L, true);
+
+        assertEquals(HttpStatus.OK, respuesta.getStatusCode());
+        assertEquals(libro1, respuesta.getBody().libro());
+        assertEquals(usuario1, respuesta.getBody().usuario());
+        assertEquals(1L, respuesta.getBody().libroId());
+    }
+
+    @Test
+    void obtenerVencidos_usaLaFechaYAcotaElLimite() {
+        prestamo1.setFechaVencimiento(LocalDate.of(2024, 1, 10));
+        when(prestamoService.obtenerPrestamosVencidos(LocalDate.of(2024, 2, 1), Pagina.LIMITE_MAXIMO)).thenReturn(List.of(prestamo1));
+
+        ResponseEntity<List<PrestamoResumen>> respuesta = prestamoController.obtenerVencidos(50_000, LocalDate.of(2024, 2, 1));
+
+        assertEquals(HttpStatus.OK, respuesta.getStatusCode());
+        assertEquals(LocalDate.of(2024, 1, 10), respuesta.getBody().get(0).fechaVencimiento());
+        assertEquals(HttpStatus.BAD_REQUEST, prestamoController.obtenerVencidos(0, null).getStatusCode());
+    }
+
+    @Test
+    void crearLote_deberiaResponderSegunElResultadoDelCanasto() {
+        when(prestamoService.realizarPrestamos(1L, List.of(1L, 2L))).thenReturn(List.of(prestamo1, prestamo2));
+        when(prestamoService.realizarPrestamos(1L, List.of(3L)))
+                .thenThrow(new PrestamoNoPermitidoExcepcion("El libro no esta disponible"));
+        when(prestamoService.realizarPrestamos(1L, List.of(4L))).thenThrow(new LibroNoEncontradoException("No existe", false));
+
+        ResponseEntity<List<PrestamoResumen>> respuesta = prestamoController.crearLote(new PedidoPrestamos(1L, List.of(1L, 2L)));
+
+        assertEquals(HttpStatus.CREATED, respuesta.getStatusCode());
+        assertEquals(List.of(PrestamoResumen.de(prestamo1), PrestamoResumen.de(prestamo2)), respuesta.getBody());
+        assertEquals(HttpStatus.CONFLICT, prestamoController.crearLote(new PedidoPrestamos(1L, List.of(3L))).getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, prestamoController.crearLote(new PedidoPrestamos(1L, List.of(4L))).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, prestamoController.crearLote(new PedidoPrestamos(1L, List.of())).getStatusCode());
+    }
+
+    @Test
+    void devolverLote_deberiaDevolverTodosONotFound() {
+        when(prestamoService.devolverPrestamos(List.of(101L, 102L))).thenReturn(List.of(prestamo1, prestamo2));
+        when(prestamoService.devolverPrestamos(List.of(999L)))
+                .thenThrow(new PrestamoNoEncontradoExcepcion("No se encontró el préstamo con ID: 999", false));
+        when(prestamoService.devolverPrestamos(List.of(102L)))
+                .thenThrow(new PrestamoNoPermitidoExcepcion("El préstamo con ID 102 ya fue devuelto"));
+
+        assertEquals(HttpStatus.OK, prestamoController.devolverLote(List.of(101L, 102L)).getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, prestamoController.devolverLote(List.of(999L)).getStatusCode());
+        assertEquals(HttpStatus.CONFLICT, prestamoController.devolverLote(List.of(102L)).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, prestamoController.devolverLote(List.of()).getStatusCode());
+    }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.biblioteca.sistema_gestion_biblioteca.ControllerTest;
 
 import controller.UsuarioController;
+import exceptions.EmailDuplicadoExcepcion;
 import exceptions.UsuarioNoEncontradoExcepcion;
 import modelo.Usuario;
 import estados.EstadoUsuario;
@@ -15,6 +16,7 @@ import services.interfaces.UsuarioService;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -52,24 +54,24 @@ public class UsuarioControllerTest {
 
     @Test
     void obtenerUsuarioPorDni_conDniExistente_deberiaRetornarUsuarioYOk() {
-        when(usuarioService.obtenerUsuarioPorDni(12345678L)).thenReturn(usuario1);
+        when(usuarioService.buscarUsuario(12345678L)).thenReturn(Optional.of(usuario1));
 
         ResponseEntity<Usuario> respuesta = usuarioController.obtenerUsuarioPorDni(12345678L);
 
         assertEquals(HttpStatus.OK, respuesta.getStatusCode());
         assertEquals(usuario1, respuesta.getBody());
-        verify(usuarioService, times(1)).obtenerUsuarioPorDni(12345678L);
+        verify(usuarioService, times(1)).buscarUsuario(12345678L);
     }
 
     @Test
     void obtenerUsuarioPorDni_conDniNoExistente_deberiaRetornarNotFound() {
-        when(usuarioService.obtenerUsuarioPorDni(99999999L)).thenThrow(new UsuarioNoEncontradoExcepcion("Usuario no encontrado por el dni: 99999999"));
+        when(usuarioService.buscarUsuario(99999999L)).thenReturn(Optional.empty());
 
         ResponseEntity<Usuario> respuesta = usuarioController.obtenerUsuarioPorDni(99999999L);
 
         assertEquals(HttpStatus.NOT_FOUND, respuesta.getStatusCode());
         assertNull(respuesta.getBody());
-        verify(usuarioService, times(1)).obtenerUsuarioPorDni(99999999L);
+        verify(usuarioService, times(1)).buscarUsuario(99999999L);
     }
 
     @Test
@@ -165,4 +167,15 @@ public class UsuarioControllerTest {
         assertEquals(HttpStatus.NOT_FOUND, respuesta.getStatusCode());
         verify(usuarioService, times(1)).activarUsuario(99999999L);
     }
+
+    @Test
+    void crear_conEmailDuplicado_deberiaRetornarConflict() {
+        when(usuarioService.guardarUsuario(usuario1)).thenThrow(new EmailDuplicadoExcepcion("Ya existe un usuario con el email: juan.perez@example.com"));
+
+        ResponseEntity<Usuario> respuesta = usuarioController.crear(usuario1);
+
+        assertEquals(HttpStatus.CONFLICT, respuesta.getStatusCode());
+        assertNull(respuesta.getBody());
+        verify(usuarioService, times(1)).guardarUsuario(usuario1);
+    }
 }
\ No newline at end of file
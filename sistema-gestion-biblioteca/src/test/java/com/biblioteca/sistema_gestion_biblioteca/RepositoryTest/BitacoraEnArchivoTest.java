@@ -0,0 +1,292 @@
+package com.biblioteca.sistema_gestion_biblioteca.RepositoryTest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import estados.*;
+import exceptions.IsbnDuplicadoException;
+import modelo.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import repository.impl.LibroRepositoryImpl;
+import repository.impl.PrestamoRepositoryImpl;
+import repository.impl.UsuarioRepositoryImpl;
+import repository.persistencia.BitacoraEnArchivo;
+import repository.persistencia.ModoFsync;
+import repository.persistencia.PersistenciaConfig;
+import repository.persistencia.TipoEntidad;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BitacoraEnArchivoTest {
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void reproducirRestauraLosRepositorios() throws IOException {
+        // Arrange
+        try (BitacoraEnArchivo bitacora = new BitacoraEnArchivo(directorio, ModoFsync.GRUPO, 200, objectMapper)) {
+            LibroRepositoryImpl libros = new LibroRepositoryImpl(bitacora);
+            UsuarioRepositoryImpl usuarios = new UsuarioRepositoryImpl(bitacora);
+            PrestamoRepositoryImpl prestamos = new PrestamoRepositoryImpl(bitacora);
+            Libro libro = libros.save(new Libro(null, "978-1", "Rayuela", "Cortazar", EstadoLibro.PRESTADO));
+            libros.save(new Libro(null, "978-2", "Ficciones", "Borges", EstadoLibro.DISPONIBLE));
+            libros.deleteById(2L);
+            Usuario usuario = usuarios.save(new Usuario(null, "Ana", "ana@mail.com", EstadoUsuario.ACTIVO));
+            prestamos.save(new Prestamo(null, libro, usuario, LocalDate.of(2024, 5, 1), Optional.empty()));
+        }
+
+        // Act
+        LibroRepositoryImpl libros = new LibroRepositoryImpl();
+        UsuarioRepositoryImpl usuarios = new UsuarioRepositoryImpl();
+        PrestamoRepositoryImpl prestamos = new PrestamoRepositoryImpl();
+        try (BitacoraEnArchivo bitacora = new BitacoraEnArchivo(directorio, ModoFsync.GRUPO, 200, objectMapper)) {
+            bitacora.reproducir(new PersistenciaConfig.AplicadorRepositorios(libros, usuarios, prestamos));
+        }
+
+        // Assert
+        assertEquals(1, libros.findAll().size());
+        assertEquals("Rayuela", libros.findByIsbn("978-1").orElseThrow().getTitulo());
+        assertTrue(libros.findById(2L).isEmpty());
+        assertEquals(3L, libros.save(new Libro(null, "978-3", "Otro", "Autor", EstadoLibro.DISPONIBLE)).getId(),
+                "Los ids ya usados no deben volver a asignarse");
+        assertTrue(usuarios.findByEmail("ana@mail.com").isPresent());
+        List<Prestamo> delUsuario = prestamos.findByUsuarioDni(1L);
+        assertEquals(1, delUsuario.size());
+        assertEquals(1L, delUsuario.get(0).getLibroId());
+        assertEquals(Optional.empty(), delUsuario.get(0).getFechaDevolucion());
+    }
+
+    @Test
+    void registroCortadoAlFinalSeDescarta() throws IOException {
+        // Arrange
+        try (BitacoraEnArchivo bitacora = new BitacoraEnArchivo(directorio, ModoFsync.SINCRONICO, 200, objectMapper)) {
+            LibroRepositoryImpl libros = new LibroRepositoryImpl(bitacora);
+            libros.save(new Libro(null, "978-1", "Rayuela", "Cortazar", EstadoLibro.DISPONIBLE));
+            libros.save(new Libro(null, "978-2", "Ficciones", "Borges", EstadoLibro.DISPONIBLE));
+        }
+        // Simula una caida a mitad de la escritura del segundo registro
+        try (FileChannel canal = FileChannel.open(directorio.resolve("bitacora-000001.wal"), StandardOpenOption.WRITE)) {
+            canal.truncate(canal.size() - 5);
+        }
+
+        // Act
+        LibroRepositoryImpl libros = new LibroRepositoryImpl();
+        try (BitacoraEnArchivo bitacora = new BitacoraEnArchivo(directorio, ModoFsync.SINCRONICO, 200, objectMapper)) {
+            bitacora.reproducir(new PersistenciaConfig.AplicadorRepositorios(libros, new UsuarioRepositoryImpl(), new PrestamoRepositoryImpl()));
+            // lo que se escriba despues tiene que quedar a continuacion del ultimo registro valido
+            new LibroRepositoryImpl(bitacora).save(new Libro(3L, "978-3", "Otro", "Autor", EstadoLibro.DISPONIBLE));
+        }
+        LibroRepositoryImpl reabierto = new LibroRepositoryImpl();
+        try (BitacoraEnArchivo bitacora = new BitacoraEnArchivo(directorio, ModoFsync.SINCRONICO, 200, objectMapper)) {
+            bitacora.reproducir(new PersistenciaConfig.AplicadorRepositorios(reabierto, new UsuarioRepositoryImpl(), new PrestamoRepositoryImpl()));
+        }
+
+        // Assert
+        assertEquals(1, libros.findAll().size());
+        assertTrue(libros.findByIsbn("978-1").isPresent());
+        assertEquals(2, reabierto.findAll().size());
+        assertTrue(reabierto.findByIsbn("978-3").isPresent());
+    }
+
+    @Test
+    void escriturasConcurrentesEnModoGrupoQuedanTodasEnDisco() throws Exception {
+        // Arrange
+        int hilos = 8;
+        int porHilo = 200;
+
+        // Act
+        try (BitacoraEnArchivo bitacora = new BitacoraEnArchivo(directorio, ModoFsync.GRUPO, 200, objectMapper)) {
+            LibroRepositoryImpl libros = new LibroRepositoryImpl(bitacora);
+            ExecutorService executor = Executors.newFixedThreadPool(hilos);
+            for (int h = 0; h < hilos; h++) {
+                int hilo = h;
+                executor.submit(() -> {
+                    for (int i = 0; i < porHilo; i++) {
+                        libros.save(new Libro(null, hilo + "-" + i, "Titulo", "Autor", EstadoLibro.DISPONIBLE));
+                    }
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+        LibroRepositoryImpl reabierto = new LibroRepositoryImpl();
+        try (BitacoraEnArchivo bitacora = new BitacoraEnArchivo(directorio, ModoFsync.GRUPO, 200, objectMapper)) {
+            bitacora.reproducir(new PersistenciaConfig.AplicadorRepositorios(reabierto, new UsuarioRepositoryImpl(), new PrestamoRepositoryImpl()));
+        }
+
+        // Assert
+        assertEquals(hilos * porHilo, reabierto.findAll().size());
+        assertTrue(Files.size(directorio.resolve("bitacora-000001.wal")) > 0);
+    }
+
+    @Test
+    void compactarEscribeSnapshotYDescartaLaBitacoraAnterior() throws IOException {
+        // Arrange
+        try (BitacoraEnArchivo bitacora = new BitacoraEnArchivo(directorio, ModoFsync.GRUPO, 200, objectMapper)) {
+            LibroRepositoryImpl libros = new LibroRepositoryImpl(bitacora);
+            UsuarioRepositoryImpl usuarios = new UsuarioRepositoryImpl(bitacora);
+            PrestamoRepositoryImpl prestamos = new PrestamoRepositoryImpl(bitacora);
+            Libro libro = libros.save(new Libro(null, "978-1", "Rayuela", "Cortazar", EstadoLibro.PRESTADO));
+            libros.save(new Libro(null, "978-2", "Ficciones", "Borges", EstadoLibro.DISPONIBLE));
+            Usuario usuario = usuarios.save(new Usuario(null, "Ana", "ana@mail.com", EstadoUsuario.ACTIVO));
+            Prestamo guardado = new Prestamo(null, libro, usuario, LocalDate.of(2024, 5, 1), Optional.of(LocalDate.of(2024, 5, 9)));
+            guardado.setFechaVencimiento(LocalDate.of(2024, 5, 15));
+            prestamos.save(guardado);
+
+            // Act
+            bitacora.compactar(tipo -> switch (tipo) {
+                case LIBRO -> libros.streamAll();
+                case USUARIO -> usuarios.streamAll();
+                case PRESTAMO -> prestamos.streamAll();
+            });
+            libros.deleteById(2L);
+            libros.save(new Libro(null, "978-3", "Otro", "Autor", EstadoLibro.DISPONIBLE));
+        }
+        LibroRepositoryImpl libros = new LibroRepositoryImpl();
+        UsuarioRepositoryImpl usuarios = new UsuarioRepositoryImpl();
+        PrestamoRepositoryImpl prestamos = new PrestamoRepositoryImpl();
+        try (BitacoraEnArchivo bitacora = new BitacoraEnArchivo(directorio, ModoFsync.GRUPO, 200, objectMapper)) {
+            bitacora.reproducir(new PersistenciaConfig.AplicadorRepositorios(libros, usuarios, prestamos));
+        }
+
+        // Assert
+        assertFalse(Files.exists(directorio.resolve("bitacora-000001.wal")));
+        assertTrue(Files.exists(directorio.resolve("snapshot-000002.snap")));
+        assertTrue(Files.exists(directorio.resolve("bitacora-000002.wal")));
+        assertEquals(List.of("978-1", "978-3"), libros.findAll().stream().map(Libro::getIsbn).sorted().toList());
+        Prestamo prestamo = prestamos.findById(1L).orElseThrow();
+        assertEquals(1L, prestamo.getLibroId());
+        assertEquals(1L, prestamo.getUsuarioDni());
+        assertEquals(Optional.of(LocalDate.of(2024, 5, 9)), prestamo.getFechaDevolucion());
+        assertEquals(LocalDate.of(2024, 5, 15), prestamo.getFechaVencimiento());
+    }
+
+    @Test
+    void reproducirConClavesUnicasQueCambiaronDeDuenioDespuesDelCorte() throws IOException {
+        // Arrange: las escrituras caen despues del corte de compactar y el snapshot ya las ve,
+        // asi que la cola de la bitacora vuelve a aplicar ISBN e email viejos sobre el estado final
+        try (BitacoraEnArchivo bitacora = new BitacoraEnArchivo(directorio, ModoFsync.GRUPO, 200, objectMapper)) {
+            LibroRepositoryImpl libros = new LibroRepositoryImpl(bitacora);
+            UsuarioRepositoryImpl usuarios = new UsuarioRepositoryImpl(bitacora);
+            bitacora.compactar(tipo -> {
+                if (tipo == TipoEntidad.LIBRO) {
+                    Libro a = libros.save(new Libro(null, "X", "A", "Autor", EstadoLibro.DISPONIBLE));
+                    libros.save(new Libro(a.getId(), "Y", "A", "Autor", EstadoLibro.DISPONIBLE));
+                    libros.save(new Libro(null, "X", "B", "Autor", EstadoLibro.DISPONIBLE));
+                    Usuario ana = usuarios.save(new Usuario(null, "Ana", "x@mail.com", EstadoUsuario.ACTIVO));
+                    usuarios.save(new Usuario(ana.getDni(), "Ana", "y@mail.com", EstadoUsuario.ACTIVO));
+                    usuarios.save(new Usuario(null, "Beto", "x@mail.com", EstadoUsuario.ACTIVO));
+                    return libros.streamAll();
+                }
+                return tipo == TipoEntidad.USUARIO ? usuarios.streamAll() : Stream.empty();
+            });
+        }
+
+        // Act
+        LibroRepositoryImpl libros = new LibroRepositoryImpl();
+        UsuarioRepositoryImpl usuarios = new UsuarioRepositoryImpl();
+        try (BitacoraEnArchivo bitacora = new BitacoraEnArchivo(directorio, ModoFsync.GRUPO, 200, objectMapper)) {
+            bitacora.reproducir(new PersistenciaConfig.AplicadorRepositorios(libros, usuarios, new PrestamoRepositoryImpl()));
+        }
+
+        // Assert
+        assertTrue(Files.exists(directorio.resolve("snapshot-000002.snap")));
+        assertEquals(1L, libros.findByIsbn("Y").orElseThrow().getId());
+        assertEquals(2L, libros.findByIsbn("X").orElseThrow().getId());
+        assertEquals(1L, usuarios.findByEmail("y@mail.com").orElseThrow().getDni());
+        assertEquals(2L, usuarios.findByEmail("x@mail.com").orElseThrow().getDni());
+        // Las claves que quedaron libres o tomadas se siguen respetando despues de arrancar
+        assertThrows(IsbnDuplicadoException.class,
+                () -> libros.save(new Libro(null, "X", "C", "Autor", EstadoLibro.DISPONIBLE)));
+        libros.save(new Libro(1L, "Z", "A", "Autor", EstadoLibro.DISPONIBLE));
+        assertTrue(libros.findByIsbn("Y").isEmpty());
+    }
+
+    @Test
+    void compactarMientrasOtrosEscribenNoPierdeOperaciones() throws Exception {
+        // Arrange
+        int hilos = 4;
+        int porHilo = 2_000;
+        try (BitacoraEnArchivo bitacora = new BitacoraEnArchivo(directorio, ModoFsync.ASINCRONICO, 5, objectMapper)) {
+            LibroRepositoryImpl libros = new LibroRepositoryImpl(bitacora);
+            ExecutorService executor = Executors.newFixedThreadPool(hilos);
+            for (int h = 0; h < hilos; h++) {
+                int hilo = h;
+                executor.submit(() -> {
+                    for (int i = 0; i < porHilo; i++) {
+                        Libro libro = libros.save(new Libro(null, hilo + "-" + i, "Titulo", "Autor", EstadoLibro.DISPONIBLE));
+                        if (i % 2 == 0) {
+                            libros.deleteById(libro.getId());
+                        }
+                    }
+                });
+            }
+
+            // Act
+            for (int i = 0; i < 5; i++) {
+                bitacora.compactar(tipo -> tipo == TipoEntidad.LIBRO ? libros.streamAll() : Stream.empty());
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+        LibroRepositoryImpl reabierto = new LibroRepositoryImpl();
+        try (BitacoraEnArchivo bitacora = new BitacoraEnArchivo(directorio, ModoFsync.ASINCRONICO, 5, objectMapper)) {
+            bitacora.reproducir(new PersistenciaConfig.AplicadorRepositorios(reabierto, new UsuarioRepositoryImpl(), new PrestamoRepositoryImpl()));
+        }
+
+        // Assert
+        assertEquals(hilos * porHilo / 2, reabierto.findAll().size());
+    }
+
+    @Test
+    void hilosVirtualesRegistranSinHuecosNiRepetidosEnLaSecuencia() throws Exception {
+        // Arrange
+        int hilos = 2000;
+        Set<Long> numeros = ConcurrentHashMap.newKeySet();
+
+        // Act
+        try (BitacoraEnArchivo bitacora = new BitacoraEnArchivo(directorio, ModoFsync.SINCRONICO, 200, objectMapper);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int h = 0; h < hilos; h++) {
+                long id = h + 1;
+                executor.submit(() -> {
+                    long secuencia = bitacora.registrarGuardado(TipoEntidad.LIBRO, id,
+                            new Libro(id, "978-" + id, "Titulo", "Autor", EstadoLibro.DISPONIBLE));
+                    bitacora.aplicada(secuencia);
+                    bitacora.esperarDurabilidad(secuencia);
+                    numeros.add(secuencia >>> 1);
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        }
+
+        // Assert
+        assertEquals(LongStream.rangeClosed(1, hilos).boxed().collect(Collectors.toSet()), numeros);
+        LibroRepositoryImpl reabierto = new LibroRepositoryImpl();
+        try (BitacoraEnArchivo bitacora = new BitacoraEnArchivo(directorio, ModoFsync.SINCRONICO, 200, objectMapper)) {
+            bitacora.reproducir(new PersistenciaConfig.AplicadorRepositorios(reabierto, new UsuarioRepositoryImpl(), new PrestamoRepositoryImpl()));
+        }
+        assertEquals(hilos, reabierto.findAll().size());
+    }
+}
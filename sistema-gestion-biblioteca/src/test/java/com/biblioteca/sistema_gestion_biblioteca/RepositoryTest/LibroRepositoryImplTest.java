@@ -1,11 +1,16 @@
 package com.biblioteca.sistema_gestion_biblioteca.RepositoryTest;
 
+import exceptions.IsbnDuplicadoException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import modelo.*;
 import org.springframework.stereotype.Repository;
 import repository.*;
 
 import estados.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -13,9 +18,18 @@ import java.util.Optional;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import repository.impl.LibroRepositoryImpl;
+import repository.indices.IndiceTexto;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -198,4 +212,594 @@ class LibroRepositoryImplTest {
         // Act & Assert
         assertFalse(libroRepository.existsById(99L));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testGuardadoConcurrenteNoPierdeEscriturasNiDuplicaIds() throws InterruptedException {
+        // Arrange
+        int hilos = 8;
+        int librosPorHilo = 2_000;
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        CountDownLatch largada = new CountDownLatch(1);
+        Set<Long> idsAsignados = ConcurrentHashMap.newKeySet();
+
+        // Act
+        for (int h = 0; h < hilos; h++) {
+            int hilo = h;
+            executor.submit(() -> {
+                largada.await();
+                for (int i = 0; i < librosPorHilo; i++) {
+                    Libro libro = new Libro(null, "isbn-" + hilo + "-" + i, "Titulo", "Autor", EstadoLibro.DISPONIBLE);
+                    idsAsignados.add(libroRepository.save(libro).getId());
+                }
+                return null;
+            });
+        }
+        largada.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Assert
+        assertEquals(hilos * librosPorHilo, idsAsignados.size()); // Ningun id repetido
+        assertEquals(hilos * librosPorHilo, libroRepository.findAll().size()); // Ninguna escritura perdida
+    }
+
+    @Test
+    void testGuardarLibroConIsbnDuplicadoLanzaExcepcion() {
+        // Arrange
+        libroRepository.save(new Libro(null, "978-dup", "Original", "Autor", EstadoLibro.DISPONIBLE));
+        Libro duplicado = new Libro(null, "978-dup", "Copia", "Otro Autor", EstadoLibro.DISPONIBLE);
+
+        // Act & Assert
+        assertThrows(IsbnDuplicadoException.class, () -> libroRepository.save(duplicado));
+        assertNull(duplicado.getId()); // No se consume el id del libro rechazado
+        assertEquals(1, libroRepository.findAll().size());
+        assertEquals("Original", libroRepository.findByIsbn("978-dup").get().getTitulo());
+    }
+
+    @Test
+    void testActualizarIsbnReindexaElLibro() {
+        // Arrange
+        Libro libro = libroRepository.save(new Libro(null, "978-viejo", "Libro", "Autor", EstadoLibro.DISPONIBLE));
+        Libro actualizado = new Libro(libro.getId(), "978-nuevo", "Libro", "Autor", EstadoLibro.DISPONIBLE);
+
+        // Act
+        libroRepository.save(actualizado);
+
+        // Assert
+        assertTrue(libroRepository.findByIsbn("978-viejo").isEmpty());
+        assertEquals(libro.getId(), libroRepository.findByIsbn("978-nuevo").get().getId());
+        // El ISBN anterior queda libre para otro libro
+        assertNotNull(libroRepository.save(new Libro(null, "978-viejo", "Otro", "Autor", EstadoLibro.DISPONIBLE)).getId());
+    }
+
+    @Test
+    void testActualizarLibroAIsbnDeOtroLibroLanzaExcepcion() {
+        // Arrange
+        Libro libro1 = libroRepository.save(new Libro(null, "978-A", "Libro A", "Autor", EstadoLibro.DISPONIBLE));
+        Libro libro2 = libroRepository.save(new Libro(null, "978-B", "Libro B", "Autor", EstadoLibro.DISPONIBLE));
+        Libro conflicto = new Libro(libro2.getId(), "978-A", "Libro B", "Autor", EstadoLibro.DISPONIBLE);
+
+        // Act & Assert
+        assertThrows(IsbnDuplicadoException.class, () -> libroRepository.save(conflicto));
+        assertEquals(libro1.getId(), libroRepository.findByIsbn("978-A").get().getId());
+        assertEquals(libro2.getId(), libroRepository.findByIsbn("978-B").get().getId());
+    }
+
+    @Test
+    void testEliminarLibroLiberaSuIsbn() {
+        // Arrange
+        Libro libro = libroRepository.save(new Libro(null, "978-borrar", "Libro", "Autor", EstadoLibro.DISPONIBLE));
+
+        // Act
+        libroRepository.deleteById(libro.getId());
+
+        // Assert
+        assertTrue(libroRepository.findByIsbn("978-borrar").isEmpty());
+        assertNotNull(libroRepository.save(new Libro(null, "978-borrar", "Reingreso", "Autor", EstadoLibro.DISPONIBLE)).getId());
+    }
+
+    @Test
+    void testFindAllAfterPaginaPorCursorEnOrdenDeId() {
+        // Arrange
+        for (int i = 0; i < 5; i++) {
+            libroRepository.save(new Libro(null, "978-pag-" + i, "Libro " + i, "Autor", EstadoLibro.DISPONIBLE));
+        }
+
+        // Act
+        List<Libro> primera = libroRepository.findAllAfter(null, 2);
+        List<Libro> segunda = libroRepository.findAllAfter(primera.get(1).getId(), 2);
+        List<Libro> ultima = libroRepository.findAllAfter(segunda.get(1).getId(), 2);
+
+        // Assert
+        assertEquals(List.of(1L, 2L), primera.stream().map(Libro::getId).toList());
+        assertEquals(List.of(3L, 4L), segunda.stream().map(Libro::getId).toList());
+        assertEquals(List.of(5L), ultima.stream().map(Libro::getId).toList());
+        assertTrue(libroRepository.findAllAfter(5L, 2).isEmpty());
+    }
+
+    @Test
+    void testSaveAllAsignaIdsEnBloqueYReportaDuplicadosSinAbortar() {
+        // Arrange
+        libroRepository.save(new Libro(null, "978-existente", "Ya cargado", "Autor", EstadoLibro.DISPONIBLE));
+        List<Libro> lote = List.of(
+                new Libro(null, "978-L1", "Uno", "Autor", EstadoLibro.DISPONIBLE),
+                new Libro(null, "978-existente", "Choca con el catalogo", "Autor", EstadoLibro.DISPONIBLE),
+                new Libro(null, "978-L2", "Dos", "Autor", EstadoLibro.DISPONIBLE),
+                new Libro(null, "978-L1", "Choca dentro del lote", "Autor", EstadoLibro.DISPONIBLE));
+
+        // Act
+        Map<Integer, String> errores = libroRepository.saveAll(lote);
+
+        // Assert
+        assertEquals(Set.of(1, 3), errores.keySet());
+        assertNull(lote.get(1).getId());
+        assertNull(lote.get(3).getId());
+        assertEquals(List.of(2L, 4L), List.of(lote.get(0).getId(), lote.get(2).getId()));
+        assertEquals(3, libroRepository.findAll().size());
+        assertEquals("Dos", libroRepository.findByIsbn("978-L2").get().getTitulo());
+        // El siguiente alta individual sigue despues del bloque reservado
+        assertEquals(6L, libroRepository.save(new Libro(null, "978-L3", "Tres", "Autor", EstadoLibro.DISPONIBLE)).getId());
+    }
+
+    @Test
+    void metricasPublicanTamanioYAciertosDelIndicePorIsbn() {
+        // Arrange
+        SimpleMeterRegistry registro = new SimpleMeterRegistry();
+        libroRepository.bindTo(registro);
+        libroRepository.save(new Libro(null, "978-1", "Rayuela", "Cortazar", EstadoLibro.DISPONIBLE));
+
+        // Act
+        libroRepository.findByIsbn("978-1");
+        libroRepository.findByIsbn("978-1");
+        libroRepository.findByIsbn("no-existe");
+
+        // Assert
+        assertEquals(1.0, registro.get("biblioteca.repositorio.tamanio").tag("entidad", "libros").gauge().value());
+        assertEquals(2.0, registro.get("biblioteca.indice.consultas").tags("indice", "libros.isbn", "resultado", "acierto").functionCounter().count());
+        assertEquals(1.0, registro.get("biblioteca.indice.consultas").tags("indice", "libros.isbn", "resultado", "fallo").functionCounter().count());
+        assertEquals(2.0 / 3, registro.get("biblioteca.indice.tasa.aciertos").tag("indice", "libros.isbn").gauge().value(), 1e-9);
+    }
+
+    @Test
+    void lasVersionesSubenConCadaCambioYSeBorranConElLibro() {
+        // Arrange
+        long inicial = libroRepository.version();
+        Libro libro = libroRepository.save(new Libro(null, "978-v1", "Versionado", "Autor", EstadoLibro.DISPONIBLE));
+        long alta = libroRepository.versionDe(libro.getId());
+
+        // Act
+        libro.setEstadoLibro(EstadoLibro.PRESTADO);
+        libroRepository.save(libro);
+        long cambio = libroRepository.versionDe(libro.getId());
+        long antesDeBorrar = libroRepository.version();
+        libroRepository.deleteById(libro.getId());
+        libroRepository.deleteById(libro.getId());
+
+        // Assert
+        assertTrue(alta > inicial);
+        assertTrue(cambio > alta);
+        assertEquals(cambio, antesDeBorrar);
+        assertEquals(antesDeBorrar + 1, libroRepository.version(), "Borrar algo que no existe no cambia la version");
+        assertEquals(0, libroRepository.versionDe(libro.getId()));
+    }
+
+    @Test
+    void findByTextoIgnoraTildesYMayusculasYAceptaPrefijos() {
+        // Arrange
+        Libro rayuela = libroRepository.save(new Libro(null, "978-t1", "Rayuela", "Julio Cortázar", EstadoLibro.DISPONIBLE));
+        Libro cien = libroRepository.save(new Libro(null, "978-t2", "Cien años de soledad", "Gabriel García Márquez", EstadoLibro.DISPONIBLE));
+        Libro otono = libroRepository.save(new Libro(null, "978-t3", "El otoño del patriarca", "Gabriel García Márquez", EstadoLibro.DISPONIBLE));
+
+        // Act & Assert
+        assertEquals(List.of(rayuela), libroRepository.findByTexto("cortazar", 10));
+        assertEquals(List.of(cien, otono), libroRepository.findByTexto("GARCIA marq", 10));
+        assertEquals(List.of(cien), libroRepository.findByTexto("anos garcia", 10));
+        assertEquals(List.of(otono), libroRepository.findByTexto("otono", 10));
+        assertEquals(List.of(cien), libroRepository.findByTexto("gabriel", 1));
+        assertTrue(libroRepository.findByTexto("cortazar soledad", 10).isEmpty());
+        assertTrue(libroRepository.findByTexto("  ¿? ", 10).isEmpty());
+    }
+
+    @Test
+    void findByTextoSeActualizaAlCambiarYBorrar() {
+        // Arrange
+        Libro libro = libroRepository.save(new Libro(null, "978-t4", "Ficciones", "Borges", EstadoLibro.DISPONIBLE));
+
+        // Act: cambio con un objeto nuevo, cambio en el mismo objeto y borrado
+        libroRepository.save(new Libro(libro.getId(), "978-t4", "El Aleph", "Borges", EstadoLibro.DISPONIBLE));
+        List<Libro> porTituloViejo = libroRepository.findByTexto("ficciones", 10);
+        Libro guardado = libroRepository.findById(libro.getId()).orElseThrow();
+        guardado.setTitulo("El libro de arena");
+        libroRepository.save(guardado);
+        List<Libro> porAleph = libroRepository.findByTexto("aleph", 10);
+        List<Libro> porArena = libroRepository.findByTexto("arena borges", 10);
+        libroRepository.deleteById(libro.getId());
+
+        // Assert
+        assertTrue(porTituloViejo.isEmpty());
+        assertTrue(porAleph.isEmpty());
+        assertEquals(List.of(guardado), porArena);
+        assertTrue(libroRepository.findByTexto("borges", 10).isEmpty());
+    }
+
+    @Test
+    void indiceTextoSacaLasPalabrasViejasSinQueLePasenElTextoAnterior() {
+        // Arrange: la verificacion acepta cualquier id, asi lo que devuelve es lo que quedo en las listas
+        IndiceTexto indice = new IndiceTexto();
+        indice.indexar(1L, "Ficciones Borges");
+        indice.indexar(2L, "Ficciones Cortazar");
+
+        // Act
+        indice.indexar(1L, "El Aleph Borges");
+        List<Long> porFicciones = indice.buscar("ficciones", 10, id -> id, id -> "ficciones");
+        List<Long> porAleph = indice.buscar("aleph", 10, id -> id, id -> "aleph");
+        indice.desindexar(2L);
+        List<Long> porCortazar = indice.buscar("cortazar", 10, id -> id, id -> "cortazar");
+
+        // Assert
+        assertEquals(List.of(2L), porFicciones);
+        assertEquals(List.of(1L), porAleph);
+        assertTrue(porCortazar.isEmpty());
+    }
+
+    @Test
+    void indiceTextoSacaDelDiccionarioLasPalabrasQueQuedanSinIds() throws InterruptedException {
+        // Arrange
+        IndiceTexto indice = new IndiceTexto();
+        indice.indexar(1L, "Ficciones Borges");
+        indice.indexar(2L, "Ficciones Cortazar");
+
+        // Act & Assert: cada edicion saca las palabras que ya nadie usa
+        indice.indexar(1L, "El Aleph Borges");
+        assertEquals(5, indice.cantidadPalabras()); // ficciones, cortazar, el, aleph, borges
+        indice.desindexar(2L);
+        assertEquals(3, indice.cantidadPalabras());
+        indice.desindexar(1L);
+        assertEquals(0, indice.cantidadPalabras());
+
+        // Altas y bajas de la misma palabra desde varios hilos: ninguna alta se pierde en una lista retirada
+        int hilos = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        CountDownLatch largada = new CountDownLatch(1);
+        for (int h = 0; h < hilos; h++) {
+            long id = h;
+            executor.submit(() -> {
+                largada.await();
+                for (int i = 0; i < 2_000; i++) {
+                    indice.indexar(id, "Rayuela");
+                    indice.desindexar(id);
+                }
+                indice.indexar(id, "Rayuela");
+                return null;
+            });
+        }
+        largada.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(hilos, indice.buscar("rayuela", 100, id -> id, id -> "rayuela").size());
+        assertEquals(1, indice.cantidadPalabras());
+    }
+
+    @Test
+    void findSugerenciasToleraErroresYOrdenaPorPrestamos() {
+        // Arrange
+        Libro cien = libroRepository.save(new Libro(null, "978-s1", "Cien años de soledad", "Gabriel García Márquez", EstadoLibro.DISPONIBLE));
+        Libro otono = libroRepository.save(new Libro(null, "978-s2", "El otoño del patriarca", "Gabriel García Márquez", EstadoLibro.DISPONIBLE));
+        Libro garcilaso = libroRepository.save(new Libro(null, "978-s3", "Églogas", "Garcilaso de la Vega", EstadoLibro.DISPONIBLE));
+        Libro marcianas = libroRepository.save(new Libro(null, "978-s6", "Marcianas", null, EstadoLibro.DISPONIBLE));
+        Libro rosaura = libroRepository.save(new Libro(null, "978-s7", "Rosaura a las diez", "Marco Denevi", EstadoLibro.DISPONIBLE));
+
+        // Act
+        libroRepository.actualizarPopularidad(cien.getId(), 3);
+        libroRepository.actualizarPopularidad(otono.getId(), 2);
+        libroRepository.actualizarPopularidad(garcilaso.getId(), 4);
+        libroRepository.actualizarPopularidad(marcianas.getId(), 1);
+        libroRepository.actualizarPopularidad(rosaura.getId(), 6);
+        libroRepository.actualizarPopularidad(99L, 100);
+
+        // Assert: el autor suma los prestamos de sus dos libros
+        assertEquals(List.of(new Sugerencia("Gabriel García Márquez", 5)), libroRepository.findSugerencias("GABRIEL garc", 10));
+        assertEquals(List.of(new Sugerencia("Garcilaso de la Vega", 4)), libroRepository.findSugerencias("gar", 10));
+        assertEquals(List.of(new Sugerencia("Marcianas", 1), new Sugerencia("Marco Denevi", 6)),
+                libroRepository.findSugerencias("marci", 10), "Sin errores va primero aunque tenga menos prestamos");
+        assertEquals(List.of(new Sugerencia("Cien años de soledad", 3)), libroRepository.findSugerencias("cein anos", 10));
+        assertEquals(List.of(new Sugerencia("Gabriel García Márquez", 5)), libroRepository.findSugerencias("gabriel garsia", 10));
+        assertEquals(List.of(new Sugerencia("El otoño del patriarca", 2)), libroRepository.findSugerencias("el otono", 1));
+        assertTrue(libroRepository.findSugerencias("xyz", 10).isEmpty());
+        assertTrue(libroRepository.findSugerencias(" ¿? ", 10).isEmpty());
+    }
+
+    @Test
+    void findSugerenciasSeActualizaAlCambiarYBorrar() {
+        // Arrange
+        Libro ficciones = libroRepository.save(new Libro(null, "978-s4", "Ficciones", "Borges", EstadoLibro.DISPONIBLE));
+        Libro aleph = libroRepository.save(new Libro(null, "978-s5", "El Aleph", "Borges", EstadoLibro.DISPONIBLE));
+        libroRepository.actualizarPopularidad(ficciones.getId(), 2);
+        libroRepository.actualizarPopularidad(aleph.getId(), 1);
+
+        // Act: cambio en el mismo objeto y borrado
+        ficciones.setTitulo("Artificios");
+        libroRepository.save(ficciones);
+        List<Sugerencia> porTituloViejo = libroRepository.findSugerencias("ficc", 10);
+        List<Sugerencia> porTituloNuevo = libroRepository.findSugerencias("artif", 10);
+        libroRepository.deleteById(ficciones.getId());
+
+        // Assert
+        assertTrue(porTituloViejo.isEmpty());
+        assertEquals(List.of(new Sugerencia("Artificios", 2)), porTituloNuevo);
+        assertEquals(List.of(new Sugerencia("Borges", 1)), libroRepository.findSugerencias("borges", 10));
+        assertTrue(libroRepository.findSugerencias("artif", 10).isEmpty());
+    }
+
+    @Test
+    void findSugerenciasCoincideConRecorrerTodoElCatalogo() {
+        // Arrange: palabras de pocas letras para que haya muchos prefijos compartidos y nodos por encima del umbral
+        Random azar = new Random(22);
+        Map<Long, Long> prestamos = new HashMap<>();
+        List<Libro> libros = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            Libro libro = libroRepository.save(new Libro(null, "978-r" + i, frase(azar, 3), frase(azar, 2), EstadoLibro.DISPONIBLE));
+            libros.add(libro);
+            prestamos.put(libro.getId(), (long) azar.nextInt(50));
+            libroRepository.actualizarPopularidad(libro.getId(), prestamos.get(libro.getId()));
+        }
+
+        // Act: cambios de titulo, de prestamos (para arriba y para abajo) y bajas
+        for (int i = 0; i < 3000; i++) {
+            Libro libro = libros.get(azar.nextInt(libros.size()));
+            switch (azar.nextInt(3)) {
+                case 0 -> {
+                    libro.setTitulo(frase(azar, 3));
+                    libroRepository.save(libro);
+                }
+                case 1 -> {
+                    prestamos.put(libro.getId(), (long) azar.nextInt(50));
+                    libroRepository.actualizarPopularidad(libro.getId(), prestamos.get(libro.getId()));
+                }
+                default -> {
+                    libroRepository.deleteById(libro.getId());
+                    libros.remove(libro);
+                    prestamos.remove(libro.getId());
+                }
+            }
+        }
+
+        // Assert
+        for (int i = 0; i < 300; i++) {
+            String frase = frase(azar, 2);
+            String consulta = frase.substring(0, Math.min(frase.length(), 2 + azar.nextInt(8)));
+            List<Sugerencia> esperadas = sugerenciasRecorriendo(libros, prestamos, IndiceTexto.normalizar(consulta));
+            List<Sugerencia> obtenidas = libroRepository.findSugerencias(consulta, 10).stream()
+                    .map(sugerencia -> new Sugerencia(IndiceTexto.normalizar(sugerencia.texto()), sugerencia.prestamos()))
+                    .toList();
+            assertEquals(esperadas, obtenidas, consulta);
+        }
+    }
+
+    @Test
+    void findSugerenciasQuedaAlDiaConCambiosCruzadosEntreHilos() throws InterruptedException {
+        // Arrange: pocos libros compartidos, asi los cambios del mismo id se cruzan entre hilos
+        int hilos = 8;
+        List<Libro> libros = new ArrayList<>();
+        Map<Long, Long> prestamos = new ConcurrentHashMap<>();
+        for (int i = 0; i < 40; i++) {
+            Libro libro = libroRepository.save(new Libro(null, "978-c" + i, "Titulo", "Autor", EstadoLibro.DISPONIBLE));
+            libros.add(libro);
+            prestamos.put(libro.getId(), 0L);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        CountDownLatch largada = new CountDownLatch(1);
+
+        // Act: cada hilo cambia titulos de cualquier libro y fija los prestamos solo de los suyos
+        for (int h = 0; h < hilos; h++) {
+            int hilo = h;
+            executor.submit(() -> {
+                Random azar = new Random(hilo);
+                largada.await();
+                for (int i = 0; i < 2_000; i++) {
+                    Libro libro = libros.get(azar.nextInt(libros.size()));
+                    libroRepository.save(new Libro(libro.getId(), libro.getIsbn(), frase(azar, 2), "Autor", EstadoLibro.DISPONIBLE));
+                    Libro propio = libros.get(hilo + hilos * azar.nextInt(libros.size() / hilos));
+                    long cantidad = azar.nextInt(50);
+                    libroRepository.actualizarPopularidad(propio.getId(), cantidad);
+                    prestamos.put(propio.getId(), cantidad);
+                }
+                return null;
+            });
+        }
+        largada.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Assert: el indice tiene el titulo que quedo en cada libro y los ultimos prestamos anotados
+        List<Libro> finales = libroRepository.findAll();
+        List<String> consultas = new ArrayList<>(List.of("autor"));
+        finales.forEach(libro -> consultas.add(libro.getTitulo()));
+        for (String consulta : consultas) {
+            List<Sugerencia> esperadas = sugerenciasRecorriendo(finales, prestamos, IndiceTexto.normalizar(consulta));
+            List<Sugerencia> obtenidas = libroRepository.findSugerencias(consulta, 10).stream()
+                    .map(sugerencia -> new Sugerencia(IndiceTexto.normalizar(sugerencia.texto()), sugerencia.prestamos()))
+                    .toList();
+            assertEquals(esperadas, obtenidas, consulta);
+        }
+    }
+
+    private static String frase(Random azar, int palabras) {
+        StringBuilder frase = new StringBuilder();
+        for (int i = 0; i < palabras; i++) {
+            frase.append(i == 0 ? "" : " ");
+            for (int j = 0, largo = 2 + azar.nextInt(4); j < largo; j++) {
+                frase.append((char) ('a' + azar.nextInt(4)));
+            }
+        }
+        return frase.toString();
+    }
+
+    // La misma regla que el indice, por fuerza bruta: la menor distancia de la consulta a un prefijo de cada frase
+    // que empieza con la misma letra, con una sola correccion en las primeras cinco
+    private static List<Sugerencia> sugerenciasRecorriendo(List<Libro> libros, Map<Long, Long> prestamos, String consulta) {
+        Map<String, Long> porFrase = new HashMap<>();
+        for (Libro libro : libros) {
+            for (String frase : Set.of(IndiceTexto.normalizar(libro.getTitulo()), IndiceTexto.normalizar(libro.getAutor()))) {
+                porFrase.merge(frase, prestamos.get(libro.getId()), Long::sum);
+            }
+        }
+        int permitida = consulta.length() < 4 ? 0 : consulta.length() < 10 ? 1 : 2;
+        Map<String, Integer> distancias = new HashMap<>();
+        for (String frase : porFrase.keySet()) {
+            int distancia = distanciaAPrefijo(consulta, frase);
+            if (distancia <= permitida && frase.charAt(0) == consulta.charAt(0)) {
+                distancias.put(frase, distancia);
+            }
+        }
+        return distancias.keySet().stream()
+                .sorted(Comparator.comparing((String frase) -> distancias.get(frase))
+                        .thenComparing(frase -> -porFrase.get(frase))
+                        .thenComparing(Comparator.naturalOrder()))
+                .limit(10)
+                .map(frase -> new Sugerencia(frase, porFrase.get(frase)))
+                .toList();
+    }
+
+    private static int distanciaAPrefijo(String consulta, String frase) {
+        int[][] filas = new int[frase.length() + 1][consulta.length() + 1];
+        for (int j = 0; j <= consulta.length(); j++) {
+            filas[0][j] = j;
+        }
+        int menor = Integer.MAX_VALUE;
+        for (int i = 1; i <= frase.length(); i++) {
+            filas[i][0] = i;
+            for (int j = 1; j <= consulta.length(); j++) {
+                int valor = Math.min(filas[i - 1][j - 1] + (consulta.charAt(j - 1) == frase.charAt(i - 1) ? 0 : 1),
+                        Math.min(filas[i - 1][j], filas[i][j - 1]) + 1);
+                if (i > 1 && j > 1 && consulta.charAt(j - 1) == frase.charAt(i - 2) && consulta.charAt(j - 2) == frase.charAt(i - 1)) {
+                    valor = Math.min(valor, filas[i - 2][j - 2] + 1);
+                }
+                filas[i][j] = valor;
+            }
+            menor = Math.min(menor, filas[i][consulta.length()]);
+            // En las primeras cinco letras se acepta una sola correccion
+            if (i < 6 && Arrays.stream(filas[i]).min().getAsInt() > 1) {
+                break;
+            }
+        }
+        return menor;
+    }
+
+    @Test
+    void countByEstadoYFindByEstadoSiguenCadaCambioDeEstado() {
+        Libro ficciones = libroRepository.save(new Libro(null, "1", "Ficciones", "Jorge Luis Borges", EstadoLibro.DISPONIBLE));
+        Libro aleph = libroRepository.save(new Libro(null, "2", "El Aleph", "Jorge Luis Borges", EstadoLibro.DISPONIBLE));
+        Libro rayuela = libroRepository.save(new Libro(null, "3", "Rayuela", "Julio Cortazar", EstadoLibro.EN_REPARACION));
+        libroRepository.save(new Libro(null, "4", "Sin estado", "Anonimo", null));
+
+        // El mismo objeto modificado, como hace el servicio de prestamos, y uno nuevo con el mismo id
+        aleph.setEstadoLibro(EstadoLibro.PRESTADO);
+        libroRepository.save(aleph);
+        libroRepository.save(new Libro(rayuela.getId(), "3", "Rayuela", "Julio Cortazar", EstadoLibro.DISPONIBLE));
+
+        assertEquals(2, libroRepository.countByEstado(EstadoLibro.DISPONIBLE));
+        assertEquals(1, libroRepository.countByEstado(EstadoLibro.PRESTADO));
+        assertEquals(0, libroRepository.countByEstado(EstadoLibro.EN_REPARACION));
+        assertEquals(List.of(ficciones.getId(), rayuela.getId()),
+                libroRepository.findByEstadoAfter(EstadoLibro.DISPONIBLE, null, 10).stream().map(Libro::getId).toList());
+        assertEquals(List.of(rayuela.getId()),
+                libroRepository.findByEstadoAfter(EstadoLibro.DISPONIBLE, ficciones.getId(), 10).stream().map(Libro::getId).toList());
+        assertEquals(List.of(ficciones), libroRepository.findByTextoYEstado("borges", EstadoLibro.DISPONIBLE, 10));
+        assertEquals(List.of(aleph), libroRepository.findByTextoYEstado("borges", EstadoLibro.PRESTADO, 10));
+
+        libroRepository.deleteById(ficciones.getId());
+
+        assertEquals(Map.of(EstadoLibro.DISPONIBLE, 1L, EstadoLibro.PRESTADO, 1L, EstadoLibro.EN_REPARACION, 0L),
+                libroRepository.countPorEstado());
+        assertTrue(libroRepository.findByTextoYEstado("borges", EstadoLibro.DISPONIBLE, 10).isEmpty());
+    }
+
+    @Test
+    void indicePorEstadoQuedaAlDiaConCambiosCruzadosEntreHilos() throws InterruptedException {
+        // Arrange: pocos libros, asi los cambios de estado del mismo id se cruzan entre hilos
+        int hilos = 8;
+        EstadoLibro[] estados = EstadoLibro.values();
+        for (long id = 1; id <= 50; id++) {
+            libroRepository.save(new Libro(id, "isbn-" + id, "Titulo", "Autor", EstadoLibro.DISPONIBLE));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        CountDownLatch largada = new CountDownLatch(1);
+
+        // Act
+        for (int h = 0; h < hilos; h++) {
+            int hilo = h;
+            executor.submit(() -> {
+                Random azar = new Random(hilo);
+                largada.await();
+                for (int i = 0; i < 5_000; i++) {
+                    long id = 1 + azar.nextInt(50);
+                    if (azar.nextInt(20) == 0) {
+                        libroRepository.deleteById(id);
+                    } else {
+                        libroRepository.save(new Libro(id, "isbn-" + id, "Titulo", "Autor", estados[azar.nextInt(estados.length)]));
+                    }
+                }
+                return null;
+            });
+        }
+        largada.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Assert
+        Map<EstadoLibro, Long> esperadas = new EnumMap<>(EstadoLibro.class);
+        for (EstadoLibro estado : estados) {
+            List<Long> ids = libroRepository.findAll().stream()
+                    .filter(libro -> libro.getEstadoLibro() == estado).map(Libro::getId).sorted().toList();
+            esperadas.put(estado, (long) ids.size());
+            assertEquals(ids, libroRepository.findByEstadoAfter(estado, null, 100).stream().map(Libro::getId).toList());
+        }
+        assertEquals(esperadas, libroRepository.countPorEstado());
+    }
+
+    @Test
+    void indicePorEstadoCoincideConRecorrerTodoElCatalogo() {
+        // Ids repartidos en varios bloques de 65536, con bloques densos y ralos, y muchos cambios de estado
+        Random random = new Random(23);
+        Map<Long, EstadoLibro> esperado = new HashMap<>();
+        EstadoLibro[] estados = EstadoLibro.values();
+        for (int i = 0; i < 40_000; i++) {
+            long id = random.nextInt(10) < 8 ? 1 + random.nextInt(20_000) : 1 + random.nextInt(300_000);
+            if (random.nextInt(10) == 0) {
+                libroRepository.deleteById(id);
+                esperado.remove(id);
+                continue;
+            }
+            // Casi todos disponibles, asi el estado comun pasa por el indice de texto y los otros se recorren
+            int r = random.nextInt(20);
+            EstadoLibro estado = r < 17 ? EstadoLibro.DISPONIBLE : estados[1 + r % 2];
+            libroRepository.save(new Libro(id, "isbn-" + id, "Titulo " + (id % 7 == 0 ? "raro " : "") + id, "Autor", estado));
+            esperado.put(id, estado);
+        }
+
+        for (EstadoLibro estado : estados) {
+            List<Long> ids = esperado.entrySet().stream().filter(e -> e.getValue() == estado).map(Map.Entry::getKey).sorted().toList();
+            assertEquals(ids.size(), libroRepository.countByEstado(estado));
+            List<Long> recorridos = new ArrayList<>();
+            Long cursor = null;
+            List<Libro> pagina;
+            do {
+                pagina = libroRepository.findByEstadoAfter(estado, cursor, 997);
+                pagina.forEach(libro -> recorridos.add(libro.getId()));
+                cursor = pagina.isEmpty() ? cursor : pagina.get(pagina.size() - 1).getId();
+            } while (pagina.size() == 997);
+            assertEquals(ids, recorridos);
+
+            Set<Long> raros = new TreeSet<>(ids.stream().filter(id -> id % 7 == 0).toList());
+            Set<Long> encontrados = new TreeSet<>();
+            libroRepository.findByTextoYEstado("raro", estado, 1_000_000).forEach(libro -> encontrados.add(libro.getId()));
+            assertEquals(raros, encontrados);
+        }
+        Map<EstadoLibro, Long> cantidades = new EnumMap<>(EstadoLibro.class);
+        for (EstadoLibro estado : estados) {
+            cantidades.put(estado, esperado.values().stream().filter(e -> e == estado).count());
+        }
+        assertEquals(cantidades, libroRepository.countPorEstado());
+    }
+}
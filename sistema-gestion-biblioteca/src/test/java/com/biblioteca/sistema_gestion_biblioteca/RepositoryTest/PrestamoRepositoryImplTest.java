@@ -1,14 +1,27 @@
 package com.biblioteca.sistema_gestion_biblioteca.RepositoryTest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import modelo.*;
 import estados.*;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import repository.PrestamoRepository;
 import repository.impl.PrestamoRepositoryImpl;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -51,8 +64,8 @@ class PrestamoRepositoryImplTest {
         // Assert
         assertNotNull(savedPrestamo);
         assertNotNull(savedPrestamo.getId());
-        assertEquals(nuevoPrestamo.getLibroPrestado(), savedPrestamo.getLibroPrestado());
-        assertEquals(nuevoPrestamo.getUsuarioPrestatario(), savedPrestamo.getUsuarioPrestatario());
+        assertEquals(nuevoPrestamo.getLibroId(), savedPrestamo.getLibroId());
+        assertEquals(nuevoPrestamo.getUsuarioDni(), savedPrestamo.getUsuarioDni());
         assertEquals(nuevoPrestamo.getFechaPrestamo(), savedPrestamo.getFechaPrestamo());
         assertTrue(savedPrestamo.getFechaDevolucion().isEmpty()); // Debe estar vacío al inicio
 
@@ -200,4 +213,365 @@ class PrestamoRepositoryImplTest {
         // Act & Assert
         assertFalse(prestamoRepository.existsById(99L));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testGuardadoConcurrenteConLecturasSimultaneas() throws InterruptedException {
+        // Arrange
+        int hilos = 8;
+        int prestamosPorHilo = 2_000;
+        ExecutorService executor = Executors.newFixedThreadPool(hilos + 1);
+        CountDownLatch largada = new CountDownLatch(1);
+        Set<Long> idsAsignados = ConcurrentHashMap.newKeySet();
+
+        // Act: los escritores guardan mientras un lector recorre findAll sin parar
+        for (int h = 0; h < hilos; h++) {
+            executor.submit(() -> {
+                largada.await();
+                for (int i = 0; i < prestamosPorHilo; i++) {
+                    Prestamo prestamo = new Prestamo(null, libro1, usuario, LocalDate.now(), Optional.empty());
+                    idsAsignados.add(prestamoRepository.save(prestamo).getId());
+                }
+                return null;
+            });
+        }
+        executor.submit(() -> {
+            largada.await();
+            while (idsAsignados.size() < hilos * prestamosPorHilo) {
+                prestamoRepository.findAll().forEach(Prestamo::getId);
+            }
+            return null;
+        });
+        largada.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Assert
+        assertEquals(hilos * prestamosPorHilo, idsAsignados.size());
+        assertEquals(hilos * prestamosPorHilo, prestamoRepository.findAll().size());
+    }
+
+    @Test
+    void testBuscarPorUsuarioDniYLibroId() {
+        // Arrange
+        Prestamo p1 = prestamoRepository.save(new Prestamo(null, libro1, usuario, LocalDate.now(), Optional.empty()));
+        Prestamo p2 = prestamoRepository.save(new Prestamo(null, libro2, usuario, LocalDate.now(), Optional.empty()));
+        Prestamo p3 = prestamoRepository.save(new Prestamo(null, libro1, usuario2, LocalDate.now(), Optional.empty()));
+
+        // Act
+        List<Prestamo> deUsuario = prestamoRepository.findByUsuarioDni(usuario.getDni());
+        List<Prestamo> deLibro1 = prestamoRepository.findByLibroId(libro1.getId());
+
+        // Assert
+        assertEquals(2, deUsuario.size());
+        assertTrue(deUsuario.containsAll(List.of(p1, p2)));
+        assertEquals(2, deLibro1.size());
+        assertTrue(deLibro1.containsAll(List.of(p1, p3)));
+        assertTrue(prestamoRepository.findByUsuarioDni(999L).isEmpty());
+        assertTrue(prestamoRepository.findByLibroId(999L).isEmpty());
+    }
+
+    @Test
+    void testActualizarYEliminarPrestamoMantienenLosIndices() {
+        // Arrange
+        Prestamo prestamo = prestamoRepository.save(new Prestamo(null, libro1, usuario, LocalDate.now(), Optional.empty()));
+
+        // Act: se reasigna el prestamo a otro usuario y otro libro modificando la misma instancia
+        prestamo.setUsuarioDni(usuario2.getDni());
+        prestamo.setLibroId(libro2.getId());
+        prestamoRepository.save(prestamo);
+
+        // Assert
+        assertTrue(prestamoRepository.findByUsuarioDni(usuario.getDni()).isEmpty());
+        assertTrue(prestamoRepository.findByLibroId(libro1.getId()).isEmpty());
+        assertEquals(List.of(prestamo), prestamoRepository.findByUsuarioDni(usuario2.getDni()));
+        assertEquals(List.of(prestamo), prestamoRepository.findByLibroId(libro2.getId()));
+
+        prestamoRepository.deleteById(prestamo.getId());
+
+        assertTrue(prestamoRepository.findByUsuarioDni(usuario2.getDni()).isEmpty());
+        assertTrue(prestamoRepository.findByLibroId(libro2.getId()).isEmpty());
+    }
+
+    @Test
+    void testFindAllAfterRespetaElLimite() {
+        // Arrange
+        for (int i = 0; i < 4; i++) {
+            prestamoRepository.save(new Prestamo(null, libro1, usuario, LocalDate.now(), Optional.empty()));
+        }
+
+        // Act
+        List<Prestamo> pagina = prestamoRepository.findAllAfter(1L, 2);
+
+        // Assert
+        assertEquals(List.of(2L, 3L), pagina.stream().map(Prestamo::getId).toList());
+    }
+
+    @Test
+    void metricaDePrestamosActivosSigueLasDevoluciones() {
+        // Arrange
+        SimpleMeterRegistry registro = new SimpleMeterRegistry();
+        prestamoRepository.bindTo(registro);
+        Prestamo abierto = prestamoRepository.save(new Prestamo(null, libro1, usuario, LocalDate.now(), Optional.empty()));
+        prestamoRepository.save(new Prestamo(null, libro2, usuario2, LocalDate.now(), Optional.empty()));
+
+        // Act
+        abierto.setFechaDevolucion(Optional.of(LocalDate.now()));
+        prestamoRepository.save(abierto);
+
+        // Assert
+        assertEquals(1.0, registro.get("biblioteca.prestamos.activos").gauge().value());
+        assertEquals(2.0, registro.get("biblioteca.repositorio.tamanio").tag("entidad", "prestamos").gauge().value());
+    }
+
+    @Test
+    void losDevueltosSeArchivanYLasBusquedasLeenAmbasCapas() {
+        // Arrange
+        SimpleMeterRegistry registro = new SimpleMeterRegistry();
+        prestamoRepository.bindTo(registro);
+        Prestamo devuelto = prestamoRepository.save(new Prestamo(null, libro1, usuario, LocalDate.of(2024, 3, 1), Optional.of(LocalDate.of(2024, 3, 10))));
+        Prestamo activo = prestamoRepository.save(new Prestamo(null, libro1, usuario2, LocalDate.of(2024, 4, 1), Optional.empty()));
+
+        // Act
+        Optional<Prestamo> leido = prestamoRepository.findById(devuelto.getId());
+
+        // Assert
+        assertEquals(Optional.of(devuelto), leido);
+        assertNotSame(devuelto, leido.get(), "Los devueltos se arman de nuevo desde las columnas");
+        assertEquals(1.0, registro.get("biblioteca.prestamos.archivados").gauge().value());
+        assertEquals(Set.of(devuelto, activo), Set.copyOf(prestamoRepository.findByLibroId(libro1.getId())));
+        assertEquals(List.of(devuelto), prestamoRepository.findByUsuarioDni(usuario.getDni()));
+        assertEquals(List.of(devuelto, activo), prestamoRepository.findAllAfter(null, 10));
+        assertEquals(List.of(devuelto), prestamoRepository.findAllAfter(null, 1));
+        assertEquals(List.of(activo), prestamoRepository.findAllAfter(devuelto.getId(), 10));
+        assertEquals(2, prestamoRepository.findAll().size());
+        assertTrue(prestamoRepository.existsById(devuelto.getId()));
+    }
+
+    @Test
+    void unArchivadoSePuedeReabrirYBorrar() {
+        // Arrange
+        Prestamo prestamo = prestamoRepository.save(new Prestamo(null, libro1, usuario, LocalDate.now(), Optional.of(LocalDate.now())));
+
+        // Act: se reabre, se vuelve a devolver y se borra
+        Prestamo reabierto = prestamoRepository.findById(prestamo.getId()).orElseThrow();
+        reabierto.setFechaDevolucion(Optional.empty());
+        prestamoRepository.save(reabierto);
+        Prestamo activo = prestamoRepository.findById(prestamo.getId()).orElseThrow();
+        activo.setFechaDevolucion(Optional.of(LocalDate.now().plusDays(1)));
+        prestamoRepository.save(activo);
+        Optional<Prestamo> archivadoOtraVez = prestamoRepository.findById(prestamo.getId());
+        prestamoRepository.deleteById(prestamo.getId());
+
+        // Assert
+        assertSame(reabierto, activo, "Mientras esta activo vive en el mapa");
+        assertEquals(Optional.of(LocalDate.now().plusDays(1)), archivadoOtraVez.orElseThrow().getFechaDevolucion());
+        assertFalse(prestamoRepository.existsById(prestamo.getId()));
+        assertTrue(prestamoRepository.findAll().isEmpty());
+        assertTrue(prestamoRepository.findByLibroId(libro1.getId()).isEmpty());
+    }
+
+    @Test
+    void findVencidosDevuelveLosAbiertosDelMasAtrasadoAlMasReciente() {
+        // Arrange
+        LocalDate hoy = LocalDate.of(2024, 6, 20);
+        Prestamo alDia = vencePrestamo(libro1, usuario, hoy);
+        Prestamo reciente = vencePrestamo(libro2, usuario, hoy.minusDays(1));
+        Prestamo atrasado = vencePrestamo(libro1, usuario2, hoy.minusDays(10));
+        Prestamo devuelto = vencePrestamo(libro2, usuario2, hoy.minusDays(20));
+        devuelto.setFechaDevolucion(Optional.of(hoy.minusDays(2)));
+        prestamoRepository.save(devuelto);
+        Prestamo prorrogado = vencePrestamo(libro1, usuario, hoy.minusDays(5));
+        prorrogado.setFechaVencimiento(hoy.plusDays(7));
+        prestamoRepository.save(prorrogado);
+
+        // Act
+        List<Prestamo> vencidos = prestamoRepository.findVencidos(hoy, 10);
+        List<Prestamo> primero = prestamoRepository.findVencidos(hoy, 1);
+        prestamoRepository.deleteById(atrasado.getId());
+
+        // Assert
+        assertEquals(List.of(atrasado, reciente), vencidos);
+        assertEquals(List.of(atrasado), primero);
+        assertEquals(List.of(reciente), prestamoRepository.findVencidos(hoy, 10));
+        assertFalse(vencidos.contains(alDia));
+    }
+
+    private Prestamo vencePrestamo(Libro libro, Usuario usuario, LocalDate vencimiento) {
+        Prestamo prestamo = new Prestamo(null, libro, usuario, vencimiento.minusDays(14), Optional.empty());
+        prestamo.setFechaVencimiento(vencimiento);
+        return prestamoRepository.save(prestamo);
+    }
+
+    @Test
+    void countActivosByUsuarioDniSigueAltasDevolucionesYBajas() {
+        // Arrange
+        Prestamo primero = prestamoRepository.save(new Prestamo(null, libro1, usuario, LocalDate.now(), Optional.empty()));
+        Prestamo segundo = prestamoRepository.save(new Prestamo(null, libro2, usuario, LocalDate.now(), Optional.empty()));
+        prestamoRepository.save(new Prestamo(null, libro1, usuario2, LocalDate.now(), Optional.empty()));
+        int conDos = prestamoRepository.countActivosByUsuarioDni(usuario.getDni());
+
+        // Act
+        primero.setFechaDevolucion(Optional.of(LocalDate.now()));
+        prestamoRepository.save(primero);
+        segundo.setUsuarioDni(usuario2.getDni());
+        prestamoRepository.save(segundo);
+
+        // Assert
+        assertEquals(2, conDos);
+        assertEquals(0, prestamoRepository.countActivosByUsuarioDni(usuario.getDni()));
+        assertEquals(2, prestamoRepository.countActivosByUsuarioDni(usuario2.getDni()));
+        prestamoRepository.deleteById(segundo.getId());
+        assertEquals(1, prestamoRepository.countActivosByUsuarioDni(usuario2.getDni()));
+        assertEquals(0, prestamoRepository.countActivosByUsuarioDni(null));
+    }
+
+    @Test
+    void countByLibroIdCuentaActivosYDevueltosHastaQueSeBorran() {
+        // Arrange
+        Prestamo devuelto = prestamoRepository.save(new Prestamo(null, libro1, usuario, LocalDate.now(), Optional.of(LocalDate.now())));
+        Prestamo activo = prestamoRepository.save(new Prestamo(null, libro1, usuario2, LocalDate.now(), Optional.empty()));
+        prestamoRepository.save(new Prestamo(null, libro2, usuario, LocalDate.now(), Optional.empty()));
+        long conDos = prestamoRepository.countByLibroId(libro1.getId());
+
+        // Act: devolver no cambia la cuenta; cambiar de libro y borrar si
+        activo.setFechaDevolucion(Optional.of(LocalDate.now()));
+        prestamoRepository.save(activo);
+        long despuesDeDevolver = prestamoRepository.countByLibroId(libro1.getId());
+        Prestamo reabierto = prestamoRepository.findById(devuelto.getId()).orElseThrow();
+        reabierto.setLibroId(libro2.getId());
+        reabierto.setFechaDevolucion(Optional.empty());
+        prestamoRepository.save(reabierto);
+        prestamoRepository.deleteById(activo.getId());
+
+        // Assert
+        assertEquals(2, conDos);
+        assertEquals(2, despuesDeDevolver);
+        assertEquals(0, prestamoRepository.countByLibroId(libro1.getId()));
+        assertEquals(2, prestamoRepository.countByLibroId(libro2.getId()));
+        assertEquals(0, prestamoRepository.countByLibroId(null));
+    }
+
+    @Test
+    void saveAllAsignaIdsSeguidosEIndexaActivosYDevueltos() {
+        // Arrange
+        Prestamo existente = prestamoRepository.save(new Prestamo(null, libro1, usuario, LocalDate.now(), Optional.empty()));
+        Prestamo nuevo = new Prestamo(null, libro2, usuario, LocalDate.now(), Optional.empty());
+        Prestamo devuelto = new Prestamo(null, libro2, usuario2, LocalDate.now(), Optional.of(LocalDate.now()));
+        existente.setFechaDevolucion(Optional.of(LocalDate.now()));
+
+        // Act
+        prestamoRepository.saveAll(List.of(nuevo, existente, devuelto));
+
+        // Assert
+        assertEquals(existente.getId() + 1, nuevo.getId());
+        assertEquals(existente.getId() + 2, devuelto.getId());
+        assertEquals(1, prestamoRepository.countActivosByUsuarioDni(usuario.getDni()));
+        assertTrue(prestamoRepository.findById(existente.getId()).orElseThrow().estaDevuelto());
+        assertEquals(2, prestamoRepository.findByLibroId(libro2.getId()).size());
+        assertEquals(devuelto.getId() + 1,
+                prestamoRepository.save(new Prestamo(null, libro1, usuario2, LocalDate.now(), Optional.empty())).getId());
+    }
+
+    @Test
+    void estadisticasSiguenAltasDevolucionesReaperturasYBajas() {
+        // Arrange
+        LocalDate lunes = LocalDate.of(2025, 3, 3);
+        Prestamo primero = prestamoRepository.save(new Prestamo(null, libro1, usuario, lunes, Optional.empty()));
+        Prestamo segundo = prestamoRepository.save(new Prestamo(null, libro1, usuario2, lunes, Optional.empty()));
+        Prestamo tercero = prestamoRepository.save(new Prestamo(null, libro2, usuario, lunes.plusDays(1), Optional.empty()));
+
+        // Act: se devuelve en el mismo objeto (como el servicio), se reabre otro y se borra el tercero
+        primero.setFechaDevolucion(Optional.of(lunes.plusDays(2)));
+        prestamoRepository.save(primero);
+        segundo.setFechaDevolucion(Optional.of(lunes.plusDays(2)));
+        prestamoRepository.save(segundo);
+        Prestamo reabierto = prestamoRepository.findById(segundo.getId()).orElseThrow();
+        reabierto.setFechaDevolucion(Optional.empty());
+        prestamoRepository.save(reabierto);
+        prestamoRepository.deleteById(tercero.getId());
+
+        // Assert
+        assertEquals(List.of(new PrestamosDelDia(lunes, 2, 0), new PrestamosDelDia(lunes.plusDays(1), 0, 0),
+                        new PrestamosDelDia(lunes.plusDays(2), 0, 1)),
+                prestamoRepository.countPorDia(lunes, lunes.plusDays(2)));
+        assertEquals(1, prestamoRepository.countByUsuarioDni(usuario.getDni()));
+        assertEquals(1, prestamoRepository.countByUsuarioDni(usuario2.getDni()));
+        assertEquals(List.of(new PuestoRanking(libro1.getId(), null, 2)), prestamoRepository.findLibrosMasPrestados(10));
+        assertEquals(List.of(new PuestoRanking(usuario.getDni(), null, 1), new PuestoRanking(usuario2.getDni(), null, 1)),
+                prestamoRepository.findUsuariosConMasPrestamos(10));
+    }
+
+    @Test
+    void rankingDeLibrosCoincideConContarTodoElHistorial() {
+        // Mas libros que los que entran en el ranking, con bajas y cambios de libro que sacan libros de los primeros
+        Random random = new Random(25);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            int operacion = random.nextInt(20);
+            if (operacion == 0 && !ids.isEmpty()) {
+                prestamoRepository.deleteById(ids.remove(random.nextInt(ids.size())));
+            } else if (operacion == 1 && !ids.isEmpty()) {
+                Prestamo prestamo = prestamoRepository.findById(ids.get(random.nextInt(ids.size()))).orElseThrow();
+                prestamo.setLibroId((long) random.nextInt(400));
+                prestamoRepository.save(prestamo);
+            } else {
+                // Unos pocos libros muy pedidos y muchos que casi no salen
+                long libro = random.nextInt(4) == 0 ? random.nextInt(20) : random.nextInt(400);
+                Optional<LocalDate> devolucion = random.nextBoolean() ? Optional.of(LocalDate.now()) : Optional.empty();
+                ids.add(prestamoRepository.save(new Prestamo(null, libro, usuario.getDni(), LocalDate.now(), devolucion)).getId());
+            }
+            if (i % 2_000 == 0 || i == 19_999) {
+                Map<Long, Long> cantidades = new HashMap<>();
+                prestamoRepository.findAll().forEach(prestamo -> cantidades.merge(prestamo.getLibroId(), 1L, Long::sum));
+                List<PuestoRanking> esperado = cantidades.entrySet().stream()
+                        .map(entrada -> new PuestoRanking(entrada.getKey(), null, entrada.getValue()))
+                        .sorted(Comparator.comparingLong(PuestoRanking::prestamos).reversed().thenComparing(PuestoRanking::id))
+                        .limit(PrestamoRepository.MAXIMO_RANKING)
+                        .toList();
+                assertEquals(esperado, prestamoRepository.findLibrosMasPrestados(PrestamoRepository.MAXIMO_RANKING));
+                assertEquals(ids.size(), prestamoRepository.countByUsuarioDni(usuario.getDni()));
+            }
+        }
+    }
+
+    @Test
+    void rankingDeLibrosQuedaAlDiaConCambiosCruzadosEntreHilos() throws InterruptedException {
+        // Varios hilos suben y bajan los mismos pocos libros a la vez, asi los acomodos de una clave se cruzan
+        int hilos = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        CountDownLatch largada = new CountDownLatch(1);
+        for (int h = 0; h < hilos; h++) {
+            int semilla = h;
+            executor.submit(() -> {
+                Random random = new Random(semilla);
+                List<Prestamo> propios = new ArrayList<>();
+                largada.await();
+                for (int i = 0; i < 3_000; i++) {
+                    int operacion = random.nextInt(4);
+                    if (operacion == 0 && !propios.isEmpty()) {
+                        prestamoRepository.deleteById(propios.remove(random.nextInt(propios.size())).getId());
+                    } else if (operacion == 1 && !propios.isEmpty()) {
+                        Prestamo prestamo = propios.get(random.nextInt(propios.size()));
+                        prestamo.setLibroId((long) random.nextInt(6));
+                        prestamoRepository.save(prestamo);
+                    } else {
+                        propios.add(prestamoRepository.save(
+                                new Prestamo(null, (long) random.nextInt(6), usuario.getDni(), LocalDate.now(), Optional.empty())));
+                    }
+                }
+                return null;
+            });
+        }
+        largada.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        Map<Long, Long> cantidades = new HashMap<>();
+        prestamoRepository.findAll().forEach(prestamo -> cantidades.merge(prestamo.getLibroId(), 1L, Long::sum));
+        List<PuestoRanking> esperado = cantidades.entrySet().stream()
+                .map(entrada -> new PuestoRanking(entrada.getKey(), null, entrada.getValue()))
+                .sorted(Comparator.comparingLong(PuestoRanking::prestamos).reversed().thenComparing(PuestoRanking::id))
+                .toList();
+        assertEquals(esperado, prestamoRepository.findLibrosMasPrestados(PrestamoRepository.MAXIMO_RANKING));
+    }
+}
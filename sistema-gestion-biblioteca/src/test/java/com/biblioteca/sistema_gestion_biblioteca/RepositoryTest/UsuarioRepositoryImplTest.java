@@ -1,13 +1,21 @@
 package com.biblioteca.sistema_gestion_biblioteca.RepositoryTest;
 
 import estados.EstadoUsuario;
+import exceptions.EmailDuplicadoExcepcion;
 import modelo.Usuario;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import repository.impl.UsuarioRepositoryImpl;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -173,4 +181,100 @@ class UsuarioRepositoryImplTest {
         // Act & Assert
         assertFalse(usuarioRepository.existsByDni(99L));
     }
+
+    @Test
+    void testGuardadoYBorradoConcurrenteMantieneConsistencia() throws InterruptedException {
+        // Arrange
+        int hilos = 8;
+        int usuariosPorHilo = 2_000;
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        CountDownLatch largada = new CountDownLatch(1);
+        Set<Long> dnisAsignados = ConcurrentHashMap.newKeySet();
+
+        // Act: cada hilo guarda sus usuarios y borra la mitad de ellos
+        for (int h = 0; h < hilos; h++) {
+            int hilo = h;
+            executor.submit(() -> {
+                largada.await();
+                for (int i = 0; i < usuariosPorHilo; i++) {
+                    Usuario usuario = new Usuario(null, "Usuario " + i, "u" + hilo + "." + i + "@example.com", EstadoUsuario.ACTIVO);
+                    Long dni = usuarioRepository.save(usuario).getDni();
+                    dnisAsignados.add(dni);
+                    if (i % 2 == 0) {
+                        usuarioRepository.deleteByDni(dni);
+                    }
+                }
+                return null;
+            });
+        }
+        largada.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Assert
+        assertEquals(hilos * usuariosPorHilo, dnisAsignados.size());
+        assertEquals(hilos * usuariosPorHilo / 2, usuarioRepository.findAll().size());
+    }
+
+    @Test
+    void testBuscarPorEmailIgnoraMayusculasYEspacios() {
+        Usuario usuario = usuarioRepository.save(new Usuario(null, "Ana Ruiz", "Ana.Ruiz@Example.com", EstadoUsuario.ACTIVO));
+
+        Optional<Usuario> foundUsuario = usuarioRepository.findByEmail(" ana.ruiz@example.COM ");
+
+        assertTrue(foundUsuario.isPresent());
+        assertEquals(usuario.getDni(), foundUsuario.get().getDni());
+    }
+
+    @Test
+    void testGuardarUsuarioConEmailDuplicadoLanzaExcepcion() {
+        usuarioRepository.save(new Usuario(null, "Ana Ruiz", "ana.ruiz@example.com", EstadoUsuario.ACTIVO));
+        Usuario duplicado = new Usuario(null, "Ana Ruiz Bis", "ANA.RUIZ@example.com", EstadoUsuario.ACTIVO);
+
+        assertThrows(EmailDuplicadoExcepcion.class, () -> usuarioRepository.save(duplicado));
+        assertNull(duplicado.getDni());
+        assertEquals(1, usuarioRepository.findAll().size());
+    }
+
+    @Test
+    void testActualizarEmailYEliminarMantienenElIndice() {
+        Usuario usuario = usuarioRepository.save(new Usuario(null, "Maria Lopez", "maria@example.com", EstadoUsuario.ACTIVO));
+
+        usuarioRepository.save(new Usuario(usuario.getDni(), "Maria Lopez", "maria.lopez@example.com", EstadoUsuario.ACTIVO));
+
+        assertTrue(usuarioRepository.findByEmail("maria@example.com").isEmpty());
+        assertTrue(usuarioRepository.findByEmail("maria.lopez@example.com").isPresent());
+
+        usuarioRepository.deleteByDni(usuario.getDni());
+
+        assertTrue(usuarioRepository.findByEmail("maria.lopez@example.com").isEmpty());
+        assertNotNull(usuarioRepository.save(new Usuario(null, "Otra Maria", "maria.lopez@example.com", EstadoUsuario.ACTIVO)).getDni());
+    }
+
+    @Test
+    void testFindAllAfterSalteaUsuariosEliminados() {
+        Usuario u1 = usuarioRepository.save(new Usuario(null, "Uno", "uno@example.com", EstadoUsuario.ACTIVO));
+        Usuario u2 = usuarioRepository.save(new Usuario(null, "Dos", "dos@example.com", EstadoUsuario.ACTIVO));
+        Usuario u3 = usuarioRepository.save(new Usuario(null, "Tres", "tres@example.com", EstadoUsuario.ACTIVO));
+
+        usuarioRepository.deleteByDni(u2.getDni());
+        List<Usuario> pagina = usuarioRepository.findAllAfter(null, 10);
+
+        assertEquals(List.of(u1, u3), pagina);
+        assertEquals(List.of(u3), usuarioRepository.findAllAfter(u1.getDni(), 10));
+    }
+
+    @Test
+    void testSaveAllReportaEmailsDuplicadosPorPosicion() {
+        List<Usuario> lote = List.of(
+                new Usuario(null, "Uno", "uno@example.com", EstadoUsuario.ACTIVO),
+                new Usuario(null, "Uno bis", "UNO@example.com", EstadoUsuario.ACTIVO),
+                new Usuario(null, "Dos", "dos@example.com", EstadoUsuario.ACTIVO));
+
+        Map<Integer, String> errores = usuarioRepository.saveAll(lote);
+
+        assertEquals(Set.of(1), errores.keySet());
+        assertEquals(2, usuarioRepository.findAll().size());
+        assertTrue(usuarioRepository.findByEmail("dos@example.com").isPresent());
+    }
 }
\ No newline at end of file
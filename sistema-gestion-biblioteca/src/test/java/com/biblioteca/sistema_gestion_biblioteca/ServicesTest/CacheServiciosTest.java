@@ -0,0 +1,158 @@
+package com.biblioteca.sistema_gestion_biblioteca.ServicesTest;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import estados.EstadoLibro;
+import estados.EstadoUsuario;
+import exceptions.LibroNoEncontradoException;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import modelo.Libro;
+import modelo.Usuario;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import repository.LibroRepository;
+import repository.UsuarioRepository;
+import repository.impl.LibroRepositoryImpl;
+import repository.impl.UsuarioRepositoryImpl;
+import services.impl.CacheConfig;
+import services.impl.LibroServiceImpl;
+import services.impl.UsuarioServiceImpl;
+import services.interfaces.LibroService;
+import services.interfaces.UsuarioService;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class CacheServiciosTest {
+
+    private AnnotationConfigApplicationContext contexto;
+    private LibroRepository libroRepository;
+    private UsuarioRepository usuarioRepository;
+    private LibroService libroService;
+    private UsuarioService usuarioService;
+
+    @Configuration
+    @Import(CacheConfig.class)
+    static class Configuracion {
+        @Bean
+        CaffeineCacheManager cacheManager() {
+            CaffeineCacheManager manager = new CaffeineCacheManager("libros", "librosPorIsbn", "usuarios");
+            manager.setCaffeine(Caffeine.newBuilder().maximumSize(100).recordStats());
+            return manager;
+        }
+
+        @Bean
+        LibroRepository libroRepository() {
+            return spy(new LibroRepositoryImpl());
+        }
+
+        @Bean
+        UsuarioRepository usuarioRepository() {
+            return spy(new UsuarioRepositoryImpl());
+        }
+
+        @Bean
+        LibroService libroService(LibroRepository libroRepository, CaffeineCacheManager cacheManager) {
+            return new LibroServiceImpl(libroRepository, cacheManager);
+        }
+
+        @Bean
+        UsuarioService usuarioService(UsuarioRepository usuarioRepository) {
+            return new UsuarioServiceImpl(usuarioRepository);
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        contexto = new AnnotationConfigApplicationContext(Configuracion.class);
+        libroRepository = contexto.getBean(LibroRepository.class);
+        usuarioRepository = contexto.getBean(UsuarioRepository.class);
+        libroService = contexto.getBean(LibroService.class);
+        usuarioService = contexto.getBean(UsuarioService.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        contexto.close();
+    }
+
+    @Test
+    void lasLecturasRepetidasNoLleganAlRepositorioYActualizarInvalida() {
+        // Arrange
+        Libro libro = libroService.guardar(new Libro(null, "978-1", "Rayuela", "Cortazar", EstadoLibro.DISPONIBLE));
+
+        // Act
+        libroService.buscarPorId(libro.getId());
+        libroService.buscarLibro(libro.getId());
+        libroService.buscarPorIsbn("978-1");
+        libroService.buscarPorIsbn("978-1");
+        Libro actualizado = libroService.actualizar(libro.getId(), new Libro(null, "978-2", "Rayuela", "Julio Cortazar", EstadoLibro.DISPONIBLE));
+
+        // Assert
+        verify(libroRepository, times(1)).findById(libro.getId());
+        verify(libroRepository, times(1)).findByIsbn("978-1");
+        assertSame(actualizado, libroService.buscarPorId(libro.getId()));
+        assertThrows(LibroNoEncontradoException.class, () -> libroService.buscarPorIsbn("978-1"), "El isbn viejo ya no esta en la cache");
+        libroService.eliminar(libro.getId());
+        assertEquals(Optional.empty(), libroService.buscarLibro(libro.getId()));
+    }
+
+    @Test
+    void unaLecturaQueSeCruzaConUnaActualizacionNoDejaElLibroViejoEnLaCache() {
+        // Arrange: la lectura encuentra el libro viejo y, antes de guardarlo en la cache, otro lo actualiza
+        Libro viejo = libroService.guardar(new Libro(null, "978-1", "Rayuela", "Cortazar", EstadoLibro.DISPONIBLE));
+        Long id = viejo.getId();
+        Libro[] actualizado = new Libro[1];
+        doAnswer(invocacion -> {
+            Optional<?> leido = (Optional<?>) invocacion.callRealMethod();
+            if (actualizado[0] == null) {
+                actualizado[0] = libroService.actualizar(id, new Libro(null, "978-1", "Rayuela", "Julio Cortazar", EstadoLibro.PRESTADO));
+            }
+            return leido;
+        }).when(libroRepository).findById(id);
+
+        // Act
+        Optional<Libro> cruzada = libroService.buscarLibro(id);
+        long version = libroService.versionLibro(id);
+        Optional<Libro> siguiente = libroService.buscarLibro(id);
+
+        // Assert: la lectura cruzada ve el viejo, pero las siguientes ya no, aunque el viejo haya quedado en la cache
+        assertSame(viejo, cruzada.orElseThrow());
+        assertSame(actualizado[0], siguiente.orElseThrow());
+        assertSame(actualizado[0], libroService.buscarPorId(id));
+        assertEquals(version, libroService.versionLibro(id));
+        verify(libroRepository, times(2)).findById(id);
+    }
+
+    @Test
+    void bloquearYActivarInvalidanAlUsuarioYSePublicanLasEstadisticas() {
+        // Arrange
+        SimpleMeterRegistry registro = new SimpleMeterRegistry();
+        CaffeineCache cache = (CaffeineCache) contexto.getBean(CaffeineCacheManager.class).getCache("usuarios");
+        CaffeineCacheMetrics.monitor(registro, cache.getNativeCache(), "usuarios");
+        Usuario usuario = usuarioService.guardarUsuario(new Usuario(null, "Ana", "ana@mail.com", EstadoUsuario.ACTIVO));
+
+        // Act
+        usuarioService.obtenerUsuarioPorDni(usuario.getDni());
+        usuarioService.bloquearUsuario(usuario.getDni());
+        EstadoUsuario bloqueado = usuarioService.obtenerUsuarioPorDni(usuario.getDni()).getEstadoUsuario();
+        usuarioService.obtenerUsuarioPorDni(usuario.getDni());
+        usuarioService.activarUsuario(usuario.getDni());
+        EstadoUsuario activo = usuarioService.buscarUsuario(usuario.getDni()).orElseThrow().getEstadoUsuario();
+
+        // Assert
+        assertEquals(EstadoUsuario.BLOQUEADO, bloqueado);
+        assertEquals(EstadoUsuario.ACTIVO, activo);
+        assertEquals(1.0, registro.get("cache.gets").tags("cache", "usuarios", "result", "hit").functionCounter().count());
+        assertEquals(3.0, registro.get("cache.gets").tags("cache", "usuarios", "result", "miss").functionCounter().count());
+    }
+}
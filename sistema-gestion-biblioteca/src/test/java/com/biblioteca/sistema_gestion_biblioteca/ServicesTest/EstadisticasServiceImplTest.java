@@ -0,0 +1,60 @@
+package com.biblioteca.sistema_gestion_biblioteca.ServicesTest;
+
+import estados.EstadoLibro;
+import estados.EstadoUsuario;
+import modelo.Libro;
+import modelo.PuestoRanking;
+import modelo.Usuario;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import repository.LibroRepository;
+import repository.PrestamoRepository;
+import repository.UsuarioRepository;
+import services.impl.EstadisticasServiceImpl;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class EstadisticasServiceImplTest {
+
+    @Mock
+    private PrestamoRepository prestamoRepository;
+
+    @Mock
+    private LibroRepository libroRepository;
+
+    @Mock
+    private UsuarioRepository usuarioRepository;
+
+    @InjectMocks
+    private EstadisticasServiceImpl estadisticasService;
+
+    @Test
+    void librosMasPrestadosAgregaElTituloYAcotaElLimite() {
+        when(prestamoRepository.findLibrosMasPrestados(PrestamoRepository.MAXIMO_RANKING))
+                .thenReturn(List.of(new PuestoRanking(1L, null, 9), new PuestoRanking(2L, null, 4)));
+        when(libroRepository.findById(1L)).thenReturn(Optional.of(new Libro(1L, "978-1", "Rayuela", "Julio Cortazar", EstadoLibro.DISPONIBLE)));
+        when(libroRepository.findById(2L)).thenReturn(Optional.empty());
+
+        List<PuestoRanking> ranking = estadisticasService.librosMasPrestados(1_000);
+
+        // Un libro ya borrado sigue en el ranking, sin titulo
+        assertEquals(List.of(new PuestoRanking(1L, "Rayuela", 9), new PuestoRanking(2L, null, 4)), ranking);
+    }
+
+    @Test
+    void prestamosDeUsuarioUsaElContadorDelRepositorio() {
+        when(prestamoRepository.countByUsuarioDni(7L)).thenReturn(12L);
+        when(usuarioRepository.findByDni(7L)).thenReturn(Optional.of(new Usuario(7L, "Ana", "ana@mail.com", EstadoUsuario.ACTIVO)));
+
+        assertEquals(new PuestoRanking(7L, "Ana", 12), estadisticasService.prestamosDeUsuario(7L));
+        verify(prestamoRepository, never()).findAll();
+    }
+}
@@ -3,6 +3,7 @@ package com.biblioteca.sistema_gestion_biblioteca.ServicesTest;
 import estados.EstadoLibro;
 import exceptions.LibroNoEncontradoException;
 import modelo.Libro;
+import modelo.Pagina;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -146,4 +147,56 @@ class LibroServiceImplTest {
         verify(libroRepository).existsById(id);
         verify(libroRepository, never()).save(any(Libro.class));
     }
+
+    @Test
+    void obtenerPaginaDevuelveCursorSiguienteCuandoLaPaginaEstaLlena() {
+        when(libroRepository.findAllAfter(null, 2)).thenReturn(List.of(libro1, libro2));
+
+        Pagina<Libro> pagina = libroService.obtenerPagina(null, 2);
+
+        assertEquals(List.of(libro1, libro2), pagina.getElementos());
+        assertEquals(2L, pagina.getSiguiente());
+    }
+
+    @Test
+    void obtenerPaginaSinMasResultadosNoTieneCursorYAcotaElLimite() {
+        when(libroRepository.findAllAfter(2L, Pagina.LIMITE_MAXIMO)).thenReturn(List.of());
+
+        Pagina<Libro> pagina = libroService.obtenerPagina(2L, 1_000_000);
+
+        assertTrue(pagina.getElementos().isEmpty());
+        assertNull(pagina.getSiguiente());
+        verify(libroRepository).findAllAfter(2L, Pagina.LIMITE_MAXIMO);
+    }
+
+    @Test
+    void buscarLibroDevuelveVacioSinLanzarCuandoNoExiste() {
+        when(libroRepository.findById(99L)).thenReturn(Optional.empty());
+
+        Optional<Libro> resultado = libroService.buscarLibro(99L);
+
+        assertTrue(resultado.isEmpty());
+        verify(libroRepository).findById(99L);
+    }
+
+    @Test
+    void buscarPorIdNoExistenteLanzaExcepcionSinTraza() {
+        when(libroRepository.findById(99L)).thenReturn(Optional.empty());
+
+        LibroNoEncontradoException excepcion = assertThrows(LibroNoEncontradoException.class, () -> libroService.buscarPorId(99L));
+
+        assertEquals(0, excepcion.getStackTrace().length);
+        assertEquals("Libro no encontrado por el ID: 99", excepcion.getMessage());
+    }
+
+    @Test
+    void obtenerPaginaPorEstadoDevuelveCursorYAcotaElLimite() {
+        when(libroRepository.findByEstadoAfter(EstadoLibro.DISPONIBLE, null, Pagina.LIMITE_MAXIMO)).thenReturn(List.of(libro1));
+
+        Pagina<Libro> pagina = libroService.obtenerPaginaPorEstado(EstadoLibro.DISPONIBLE, null, 1_000_000);
+
+        assertEquals(List.of(libro1), pagina.getElementos());
+        assertNull(pagina.getSiguiente());
+        verify(libroRepository).findByEstadoAfter(EstadoLibro.DISPONIBLE, null, Pagina.LIMITE_MAXIMO);
+    }
 }
@@ -0,0 +1,58 @@
+package com.biblioteca.sistema_gestion_biblioteca.ServicesTest;
+
+import estados.EstadoLibro;
+import exceptions.LibroNoEncontradoException;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import metricas.MetricasAspecto;
+import modelo.Libro;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import repository.impl.LibroRepositoryImpl;
+import services.impl.LibroServiceImpl;
+import services.interfaces.LibroService;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricasAspectoTest {
+
+    private SimpleMeterRegistry registro;
+    private LibroService libroService;
+
+    @BeforeEach
+    void setUp() {
+        registro = new SimpleMeterRegistry();
+        AspectJProxyFactory fabrica = new AspectJProxyFactory(new LibroServiceImpl(new LibroRepositoryImpl()));
+        fabrica.addAspect(new MetricasAspecto(registro));
+        libroService = fabrica.getProxy();
+    }
+
+    @Test
+    void cuentaLlamadasExitosasPorMetodo() {
+        // Act
+        libroService.guardar(new Libro(null, "978-1", "Rayuela", "Cortazar", EstadoLibro.DISPONIBLE));
+        libroService.guardar(new Libro(null, "978-2", "Ficciones", "Borges", EstadoLibro.DISPONIBLE));
+
+        // Assert
+        Timer timer = registro.get("biblioteca.metodo")
+                .tags("capa", "servicio", "clase", "LibroServiceImpl", "metodo", "guardar", "excepcion", "none")
+                .timer();
+        assertEquals(2, timer.count());
+        assertTrue(timer.totalTime(TimeUnit.NANOSECONDS) > 0);
+    }
+
+    @Test
+    void registraLaExcepcionYLaVuelveALanzar() {
+        // Act
+        assertThrows(LibroNoEncontradoException.class, () -> libroService.eliminar(99L));
+
+        // Assert
+        Timer timer = registro.get("biblioteca.metodo")
+                .tags("metodo", "eliminar", "excepcion", "LibroNoEncontradoException")
+                .timer();
+        assertEquals(1, timer.count());
+    }
+}
@@ -1,11 +1,18 @@
 package com.biblioteca.sistema_gestion_biblioteca;
 import estados.EstadoLibro;
 import estados.EstadoUsuario;
+import exceptions.LibroNoEncontradoException;
 import exceptions.PrestamoNoEncontradoExcepcion;
+import exceptions.PrestamoNoPermitidoExcepcion;
+import exceptions.UsuarioNoEncontradoExcepcion;
 import modelo.Libro;
 import modelo.Prestamo;
 import modelo.Usuario;
+import org.mockito.Spy;
 import repository.PrestamoRepository;
+import repository.impl.LibroRepositoryImpl;
+import repository.impl.PrestamoRepositoryImpl;
+import repository.impl.UsuarioRepositoryImpl;
 import services.impl.PrestamoServiceImpl;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -14,11 +21,23 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import repository.LibroRepository;
+import repository.UsuarioRepository;
+import services.impl.PropiedadesPrestamos;
+import services.impl.RevisorVencimientos;
+import services.impl.UsuarioServiceImpl;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -32,6 +51,12 @@ class PrestamoServiceImplTest {
     @Mock // Asegúrate de que LibroRepository también esté mockeado
     private LibroRepository libroRepository;
 
+    @Mock
+    private UsuarioRepository usuarioRepository;
+
+    @Spy
+    private PropiedadesPrestamos propiedades = new PropiedadesPrestamos();
+
     @InjectMocks
     private PrestamoServiceImpl prestamoService;
 
@@ -73,8 +98,8 @@ class PrestamoServiceImplTest {
 
         // Assert
         assertNotNull(resultado);
-        assertEquals(libroAPrestar, resultado.getLibroPrestado());
-        assertEquals(usuarioPrestando, resultado.getUsuarioPrestatario());
+        assertEquals(libroAPrestar.getId(), resultado.getLibroId());
+        assertEquals(usuarioPrestando.getDni(), resultado.getUsuarioDni());
         assertEquals(fechaPrestamoEsperada, resultado.getFechaPrestamo());
         assertEquals(fechaDevolucionEsperada, resultado.getFechaDevolucion().get()); // Accede al LocalDate dentro del Optional
         verify(prestamoRepository).save(any(Prestamo.class));
@@ -94,7 +119,7 @@ class PrestamoServiceImplTest {
         // Assert
         assertNotNull(resultado);
         assertEquals(1, resultado.size());
-        assertEquals(usuario1, resultado.get(0).getUsuarioPrestatario());
+        assertEquals(usuario1.getDni(), resultado.get(0).getUsuarioDni());
         verify(prestamoRepository).findByUsuarioDni(usuarioDni);
     }
 
@@ -127,7 +152,7 @@ class PrestamoServiceImplTest {
         // Assert
         assertNotNull(resultado);
         assertEquals(1, resultado.size());
-        assertEquals(libro1, resultado.get(0).getLibroPrestado());
+        assertEquals(libro1.getId(), resultado.get(0).getLibroId());
         verify(prestamoRepository).findByLibroId(libroId);
     }
 
@@ -150,6 +175,7 @@ class PrestamoServiceImplTest {
     void marcarComoDevueltoUsuarioExistente() {
         // Arrange
         Long idADevolver = 1L;
+        prestamo1.setFechaDevolucion(Optional.empty()); // Un prestamo abierto todavia no tiene fecha de devolucion
         when(prestamoRepository.findById(idADevolver)).thenReturn(Optional.of(prestamo1));
         Prestamo prestamoDevuelto = new Prestamo(1L, libro1, usuario1, LocalDate.now(), Optional.of(LocalDate.now().plusDays(7))); // Simula el mismo préstamo
         prestamoDevuelto.setFechaDevolucion(Optional.of(LocalDate.now()));
@@ -160,7 +186,7 @@ class PrestamoServiceImplTest {
 
         // Assert
         assertEquals(LocalDate.now(), prestamo1.getFechaDevolucion().get()); // Accede al LocalDate dentro del Optional
-        verify(prestamoRepository).findById(idADevolver);
+        verify(prestamoRepository, times(2)).findById(idADevolver); // Se relee bajo el cerrojo del libro
         verify(prestamoRepository).save(any(Prestamo.class)); // Usa any(Prestamo.class)
     }
 
@@ -176,4 +202,431 @@ class PrestamoServiceImplTest {
         verify(prestamoRepository, never()).save(any(Prestamo.class));
         
     }
+
+    @Test
+    void marcarComoDevueltoDosVecesLanzaExcepcion() {
+        // Arrange
+        prestamo1.setFechaDevolucion(Optional.of(LocalDate.now().minusDays(1))); // Ya devuelto
+        when(prestamoRepository.findById(1L)).thenReturn(Optional.of(prestamo1));
+
+        // Act & Assert
+        assertThrows(PrestamoNoPermitidoExcepcion.class, () -> prestamoService.marcarComoDevuelto(1L));
+        verify(prestamoRepository, never()).save(any(Prestamo.class));
+        verify(libroRepository, never()).save(any(Libro.class));
+    }
+
+    @Test
+    void marcarComoDevueltoSinLibroLanzaExcepcion() {
+        // Arrange
+        Prestamo sinLibro = new Prestamo(3L, (Long) null, usuario1.getDni(), LocalDate.now(), Optional.empty());
+        when(prestamoRepository.findById(3L)).thenReturn(Optional.of(sinLibro));
+
+        // Act & Assert
+        assertThrows(PrestamoNoPermitidoExcepcion.class, () -> prestamoService.marcarComoDevuelto(3L));
+        verify(prestamoRepository, never()).save(any(Prestamo.class));
+    }
+
+    @Test
+    void cambiarFechaDevolucionDevuelveOReabreSegunElLibro() {
+        // Arrange
+        LibroRepositoryImpl libros = new LibroRepositoryImpl();
+        PrestamoRepositoryImpl prestamos = new PrestamoRepositoryImpl();
+        UsuarioRepositoryImpl usuarios = new UsuarioRepositoryImpl();
+        usuarios.save(usuario1);
+        PrestamoServiceImpl servicio = new PrestamoServiceImpl(prestamos, libros, usuarios);
+        Libro libro = libros.save(new Libro(null, "978-fecha", "Con fecha", "Autor", EstadoLibro.DISPONIBLE));
+        Prestamo primero = servicio.realizarPrestamo(libro, usuario1);
+        Optional<LocalDate> ayer = Optional.of(LocalDate.now().minusDays(1));
+
+        // Act & Assert: poner la fecha lo devuelve y libera el libro, sin tocar el objeto guardado
+        Prestamo devuelto = servicio.cambiarFechaDevolucion(primero.getId(), ayer);
+        assertEquals(ayer, fechaDevolucion(prestamos, primero.getId()));
+        assertFalse(primero.estaDevuelto());
+        assertEquals(primero.getFechaVencimiento(), devuelto.getFechaVencimiento());
+        assertEquals(EstadoLibro.DISPONIBLE, libros.findById(libro.getId()).orElseThrow().getEstadoLibro());
+
+        // Con el libro prestado a otro no se puede reabrir
+        Prestamo segundo = servicio.realizarPrestamo(libro, usuario1);
+        assertThrows(PrestamoNoPermitidoExcepcion.class, () -> servicio.cambiarFechaDevolucion(primero.getId(), Optional.empty()));
+        assertEquals(ayer, fechaDevolucion(prestamos, primero.getId()));
+        assertEquals(1, prestamos.countActivosByUsuarioDni(usuario1.getDni()));
+
+        // Con el libro devuelto si, y vuelve a quedar prestado
+        servicio.marcarComoDevuelto(segundo.getId());
+        servicio.cambiarFechaDevolucion(primero.getId(), Optional.empty());
+        assertTrue(fechaDevolucion(prestamos, primero.getId()).isEmpty());
+        assertEquals(EstadoLibro.PRESTADO, libros.findById(libro.getId()).orElseThrow().getEstadoLibro());
+        assertThrows(LibroNoEncontradoException.class, () -> servicio.realizarPrestamo(libro, usuario1));
+        assertThrows(PrestamoNoEncontradoExcepcion.class, () -> servicio.cambiarFechaDevolucion(999L, ayer));
+    }
+
+    private static Optional<LocalDate> fechaDevolucion(PrestamoRepository prestamos, Long id) {
+        return prestamos.findById(id).orElseThrow().getFechaDevolucion();
+    }
+
+    @Test
+    void guardarPrestamoAbiertoPasaPorLosControlesDelPrestamo() {
+        // Arrange
+        LibroRepositoryImpl libros = new LibroRepositoryImpl();
+        PrestamoRepositoryImpl prestamos = new PrestamoRepositoryImpl();
+        UsuarioRepositoryImpl usuarios = new UsuarioRepositoryImpl();
+        usuarios.save(usuario1);
+        Usuario bloqueado = usuarios.save(new Usuario(99L, "Bloqueado", "bloqueado@mail.com", EstadoUsuario.BLOQUEADO));
+        PrestamoServiceImpl servicio = new PrestamoServiceImpl(prestamos, libros, usuarios);
+        Libro libro = libros.save(new Libro(null, "978-post", "Por POST", "Autor", EstadoLibro.DISPONIBLE));
+
+        // Act & Assert: un usuario bloqueado no se lo lleva
+        assertThrows(PrestamoNoPermitidoExcepcion.class, () -> servicio.guardarPrestamo(
+                new Prestamo(null, libro.getId(), bloqueado.getDni(), LocalDate.now(), Optional.empty())));
+        assertEquals(EstadoLibro.DISPONIBLE, libros.findById(libro.getId()).orElseThrow().getEstadoLibro());
+
+        // Uno abierto queda como un prestamo comun: con vencimiento y el libro prestado
+        Prestamo abierto = servicio.guardarPrestamo(new Prestamo(null, libro.getId(), usuario1.getDni(), LocalDate.now(), Optional.empty()));
+        assertEquals(LocalDate.now().plusDays(14), abierto.getFechaVencimiento());
+        assertEquals(EstadoLibro.PRESTADO, libros.findById(libro.getId()).orElseThrow().getEstadoLibro());
+        assertThrows(PrestamoNoPermitidoExcepcion.class, () -> servicio.guardarPrestamo(
+                new Prestamo(null, libro.getId(), usuario1.getDni(), LocalDate.now(), Optional.empty())));
+
+        // No pisa uno existente: para eso esta el PUT
+        assertThrows(PrestamoNoPermitidoExcepcion.class, () -> servicio.guardarPrestamo(
+                new Prestamo(abierto.getId(), libro.getId(), usuario1.getDni(), LocalDate.now(), Optional.of(LocalDate.now()))));
+        assertEquals(1, prestamos.countActivosByUsuarioDni(usuario1.getDni()));
+
+        // Uno ya devuelto se guarda tal cual, sin tocar el libro
+        servicio.guardarPrestamo(new Prestamo(null, libro.getId(), usuario1.getDni(), LocalDate.now().minusDays(30),
+                Optional.of(LocalDate.now().minusDays(20))));
+        assertEquals(2, prestamos.countByLibroId(libro.getId()));
+        assertEquals(EstadoLibro.PRESTADO, libros.findById(libro.getId()).orElseThrow().getEstadoLibro());
+    }
+
+    @Test
+    void realizarPrestamoConcurrenteSobreElMismoLibroSoloUnoGana() throws InterruptedException {
+        // Arrange: repositorios reales, cada hilo trae su propia copia (desactualizada) del libro
+        LibroRepositoryImpl libros = new LibroRepositoryImpl();
+        PrestamoServiceImpl servicio = new PrestamoServiceImpl(new PrestamoRepositoryImpl(), libros, new UsuarioRepositoryImpl());
+        Libro libro = libros.save(new Libro(null, "978-unico", "Unico ejemplar", "Autor", EstadoLibro.DISPONIBLE));
+        int hilos = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        CountDownLatch largada = new CountDownLatch(1);
+        AtomicInteger exitos = new AtomicInteger();
+
+        // Act
+        for (int h = 0; h < hilos; h++) {
+            executor.submit(() -> {
+                Libro copia = new Libro(libro.getId(), libro.getIsbn(), libro.getTitulo(), libro.getAutor(), EstadoLibro.DISPONIBLE);
+                largada.await();
+                try {
+                    servicio.realizarPrestamo(copia, usuario1);
+                    exitos.incrementAndGet();
+                } catch (LibroNoEncontradoException e) {
+                    // Otro hilo se lo llevo primero
+                }
+                return null;
+            });
+        }
+        largada.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Assert
+        assertEquals(1, exitos.get());
+        assertEquals(1, servicio.obtenerPrestamosPorLibro(libro.getId()).size());
+        assertEquals(EstadoLibro.PRESTADO, libros.findById(libro.getId()).get().getEstadoLibro());
+    }
+
+    @Test
+    void prestamosYDevolucionesConcurrentesNuncaDejanDosPrestamosAbiertos() throws InterruptedException {
+        // Arrange
+        LibroRepositoryImpl libros = new LibroRepositoryImpl();
+        PrestamoRepositoryImpl prestamos = new PrestamoRepositoryImpl();
+        PrestamoServiceImpl servicio = new PrestamoServiceImpl(prestamos, libros, new UsuarioRepositoryImpl());
+        Libro libro = libros.save(new Libro(null, "978-ciclo", "Muy pedido", "Autor", EstadoLibro.DISPONIBLE));
+        int hilos = 8;
+        int intentosPorHilo = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(hilos);
+        CountDownLatch largada = new CountDownLatch(1);
+        AtomicInteger maximoAbiertos = new AtomicInteger();
+        AtomicInteger exitos = new AtomicInteger();
+
+        // Act: cada hilo intenta llevarse el libro y, si lo consigue, lo devuelve
+        for (int h = 0; h < hilos; h++) {
+            executor.submit(() -> {
+                largada.await();
+                for (int i = 0; i < intentosPorHilo; i++) {
+                    Prestamo prestamo;
+                    try {
+                        prestamo = servicio.realizarPrestamo(libro, usuario1);
+                    } catch (LibroNoEncontradoException e) {
+                        continue;
+                    }
+                    // Se cuentan los abiertos guardados y no con un contador propio: el prestamo esta abierto hasta que
+                    // la devolucion lo guarda, y otro hilo puede llevarse el libro antes de que este vuelva de marcarComoDevuelto
+                    maximoAbiertos.accumulateAndGet(abiertos(prestamos, libro.getId()), Math::max);
+                    exitos.incrementAndGet();
+                    servicio.marcarComoDevuelto(prestamo.getId());
+                }
+                return null;
+            });
+        }
+        largada.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Assert
+        assertEquals(1, maximoAbiertos.get());
+        assertEquals(exitos.get(), servicio.obtenerPrestamosPorLibro(libro.getId()).size());
+        assertTrue(servicio.obtenerPrestamosPorLibro(libro.getId()).stream()
+                .allMatch(p -> p.getFechaDevolucion().isPresent()));
+        assertEquals(EstadoLibro.DISPONIBLE, libros.findById(libro.getId()).get().getEstadoLibro());
+    }
+
+    private static int abiertos(PrestamoRepository prestamos, Long libroId) {
+        return (int) prestamos.findByLibroId(libroId).stream().filter(prestamo -> !prestamo.estaDevuelto()).count();
+    }
+
+    @Test
+    void libroYUsuarioSeResuelvenRecienCuandoSePiden() {
+        // Arrange
+        when(libroRepository.findById(10L)).thenReturn(Optional.of(libro1));
+        when(usuarioRepository.findByDni(1L)).thenReturn(Optional.of(usuario1));
+
+        // Act
+        Optional<Libro> libro = prestamoService.libroDe(prestamo1);
+        Optional<Usuario> usuario = prestamoService.usuarioDe(prestamo1);
+
+        // Assert
+        assertEquals(Optional.of(libro1), libro);
+        assertEquals(Optional.of(usuario1), usuario);
+        assertTrue(prestamoService.libroDe(new Prestamo()).isEmpty());
+        verify(libroRepository, times(1)).findById(any());
+    }
+
+    @Test
+    void realizarPrestamoCalculaElVencimientoConElPlazoConfigurado() {
+        // Arrange
+        propiedades.setDiasPlazo(21);
+        Libro libroAPrestar = new Libro(10L, "978-123", "Título Prestar", "Autor Prestar", EstadoLibro.DISPONIBLE);
+        when(libroRepository.findById(10L)).thenReturn(Optional.of(libroAPrestar));
+        when(prestamoRepository.save(any(Prestamo.class))).thenAnswer(invocacion -> invocacion.getArgument(0));
+
+        // Act
+        Prestamo resultado = prestamoService.realizarPrestamo(libroAPrestar, usuario1);
+
+        // Assert
+        assertEquals(LocalDate.now().plusDays(21), resultado.getFechaVencimiento());
+        assertFalse(resultado.estaVencido(LocalDate.now().plusDays(21)));
+        assertTrue(resultado.estaVencido(LocalDate.now().plusDays(22)));
+    }
+
+    @Test
+    void revisorDeVencimientosBloqueaUnaSolaVezALosMorosos() {
+        // Arrange
+        LibroRepositoryImpl libros = new LibroRepositoryImpl();
+        UsuarioRepositoryImpl usuarios = new UsuarioRepositoryImpl();
+        PrestamoServiceImpl servicio = new PrestamoServiceImpl(new PrestamoRepositoryImpl(), libros, usuarios);
+        UsuarioServiceImpl usuarioService = new UsuarioServiceImpl(usuarios);
+        Usuario moroso = usuarios.save(new Usuario(null, "Moroso", "moroso@mail.com", EstadoUsuario.ACTIVO));
+        Usuario cumplidor = usuarios.save(new Usuario(null, "Cumplidor", "cumplidor@mail.com", EstadoUsuario.ACTIVO));
+        servicio.realizarPrestamo(libros.save(new Libro(null, "978-1", "Uno", "Autor", EstadoLibro.DISPONIBLE)), moroso);
+        servicio.realizarPrestamo(libros.save(new Libro(null, "978-2", "Dos", "Autor", EstadoLibro.DISPONIBLE)), moroso);
+        Prestamo devuelto = servicio.realizarPrestamo(libros.save(new Libro(null, "978-3", "Tres", "Autor", EstadoLibro.DISPONIBLE)), cumplidor);
+        servicio.marcarComoDevuelto(devuelto.getId());
+        PropiedadesPrestamos configuracion = new PropiedadesPrestamos();
+        configuracion.setBloquearMorosos(true);
+        RevisorVencimientos revisor = new RevisorVencimientos(servicio, usuarioService, configuracion);
+        LocalDate pasadoElPlazo = LocalDate.now().plusDays(configuracion.getDiasPlazo() + 1);
+
+        // Act
+        Set<Long> antesDelPlazo = revisor.revisar(LocalDate.now());
+        Set<Long> primeraPasada = revisor.revisar(pasadoElPlazo);
+        Set<Long> segundaPasada = revisor.revisar(pasadoElPlazo);
+
+        // Assert
+        assertTrue(antesDelPlazo.isEmpty());
+        assertEquals(Set.of(moroso.getDni()), primeraPasada);
+        assertTrue(segundaPasada.isEmpty(), "Un usuario ya bloqueado no se vuelve a guardar");
+        assertEquals(EstadoUsuario.BLOQUEADO, usuarios.findByDni(moroso.getDni()).orElseThrow().getEstadoUsuario());
+        assertEquals(EstadoUsuario.ACTIVO, usuarios.findByDni(cumplidor.getDni()).orElseThrow().getEstadoUsuario());
+        assertEquals(2, servicio.obtenerPrestamosVencidos(pasadoElPlazo, 10).size());
+    }
+
+    @Test
+    void realizarPrestamoRechazaUsuariosBloqueadosOInactivos() {
+        // Arrange: el objeto recibido dice ACTIVO pero el guardado esta bloqueado
+        Libro libroAPrestar = new Libro(10L, "978-123", "Título Prestar", "Autor Prestar", EstadoLibro.DISPONIBLE);
+        Usuario bloqueado = new Usuario(1L, "Ian Olmedo", "ianolmedo@gmail.com", EstadoUsuario.BLOQUEADO);
+        when(usuarioRepository.findByDni(1L)).thenReturn(Optional.of(bloqueado));
+        Usuario inactivo = new Usuario(2L, "Otro", "otro@gmail.com", EstadoUsuario.INACTIVO);
+
+        // Act & Assert
+        assertThrows(PrestamoNoPermitidoExcepcion.class, () -> prestamoService.realizarPrestamo(libroAPrestar, usuario1));
+        assertThrows(PrestamoNoPermitidoExcepcion.class, () -> prestamoService.realizarPrestamo(libroAPrestar, inactivo));
+        assertEquals(EstadoLibro.DISPONIBLE, libroAPrestar.getEstadoLibro());
+        verify(prestamoRepository, never()).save(any(Prestamo.class));
+    }
+
+    @Test
+    void realizarPrestamoRespetaElMaximoAunConPedidosSimultaneos() throws InterruptedException {
+        // Arrange
+        LibroRepositoryImpl libros = new LibroRepositoryImpl();
+        PrestamoRepositoryImpl prestamos = new PrestamoRepositoryImpl();
+        PropiedadesPrestamos configuracion = new PropiedadesPrestamos();
+        configuracion.setMaximoPorUsuario(3);
+        PrestamoServiceImpl servicio = new PrestamoServiceImpl(prestamos, libros, new UsuarioRepositoryImpl(), configuracion);
+        List<Libro> disponibles = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            disponibles.add(libros.save(new Libro(null, "978-" + i, "Libro " + i, "Autor", EstadoLibro.DISPONIBLE)));
+        }
+        AtomicInteger rechazados = new AtomicInteger();
+        CountDownLatch largada = new CountDownLatch(1);
+        ExecutorService ejecutor = Executors.newFixedThreadPool(8);
+
+        // Act
+        for (Libro libro : disponibles) {
+            ejecutor.submit(() -> {
+                largada.await();
+                try {
+                    servicio.realizarPrestamo(libro, usuario1);
+                } catch (PrestamoNoPermitidoExcepcion e) {
+                    rechazados.incrementAndGet();
+                }
+                return null;
+            });
+        }
+        largada.countDown();
+        ejecutor.shutdown();
+        assertTrue(ejecutor.awaitTermination(10, TimeUnit.SECONDS));
+
+        // Assert
+        assertEquals(3, prestamos.countActivosByUsuarioDni(usuario1.getDni()));
+        assertEquals(13, rechazados.get());
+        Prestamo devuelto = prestamos.findByUsuarioDni(usuario1.getDni()).get(0);
+        servicio.marcarComoDevuelto(devuelto.getId());
+        assertEquals(2, prestamos.countActivosByUsuarioDni(usuario1.getDni()));
+    }
+
+    @Test
+    void realizarYDevolverPrestamosEnLoteSonTodoONada() {
+        // Arrange
+        LibroRepositoryImpl libros = new LibroRepositoryImpl();
+        PrestamoRepositoryImpl prestamos = new PrestamoRepositoryImpl();
+        UsuarioRepositoryImpl usuarios = new UsuarioRepositoryImpl();
+        usuarios.save(usuario1);
+        PrestamoServiceImpl servicio = new PrestamoServiceImpl(prestamos, libros, usuarios);
+        List<Long> canasto = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            canasto.add(libros.save(new Libro(null, "978-" + i, "Libro " + i, "Autor", EstadoLibro.DISPONIBLE)).getId());
+        }
+        Long enReparacion = libros.save(new Libro(null, "978-r", "Roto", "Autor", EstadoLibro.EN_REPARACION)).getId();
+
+        // Act & Assert: un libro no disponible, uno inexistente o uno repetido rechazan todo el canasto
+        List<Long> conRoto = new ArrayList<>(canasto);
+        conRoto.add(enReparacion);
+        assertThrows(PrestamoNoPermitidoExcepcion.class, () -> servicio.realizarPrestamos(usuario1.getDni(), conRoto));
+        assertThrows(LibroNoEncontradoException.class, () -> servicio.realizarPrestamos(usuario1.getDni(), List.of(canasto.get(0), 999L)));
+        assertThrows(PrestamoNoPermitidoExcepcion.class,
+                () -> servicio.realizarPrestamos(usuario1.getDni(), List.of(canasto.get(0), canasto.get(0))));
+        assertEquals(3, libros.countByEstado(EstadoLibro.DISPONIBLE));
+        assertEquals(0, prestamos.countActivosByUsuarioDni(usuario1.getDni()));
+
+        List<Prestamo> prestados = servicio.realizarPrestamos(usuario1.getDni(), canasto);
+
+        assertEquals(canasto, prestados.stream().map(Prestamo::getLibroId).toList());
+        assertEquals(3, prestamos.countActivosByUsuarioDni(usuario1.getDni()));
+        assertEquals(3, libros.countByEstado(EstadoLibro.PRESTADO));
+        prestados.forEach(prestamo -> assertEquals(LocalDate.now().plusDays(14), prestamo.getFechaVencimiento()));
+
+        // Un prestamo ya devuelto rechaza la devolucion de todos
+        servicio.marcarComoDevuelto(prestados.get(0).getId());
+        List<Long> ids = prestados.stream().map(Prestamo::getId).toList();
+        assertThrows(PrestamoNoPermitidoExcepcion.class, () -> servicio.devolverPrestamos(ids));
+        assertEquals(2, prestamos.countActivosByUsuarioDni(usuario1.getDni()));
+
+        servicio.devolverPrestamos(ids.subList(1, 3));
+
+        assertEquals(0, prestamos.countActivosByUsuarioDni(usuario1.getDni()));
+        assertEquals(3, libros.countByEstado(EstadoLibro.DISPONIBLE));
+        assertTrue(prestamos.findById(ids.get(2)).orElseThrow().estaDevuelto());
+    }
+
+    @Test
+    void realizarPrestamosEnLoteCuentaTodoElCanastoContraElMaximo() {
+        // Arrange
+        LibroRepositoryImpl libros = new LibroRepositoryImpl();
+        PrestamoRepositoryImpl prestamos = new PrestamoRepositoryImpl();
+        UsuarioRepositoryImpl usuarios = new UsuarioRepositoryImpl();
+        usuarios.save(usuario1);
+        PrestamoServiceImpl servicio = new PrestamoServiceImpl(prestamos, libros, usuarios);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            ids.add(libros.save(new Libro(null, "978-" + i, "Libro " + i, "Autor", EstadoLibro.DISPONIBLE)).getId());
+        }
+        servicio.realizarPrestamos(usuario1.getDni(), ids.subList(0, 3));
+
+        // Act & Assert: con 3 abiertos y un maximo de 5, tres mas no entran pero dos si
+        assertThrows(PrestamoNoPermitidoExcepcion.class, () -> servicio.realizarPrestamos(usuario1.getDni(), ids.subList(3, 6)));
+        assertEquals(3, prestamos.countActivosByUsuarioDni(usuario1.getDni()));
+        assertEquals(2, servicio.realizarPrestamos(usuario1.getDni(), ids.subList(3, 5)).size());
+        assertThrows(UsuarioNoEncontradoExcepcion.class, () -> servicio.realizarPrestamos(77L, ids.subList(5, 6)));
+    }
+
+    @Test
+    void lotesConcurrentesConLibrosEnComunNoSeTrabanYCadaLibroSePrestaUnaVez() throws InterruptedException {
+        // Arrange: cada usuario pide los mismos libros en otro orden, el caso que trabaria sin orden de cerrojos
+        LibroRepositoryImpl libros = new LibroRepositoryImpl();
+        PrestamoRepositoryImpl prestamos = new PrestamoRepositoryImpl();
+        UsuarioRepositoryImpl usuarios = new UsuarioRepositoryImpl();
+        PropiedadesPrestamos configuracion = new PropiedadesPrestamos();
+        configuracion.setMaximoPorUsuario(100);
+        PrestamoServiceImpl servicio = new PrestamoServiceImpl(prestamos, libros, usuarios, configuracion);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            ids.add(libros.save(new Libro(null, "978-" + i, "Libro " + i, "Autor", EstadoLibro.DISPONIBLE)).getId());
+        }
+        int hilos = 8;
+        for (long dni = 1; dni <= hilos; dni++) {
+            usuarios.save(new Usuario(dni, "Usuario " + dni, "u" + dni + "@mail.com", EstadoUsuario.ACTIVO));
+        }
+        ExecutorService ejecutor = Executors.newFixedThreadPool(hilos);
+        CountDownLatch largada = new CountDownLatch(1);
+        AtomicInteger prestados = new AtomicInteger();
+
+        // Act
+        for (long dni = 1; dni <= hilos; dni++) {
+            long usuario = dni;
+            ejecutor.submit(() -> {
+                Random random = new Random(usuario);
+                largada.await();
+                for (int intento = 0; intento < 200; intento++) {
+                    List<Long> canasto = new ArrayList<>(ids);
+                    Collections.shuffle(canasto, random);
+                    try {
+                        prestados.addAndGet(servicio.realizarPrestamos(usuario, canasto.subList(0, 5)).size());
+                    } catch (PrestamoNoPermitidoExcepcion e) {
+                        // Alguno ya estaba prestado: no se llevo ninguno
+                    }
+                    List<Long> abiertos = prestamos.findByUsuarioDni(usuario).stream()
+                            .filter(prestamo -> !prestamo.estaDevuelto()).map(Prestamo::getId).toList();
+                    if (!abiertos.isEmpty() && random.nextBoolean()) {
+                        servicio.devolverPrestamos(abiertos);
+                    }
+                }
+                return null;
+            });
+        }
+        largada.countDown();
+        ejecutor.shutdown();
+
+        // Assert: terminan todos, ningun libro quedo con dos prestamos abiertos y los estados coinciden
+        assertTrue(ejecutor.awaitTermination(30, TimeUnit.SECONDS));
+        assertTrue(prestados.get() > 0);
+        long abiertos = 0;
+        for (Long id : ids) {
+            long activos = prestamos.findByLibroId(id).stream().filter(prestamo -> !prestamo.estaDevuelto()).count();
+            assertTrue(activos <= 1);
+            assertEquals(activos == 1 ? EstadoLibro.PRESTADO : EstadoLibro.DISPONIBLE, libros.findById(id).orElseThrow().getEstadoLibro());
+            abiertos += activos;
+        }
+        assertEquals(abiertos, libros.countByEstado(EstadoLibro.PRESTADO));
+    }
 }
\ No newline at end of file